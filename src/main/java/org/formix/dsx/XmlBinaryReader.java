@@ -0,0 +1,296 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Reads an XmlElement tree written by {@link XmlBinaryWriter}. Names are
+ * read once and shared by all the elements and attributes using them, and
+ * Latin-1 texts are kept as the bytes read, without being decoded.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlBinaryReader {
+
+	private static final int BUFFER_SIZE = 65536;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private InputStream in;
+	private byte[] buffer;
+	private int pos;
+	private int limit;
+	private String[] names;
+	private int nameCount;
+	private String[] attributes;
+	private char[] chars;
+	private XmlDocumentType documentType;
+
+	/**
+	 * Creates a reader on the given input stream.
+	 * 
+	 * @param in
+	 *            The stream containing the encoded document.
+	 */
+	XmlBinaryReader(InputStream in) {
+		this.in = in;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.pos = 0;
+		this.limit = 0;
+		this.names = new String[64];
+		this.nameCount = 0;
+		this.attributes = new String[16];
+		this.chars = new char[1024];
+		this.documentType = null;
+	}
+
+	/**
+	 * Gets the document type read by {@link #read()}.
+	 * 
+	 * @return the type of the document read or null if it has none.
+	 */
+	XmlDocumentType getDocumentType() {
+		return this.documentType;
+	}
+
+	/**
+	 * Reads a whole document.
+	 * 
+	 * @return the root element of the document or null if it has none.
+	 * 
+	 * @throws XmlException
+	 *             If the data is not a binary document or is truncated.
+	 * 
+	 * @throws IOException
+	 *             If the input stream fails.
+	 */
+	XmlElement read() throws IOException, XmlException {
+		byte[] magic = XmlBinaryWriter.MAGIC;
+		this.require(magic.length + 2);
+		for (int i = 0; i < magic.length; i++) {
+			if (this.buffer[this.pos++] != magic[i]) {
+				throw new XmlException("Not a binary XML document.");
+			}
+		}
+		int version = this.buffer[this.pos++] & 0xFF;
+		if (version != XmlBinaryWriter.VERSION) {
+			throw new XmlException("Unsupported binary XML version: "
+					+ version);
+		}
+		int doctype = this.buffer[this.pos++] & 0xFF;
+		XmlDocumentType[] doctypes = XmlDocumentType.values();
+		if (doctype == XmlBinaryWriter.NO_DOCUMENT_TYPE) {
+			this.documentType = null;
+		} else if (doctype < doctypes.length) {
+			this.documentType = doctypes[doctype];
+		} else {
+			throw new XmlException("Invalid document type: " + doctype);
+		}
+		int token = this.readByte();
+		if (token == XmlBinaryWriter.NONE) {
+			return null;
+		}
+		if (token != XmlBinaryWriter.ELEMENT) {
+			throw new XmlException("Invalid token: " + token);
+		}
+		return this.readElement();
+	}
+
+	private XmlElement readElement() throws IOException, XmlException {
+		XmlElement element = new XmlElement(this.readName());
+		int attributeCount = this.readCount();
+		if (attributeCount > 0) {
+			if (attributeCount * 2 > this.attributes.length) {
+				this.attributes = new String[attributeCount * 2];
+			}
+			for (int i = 0; i < attributeCount * 2; i += 2) {
+				this.attributes[i] = this.readName();
+				long header = this.readVarint();
+				if (header == XmlBinaryWriter.NULL_VALUE) {
+					this.attributes[i + 1] = null;
+				} else {
+					this.attributes[i + 1] = this.readString(header);
+				}
+			}
+			element.setAttributes(this.attributes, attributeCount);
+		}
+		int childCount = this.readCount();
+		element.ensureChildCapacity(childCount);
+		for (int i = 0; i < childCount; i++) {
+			int token = this.readByte();
+			if (token == XmlBinaryWriter.ELEMENT) {
+				element.addChild(this.readElement());
+			} else if (token == XmlBinaryWriter.TEXT
+					|| token == XmlBinaryWriter.CDATA
+					|| token == XmlBinaryWriter.COMMENT) {
+				element.addChild(this.readText(token));
+			} else {
+				throw new XmlException("Invalid token: " + token);
+			}
+		}
+		return element;
+	}
+
+	private XmlText readText(int token) throws IOException, XmlException {
+		long header = this.readVarint();
+		int length = this.checkLength(header >>> 1);
+		if ((header & 1) == 1) {
+			byte[] latin1 = new byte[length];
+			this.readBytes(latin1, length);
+			if (token == XmlBinaryWriter.TEXT) {
+				return new XmlText(latin1);
+			} else if (token == XmlBinaryWriter.CDATA) {
+				return new XmlCDATA(latin1);
+			}
+			return new XmlComment(latin1);
+		}
+		char[] chars = this.readChars(length);
+		if (token == XmlBinaryWriter.TEXT) {
+			return new XmlText(chars, 0, length);
+		} else if (token == XmlBinaryWriter.CDATA) {
+			return new XmlCDATA(chars, 0, length);
+		}
+		return new XmlComment(chars, 0, length);
+	}
+
+	private String readName() throws IOException, XmlException {
+		int index = this.readCount();
+		if (index == 0) {
+			String name = this.readString();
+			if (this.nameCount == this.names.length) {
+				this.names = Arrays.copyOf(this.names, this.nameCount * 2);
+			}
+			this.names[this.nameCount++] = name;
+			return name;
+		}
+		if (index > this.nameCount) {
+			throw new XmlException("Invalid name index: " + index);
+		}
+		return this.names[index - 1];
+	}
+
+	private String readString() throws IOException, XmlException {
+		return this.readString(this.readVarint());
+	}
+
+	private String readString(long header) throws IOException, XmlException {
+		int length = this.checkLength(header >>> 1);
+		if ((header & 1) == 0) {
+			return new String(this.readChars(length), 0, length);
+		}
+		if (length <= this.buffer.length) {
+			this.require(length);
+			String value = new String(this.buffer, this.pos, length, ISO_8859_1);
+			this.pos += length;
+			return value;
+		}
+		byte[] latin1 = new byte[length];
+		this.readBytes(latin1, length);
+		return new String(latin1, ISO_8859_1);
+	}
+
+	private char[] readChars(int length) throws IOException, XmlException {
+		char[] chars = this.chars;
+		if (length > chars.length) {
+			chars = new char[length];
+		}
+		int count = 0;
+		while (count < length) {
+			this.require(2);
+			int size = Math.min(length - count, (this.limit - this.pos) / 2);
+			byte[] b = this.buffer;
+			int p = this.pos;
+			for (int i = 0; i < size; i++) {
+				chars[count++] = (char) ((b[p] << 8) | (b[p + 1] & 0xFF));
+				p += 2;
+			}
+			this.pos = p;
+		}
+		return chars;
+	}
+
+	private void readBytes(byte[] target, int length) throws IOException,
+			XmlException {
+		int count = Math.min(length, this.limit - this.pos);
+		System.arraycopy(this.buffer, this.pos, target, 0, count);
+		this.pos += count;
+		while (count < length) {
+			int read = this.in.read(target, count, length - count);
+			if (read < 0) {
+				throw new XmlException("Truncated binary XML document.");
+			}
+			count += read;
+		}
+	}
+
+	private int readCount() throws IOException, XmlException {
+		return this.checkLength(this.readVarint());
+	}
+
+	private int checkLength(long length) throws XmlException {
+		if (length > Integer.MAX_VALUE) {
+			throw new XmlException("Invalid length: " + length);
+		}
+		return (int) length;
+	}
+
+	private long readVarint() throws IOException, XmlException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = this.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if (b < 0x80) {
+				return value;
+			}
+		}
+		throw new XmlException("Malformed varint.");
+	}
+
+	private int readByte() throws IOException, XmlException {
+		if (this.pos == this.limit) {
+			this.require(1);
+		}
+		return this.buffer[this.pos++] & 0xFF;
+	}
+
+	/**
+	 * Makes sure that the buffer holds at least the given number of bytes,
+	 * which cannot be larger than the buffer.
+	 */
+	private void require(int length) throws IOException, XmlException {
+		if (this.limit - this.pos >= length) {
+			return;
+		}
+		int remaining = this.limit - this.pos;
+		System.arraycopy(this.buffer, this.pos, this.buffer, 0, remaining);
+		this.pos = 0;
+		this.limit = remaining;
+		while (this.limit < length) {
+			int read = this.in.read(this.buffer, this.limit,
+					this.buffer.length - this.limit);
+			if (read < 0) {
+				throw new XmlException("Truncated binary XML document.");
+			}
+			this.limit += read;
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Writes an XmlElement tree in the compact binary format read by
+ * {@link XmlBinaryReader}. The format is made of a header followed by the
+ * tokens of the tree, depth first:
+ * </p>
+ * 
+ * <ul>
+ * <li>Header: the magic bytes 0x89 'D' 'S' 'X', the format version and the
+ * ordinal of the document type, 0xFF when there is none.</li>
+ * <li>Element: ELEMENT, name, attribute count, attribute names and values,
+ * child count and children.</li>
+ * <li>Text, CDATA section and comment: TEXT, CDATA or COMMENT followed by the
+ * text.</li>
+ * </ul>
+ * 
+ * <p>
+ * Counts are unsigned varints, 7 bits per byte, least significant group
+ * first. A string is a varint holding its length in characters shifted left
+ * by one, with the low bit set when all its characters are Latin-1 and
+ * stored as one byte each. Other strings are stored as UTF-16BE characters.
+ * Element and attribute names are kept in a dictionary built while writing:
+ * a name is a varint holding 0 followed by the name string on its first
+ * occurrence and its index in the dictionary plus one afterward. A null
+ * attribute value is written as the header NULL_VALUE, which no string uses:
+ * empty strings are written as Latin-1.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlBinaryWriter {
+
+	static final byte[] MAGIC = { (byte) 0x89, 'D', 'S', 'X' };
+	static final int VERSION = 1;
+	static final int NO_DOCUMENT_TYPE = 0xFF;
+
+	static final int NONE = 0;
+	static final int ELEMENT = 1;
+	static final int TEXT = 2;
+	static final int CDATA = 3;
+	static final int COMMENT = 4;
+
+	// The header of a null attribute value.
+	static final int NULL_VALUE = 0;
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private OutputStream out;
+	private byte[] buffer;
+	private int count;
+	private Map<String, Integer> names;
+	private char[] chars;
+
+	/**
+	 * Creates a writer targeting the given output stream.
+	 * 
+	 * @param out
+	 *            The stream receiving the encoded bytes.
+	 */
+	XmlBinaryWriter(OutputStream out) {
+		this.out = out;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.count = 0;
+		this.names = new HashMap<String, Integer>();
+		this.chars = new char[BUFFER_SIZE / 2];
+	}
+
+	/**
+	 * Writes a whole document and flushes the output stream.
+	 * 
+	 * @param doctype
+	 *            The type of the document, can be null.
+	 * 
+	 * @param root
+	 *            The root element of the document, can be null.
+	 * 
+	 * @throws IOException
+	 *             If the output stream fails or if a text is too long to be
+	 *             read back.
+	 */
+	void write(XmlDocumentType doctype, XmlElement root) throws IOException {
+		this.ensure(MAGIC.length + 2);
+		System.arraycopy(MAGIC, 0, this.buffer, this.count, MAGIC.length);
+		this.count += MAGIC.length;
+		this.buffer[this.count++] = (byte) VERSION;
+		this.buffer[this.count++] = (byte) (doctype == null ? NO_DOCUMENT_TYPE
+				: doctype.ordinal());
+		if (root == null) {
+			this.writeByte(NONE);
+		} else {
+			this.writeElement(root);
+		}
+		this.flush();
+	}
+
+	private void writeElement(XmlElement element) throws IOException {
+		this.writeByte(ELEMENT);
+		this.writeName(element.getName());
+		int attributeCount = element.getAttributeCount();
+		this.writeVarint(attributeCount);
+		for (int i = 0; i < attributeCount; i++) {
+			this.writeName(element.getAttributeName(i));
+			String value = element.getAttributeValue(i);
+			if (value == null) {
+				this.writeVarint(NULL_VALUE);
+			} else {
+				this.writeString(value);
+			}
+		}
+		int childCount = element.getChildCount();
+		this.writeVarint(childCount);
+		for (int i = 0; i < childCount; i++) {
+			XmlContent child = element.getChild(i);
+			if (child instanceof XmlElement) {
+				this.writeElement((XmlElement) child);
+			} else if (child instanceof XmlCDATA) {
+				this.writeByte(CDATA);
+				this.writeText((XmlText) child);
+			} else if (child instanceof XmlComment) {
+				this.writeByte(COMMENT);
+				this.writeText((XmlText) child);
+			} else if (child instanceof XmlText) {
+				this.writeByte(TEXT);
+				this.writeText((XmlText) child);
+			} else {
+				throw new IOException("Unsupported XmlContent type: "
+						+ child.getClass().getName());
+			}
+		}
+	}
+
+	private void writeName(String name) throws IOException {
+		Integer index = this.names.get(name);
+		if (index == null) {
+			this.names.put(name, Integer.valueOf(this.names.size() + 1));
+			this.writeVarint(0);
+			this.writeString(name);
+		} else {
+			this.writeVarint(index.intValue());
+		}
+	}
+
+	private void writeText(XmlText text) throws IOException {
+		if (text instanceof XmlSpooledText) {
+			this.writeSpooledText((XmlSpooledText) text);
+			return;
+		}
+		byte[] latin1 = text.getLatin1();
+		if (latin1 == null) {
+			this.writeString(text.getText());
+			return;
+		}
+		this.writeVarint(((long) latin1.length << 1) | 1);
+		this.writeBytes(latin1, 0, latin1.length);
+	}
+
+	private void writeSpooledText(XmlSpooledText text) throws IOException {
+		// The text can be larger than the memory, it is copied as UTF-16.
+		long length = text.length();
+		if (length > Integer.MAX_VALUE) {
+			// The reader loads every text in a single String.
+			throw new IOException("The text is too long to be saved: "
+					+ length + " characters");
+		}
+		this.writeVarint(length << 1);
+		Reader reader = text.getReader();
+		try {
+			int read = reader.read(this.chars);
+			while (read >= 0) {
+				this.writeChars(this.chars, read);
+				read = reader.read(this.chars);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void writeString(String value) throws IOException {
+		int length = value.length();
+		int latin1 = 1;
+		for (int i = 0; i < length; i++) {
+			if (value.charAt(i) > 0xFF) {
+				latin1 = 0;
+				break;
+			}
+		}
+		this.writeVarint(((long) length << 1) | latin1);
+		int pos = 0;
+		while (pos < length) {
+			int size = Math.min(length - pos, this.chars.length);
+			value.getChars(pos, pos + size, this.chars, 0);
+			if (latin1 == 1) {
+				this.ensure(size);
+				for (int i = 0; i < size; i++) {
+					this.buffer[this.count++] = (byte) this.chars[i];
+				}
+			} else {
+				this.writeChars(this.chars, size);
+			}
+			pos += size;
+		}
+	}
+
+	private void writeChars(char[] chars, int length) throws IOException {
+		this.ensure(length * 2);
+		byte[] b = this.buffer;
+		int p = this.count;
+		for (int i = 0; i < length; i++) {
+			char c = chars[i];
+			b[p++] = (byte) (c >>> 8);
+			b[p++] = (byte) c;
+		}
+		this.count = p;
+	}
+
+	private void writeVarint(long value) throws IOException {
+		this.ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			this.buffer[this.count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.count++] = (byte) value;
+	}
+
+	private void writeByte(int b) throws IOException {
+		this.ensure(1);
+		this.buffer[this.count++] = (byte) b;
+	}
+
+	private void writeBytes(byte[] bytes, int offset, int length)
+			throws IOException {
+		if (length > this.buffer.length) {
+			this.flushBuffer();
+			this.out.write(bytes, offset, length);
+			return;
+		}
+		this.ensure(length);
+		System.arraycopy(bytes, offset, this.buffer, this.count, length);
+		this.count += length;
+	}
+
+	private void ensure(int length) throws IOException {
+		if (this.count + length > this.buffer.length) {
+			this.flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (this.count > 0) {
+			this.out.write(this.buffer, 0, this.count);
+			this.count = 0;
+		}
+	}
+
+	/**
+	 * Writes the encoded bytes to the output stream and flushes it.
+	 * 
+	 * @throws IOException
+	 *             If the output stream fails.
+	 */
+	void flush() throws IOException {
+		this.flushBuffer();
+		this.out.flush();
+	}
+}
@@ -35,9 +35,45 @@ public class XmlCDATA extends XmlText {
 		super(text);
 	}
 
+	/**
+	 * Creates a CDATA section with the given characters.
+	 * 
+	 * @param chars
+	 *            The buffer containing the text.
+	 * 
+	 * @param offset
+	 *            The offset of the first character of the text.
+	 * 
+	 * @param length
+	 *            The number of characters of the text.
+	 */
+	XmlCDATA(char[] chars, int offset, int length) {
+		super(chars, offset, length);
+	}
+
+	/**
+	 * Creates a CDATA section with the given Latin-1 characters, one per
+	 * byte. The array is kept by the XmlCDATA and must not be modified.
+	 * 
+	 * @param latin1
+	 *            The characters of the text.
+	 */
+	XmlCDATA(byte[] latin1) {
+		super(latin1);
+	}
+
 	@Override
 	public void write(Writer writer) throws IOException {
-		writer.write(this.toXml());
+		writer.write("<![CDATA[");
+		this.writeCharacters(writer);
+		writer.write("]]>");
+	}
+
+	@Override
+	void writeText(Writer writer, String text) throws IOException {
+		writer.write("<![CDATA[");
+		writer.write(text);
+		writer.write("]]>");
 	}
 
 	@Override
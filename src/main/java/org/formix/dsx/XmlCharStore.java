@@ -0,0 +1,298 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The characters of an {@link XmlIndexedDocument}. The characters are either
+ * kept in the char array given by the caller or appended to blocks of direct
+ * buffers allocated outside of the heap. Offsets are longs so that documents
+ * larger than 2 GB can be stored off heap.
+ * </p>
+ * 
+ * <p>
+ * A store can also keep the bytes of a UTF-8 or ISO-8859-1 document as they
+ * were read. Offsets are then byte offsets and {@link #charAt(long)} returns
+ * code units: the bytes themselves. Every markup character is ASCII and no
+ * byte of a UTF-8 multi-byte sequence is ASCII, so the markup is found the
+ * same way in characters and in bytes. The characters are decoded only when
+ * a range is copied.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlCharStore {
+
+	private static final int BLOCK_SHIFT = 20;
+	private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	private char[] array;
+	private byte[] bytes;
+	private boolean utf8;
+	private CharBuffer[] blocks;
+	private long length;
+
+	/**
+	 * Creates a store using the given array. Offsets are array indexes.
+	 * 
+	 * @param array
+	 *            The array holding the characters.
+	 */
+	XmlCharStore(char[] array) {
+		this.array = array;
+		this.length = array.length;
+	}
+
+	/**
+	 * Creates a store using the given encoded bytes. Offsets are array
+	 * indexes. The UTF-8 sequences must have been checked with
+	 * {@link #indexOfMalformed(byte[], int, int)}.
+	 * 
+	 * @param bytes
+	 *            The array holding the encoded characters.
+	 * 
+	 * @param utf8
+	 *            true if the bytes are encoded in UTF-8, false if they are
+	 *            encoded in ISO-8859-1.
+	 */
+	XmlCharStore(byte[] bytes, boolean utf8) {
+		this.bytes = bytes;
+		this.utf8 = utf8;
+		this.length = bytes.length;
+	}
+
+	/**
+	 * Creates an empty store whose characters are appended to direct
+	 * buffers. Offsets start at 0.
+	 */
+	XmlCharStore() {
+		this.blocks = new CharBuffer[0];
+		this.length = 0;
+	}
+
+	/**
+	 * Gets the array holding the characters.
+	 * 
+	 * @return the array holding the characters or null if they are stored in
+	 *         direct buffers or as bytes.
+	 */
+	char[] array() {
+		return this.array;
+	}
+
+	/**
+	 * Gets the number of code units of the store.
+	 * 
+	 * @return the number of code units of the store.
+	 */
+	long length() {
+		return this.length;
+	}
+
+	/**
+	 * Appends characters at the end of a direct store.
+	 */
+	void append(char[] chars, int offset, int length) {
+		while (length > 0) {
+			int block = (int) (this.length >>> BLOCK_SHIFT);
+			if (block == this.blocks.length) {
+				this.blocks = Arrays.copyOf(this.blocks, block + 1);
+				this.blocks[block] = allocate(block == 0 ? Math.min(BLOCK_SIZE,
+						Math.max(length, 4096)) : BLOCK_SIZE);
+			}
+			CharBuffer buffer = this.blocks[block];
+			if (!buffer.hasRemaining()) {
+				// Only the first block grows, the next ones are full sized.
+				buffer = this.resize(block, Math.min(BLOCK_SIZE,
+						Math.max(buffer.capacity() * 2, buffer.capacity()
+								+ length)));
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.put(chars, offset, count);
+			this.length += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	private static CharBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity * 2)
+				.order(ByteOrder.nativeOrder()).asCharBuffer();
+	}
+
+	private CharBuffer resize(int block, int capacity) {
+		CharBuffer buffer = this.blocks[block];
+		buffer.flip();
+		CharBuffer resized = allocate(capacity);
+		resized.put(buffer);
+		this.blocks[block] = resized;
+		return resized;
+	}
+
+	/**
+	 * Gets the code unit at the given offset: a character, or a byte of an
+	 * encoded store.
+	 */
+	char charAt(long offset) {
+		if (this.array != null) {
+			return this.array[(int) offset];
+		}
+		if (this.bytes != null) {
+			return (char) (this.bytes[(int) offset] & 0xFF);
+		}
+		return this.blocks[(int) (offset >>> BLOCK_SHIFT)]
+				.get((int) (offset & BLOCK_MASK));
+	}
+
+	/**
+	 * Copies the characters of the given range of code units. The bytes of an
+	 * encoded store are decoded.
+	 * 
+	 * @return a new array holding the characters of the range.
+	 */
+	char[] getChars(long start, long end) {
+		int length = (int) (end - start);
+		char[] target = new char[length];
+		if (this.array != null) {
+			System.arraycopy(this.array, (int) start, target, 0, length);
+		} else if (this.bytes == null) {
+			long offset = start;
+			int targetOffset = 0;
+			while (targetOffset < length) {
+				CharBuffer buffer = this.blocks[(int) (offset >>> BLOCK_SHIFT)]
+						.duplicate();
+				buffer.position((int) (offset & BLOCK_MASK));
+				int count = Math.min(length - targetOffset, buffer.limit()
+						- buffer.position());
+				buffer.get(target, targetOffset, count);
+				offset += count;
+				targetOffset += count;
+			}
+		} else if (!this.utf8) {
+			for (int i = 0; i < length; i++) {
+				target[i] = (char) (this.bytes[(int) start + i] & 0xFF);
+			}
+		} else {
+			int count = decodeUtf8(this.bytes, (int) start, (int) end, target);
+			if (count < length) {
+				target = Arrays.copyOf(target, count);
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * Decodes well-formed UTF-8 bytes. A sequence never decodes to more
+	 * characters than it has bytes.
+	 * 
+	 * @return the number of decoded characters.
+	 */
+	private static int decodeUtf8(byte[] bytes, int start, int end,
+			char[] target) {
+		int count = 0;
+		int i = start;
+		while (i < end) {
+			int b = bytes[i++];
+			if (b >= 0) {
+				target[count++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				target[count++] = (char) ((b & 0x1F) << 6 | bytes[i++] & 0x3F);
+			} else if ((b & 0xF0) == 0xE0) {
+				target[count++] = (char) ((b & 0x0F) << 12
+						| (bytes[i] & 0x3F) << 6 | bytes[i + 1] & 0x3F);
+				i += 2;
+			} else {
+				int codePoint = (b & 0x07) << 18 | (bytes[i] & 0x3F) << 12
+						| (bytes[i + 1] & 0x3F) << 6 | bytes[i + 2] & 0x3F;
+				target[count++] = Character.highSurrogate(codePoint);
+				target[count++] = Character.lowSurrogate(codePoint);
+				i += 3;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the first malformed UTF-8 sequence of the given range. Overlong
+	 * forms, surrogates and code points above U+10FFFF are malformed.
+	 * 
+	 * @return the offset of the first malformed sequence or -1 if the whole
+	 *         range is well-formed.
+	 */
+	static int indexOfMalformed(byte[] bytes, int start, int end) {
+		int i = start;
+		while (i < end) {
+			int b = bytes[i];
+			if (b >= 0) {
+				i++;
+				continue;
+			}
+			int count;
+			int min;
+			if ((b & 0xE0) == 0xC0) {
+				count = 1;
+				min = 0x80;
+			} else if ((b & 0xF0) == 0xE0) {
+				count = 2;
+				min = 0x800;
+			} else if ((b & 0xF8) == 0xF0) {
+				count = 3;
+				min = 0x10000;
+			} else {
+				return i;
+			}
+			if (i + count >= end) {
+				return i;
+			}
+			int codePoint = b & 0x3F >> count;
+			for (int k = 1; k <= count; k++) {
+				int next = bytes[i + k];
+				if ((next & 0xC0) != 0x80) {
+					return i;
+				}
+				codePoint = codePoint << 6 | next & 0x3F;
+			}
+			if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+					|| codePoint >= Character.MIN_SURROGATE
+					&& codePoint <= Character.MAX_SURROGATE) {
+				return i;
+			}
+			i += count + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Shrinks the last direct block to the number of characters it holds.
+	 */
+	void trim() {
+		if (this.blocks == null || this.blocks.length == 0) {
+			return;
+		}
+		int last = this.blocks.length - 1;
+		CharBuffer buffer = this.blocks[last];
+		if (buffer.hasRemaining()) {
+			this.resize(last, buffer.position());
+		}
+	}
+}
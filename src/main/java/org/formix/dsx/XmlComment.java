@@ -36,9 +36,45 @@ public class XmlComment extends XmlText {
 		super(text);
 	}
 
+	/**
+	 * Creates an XmlComment with the given characters.
+	 * 
+	 * @param chars
+	 *            The buffer containing the text.
+	 * 
+	 * @param offset
+	 *            The offset of the first character of the text.
+	 * 
+	 * @param length
+	 *            The number of characters of the text.
+	 */
+	XmlComment(char[] chars, int offset, int length) {
+		super(chars, offset, length);
+	}
+
+	/**
+	 * Creates an XmlComment with the given Latin-1 characters, one per byte.
+	 * The array is kept by the XmlComment and must not be modified.
+	 * 
+	 * @param latin1
+	 *            The characters of the text.
+	 */
+	XmlComment(byte[] latin1) {
+		super(latin1);
+	}
+
 	@Override
 	public void write(Writer writer) throws IOException {
-		writer.append(this.toXml());
+		writer.write("<!--");
+		this.writeCharacters(writer);
+		writer.write("-->");
+	}
+
+	@Override
+	void writeText(Writer writer, String text) throws IOException {
+		writer.write("<!--");
+		writer.write(text);
+		writer.write("-->");
 	}
 
 	@Override
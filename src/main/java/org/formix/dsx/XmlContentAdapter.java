@@ -17,12 +17,12 @@ package org.formix.dsx;
 
 /**
  * An Adapter with an empty implementation for each of XmlContentListener
- * methods.
+ * methods. Completed elements are kept.
  * 
  * @author jpgravel
  *
  */
-public class XmlContentAdapter implements XmlContentListener {
+public class XmlContentAdapter implements XmlElementListener {
 
 	@Override
 	public void cdataCreated(XmlCDATA cdata) {
@@ -40,4 +40,9 @@ public class XmlContentAdapter implements XmlContentListener {
 	public void commentCreated(XmlComment comment) {
 	}
 
+	@Override
+	public boolean elementCompleted(XmlElement element, int depth) {
+		return false;
+	}
+
 }
@@ -16,21 +16,28 @@
 package org.formix.dsx;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.PushbackInputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
 
 import org.formix.dsx.utils.Environment;
 
@@ -71,6 +78,7 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	}
 
 	private XmlDocumentType xmlDocumentType;
+	private boolean stripWhiteSpaces;
 
 	/**
 	 * Creates an instance of XmlDocument version 1.0
@@ -143,6 +151,41 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 		this.xmlDocumentType = xmlDocumentType;
 	}
 
+	/**
+	 * Tells if the white spaces are stripped while the document is loaded.
+	 * 
+	 * @return true if the white spaces are stripped.
+	 */
+	public boolean isStripWhiteSpaces() {
+		return this.stripWhiteSpaces;
+	}
+
+	/**
+	 * Sets if the white spaces are stripped while the document is loaded. The
+	 * loaded document is then the same as the one obtained after a call to
+	 * {@link #cleanUp()}, but the white space texts are never created. This is
+	 * much cheaper for indented documents, where they are often close to half
+	 * of the nodes.
+	 * 
+	 * @param stripWhiteSpaces
+	 *            true to strip the white spaces while loading.
+	 */
+	public void setStripWhiteSpaces(boolean stripWhiteSpaces) {
+		this.stripWhiteSpaces = stripWhiteSpaces;
+	}
+
+	private XmlParser acquireParser(XmlParserPool pool) {
+		XmlParser parser = pool.acquire();
+		parser.setStripWhiteSpaces(this.stripWhiteSpaces);
+		return parser;
+	}
+
+	private XmlParallelLoader createParallelLoader(ForkJoinPool pool) {
+		XmlParallelLoader loader = new XmlParallelLoader(pool);
+		loader.setStripWhiteSpaces(this.stripWhiteSpaces);
+		return loader;
+	}
+
 	/**
 	 * Removes any XmlText in XmlElements that contains white spaces only.
 	 */
@@ -153,20 +196,32 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	}
 
 	private void removeWhiteSpaces(XmlElement node) {
-		Iterator<XmlContent> iter = node.getChilds().iterator();
-		while (iter.hasNext()) {
-			XmlContent child = iter.next();
+		// The kept children are gathered first: removing them one at a time
+		// from the child array would be quadratic for wide elements.
+		List<XmlContent> childs = node.getChilds();
+		List<XmlContent> kept = new ArrayList<XmlContent>(childs.size());
+		for (XmlContent child : childs) {
 			if (child instanceof XmlElement) {
 				this.removeWhiteSpaces((XmlElement) child);
+				kept.add(child);
 			} else if (child instanceof XmlText) {
 				XmlText text = (XmlText) child;
-				if (text.getText().trim().equals("")) {
-					iter.remove();
-				} else {
-					text.setText(text.getText().trim());
+				String value = text.getText();
+				String trimmed = value.trim();
+				if (!trimmed.isEmpty()) {
+					if (trimmed != value) {
+						text.setText(trimmed);
+					}
+					kept.add(child);
 				}
+			} else {
+				kept.add(child);
 			}
 		}
+		if (kept.size() < childs.size()) {
+			childs.clear();
+			childs.addAll(kept);
+		}
 	}
 
 	/**
@@ -180,7 +235,9 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	/**
 	 * Format the XmlDocument using eol to change lines and indent to indent
 	 * embedded XmlElements. Before formating, this method will call cleanUp to
-	 * trim all XmlText and remove remaining empty XmlText.
+	 * trim all XmlText and remove remaining empty XmlText. Use
+	 * {@link #save(Writer, XmlFormatOptions)} to write a formatted document
+	 * without modifying it.
 	 * 
 	 * @param eol
 	 *            the end of line characters used to change lines.
@@ -270,7 +327,11 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	}
 
 	/**
-	 * Loads the XmlDocument from the specified source file.
+	 * Loads the XmlDocument from the specified source file. The file encoding
+	 * is detected from the byte order mark or the XML declaration and defaults
+	 * to UTF-8. Gzip compressed files are detected from their first bytes and
+	 * decompressed on the fly. The file is read through memory mapping, see
+	 * {@link #load(FileChannel)}.
 	 * 
 	 * @param source
 	 *            the source file containing the xml data.
@@ -282,14 +343,358 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	 *             If some file reading problem is encountered.
 	 */
 	public void load(File source) throws IOException, XmlException {
-		Reader reader = new FileReader(source);
+		FileInputStream in = new FileInputStream(source);
+		try {
+			this.load(in.getChannel());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified source path. The file encoding
+	 * is detected from the byte order mark or the XML declaration and defaults
+	 * to UTF-8. Like {@link #load(File)}, the file is read through memory
+	 * mapping and gzip compressed files are decompressed on the fly.
+	 * 
+	 * @param source
+	 *            the path of the file containing the xml data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some file reading problem is encountered.
+	 */
+	public void load(Path source) throws IOException, XmlException {
+		FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+		try {
+			this.load(channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified file using memory mapping.
+	 * The file is mapped in large windows and decoded straight from the
+	 * operating system page cache, which makes loading very large files
+	 * cheaper than going through a stream. The channel is read from its
+	 * current position and is not closed by this method. Gzip compressed
+	 * files are detected and decompressed as a stream instead.
+	 * 
+	 * <pre>
+	 * FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+	 * try {
+	 * 	document.load(channel);
+	 * } finally {
+	 * 	channel.close();
+	 * }
+	 * </pre>
+	 * 
+	 * @param channel
+	 *            The channel of the file containing the xml data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some file reading problem is encountered.
+	 */
+	public void load(FileChannel channel) throws IOException, XmlException {
+		ByteBuffer magic = ByteBuffer.allocate(2);
+		channel.read(magic, channel.position());
+		if (isGzip(magic, 0)) {
+			this.load(Channels.newInputStream(channel));
+			return;
+		}
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = this.acquireParser(pool);
+		try {
+			this.setRoot(parser.parse(channel));
+		} finally {
+			pool.release(parser);
+		}
+	}
+
+	/**
+	 * Loads the XmlDocument from the bytes contained in the specified buffer,
+	 * from its position to its limit. The buffer can be a MappedByteBuffer
+	 * obtained from {@link FileChannel#map}. The encoding is detected from the
+	 * byte order mark or the XML declaration and defaults to UTF-8. Gzip
+	 * compressed data is detected and decompressed.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the xml data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 */
+	public void load(ByteBuffer buffer) throws XmlException {
+		if (isGzip(buffer, buffer.position())) {
+			try {
+				this.load(new ByteBufferInputStream(buffer));
+			} catch (IOException e) {
+				throw new XmlException("A reader problem occured.", e);
+			}
+			return;
+		}
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = this.acquireParser(pool);
+		try {
+			this.setRoot(parser.parse(buffer));
+		} finally {
+			pool.release(parser);
+		}
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified input stream. The encoding is
+	 * detected from the byte order mark or the XML declaration and defaults to
+	 * UTF-8. A gzip compressed stream, like the ones written by
+	 * {@link #saveCompressed(OutputStream)}, is detected from its first bytes
+	 * and decompressed on the fly.
+	 * 
+	 * @param in
+	 *            The input stream containing the xml data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some reading problem is encountered.
+	 */
+	public void load(InputStream in) throws IOException, XmlException {
+		this.load(in, new XmlContentAdapter());
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified input stream, notifying the
+	 * given listener each time an XmlContent is created. The encoding is
+	 * detected from the byte order mark or the XML declaration and defaults to
+	 * UTF-8.
+	 * 
+	 * @param in
+	 *            The input stream containing the xml data.
+	 * 
+	 * @param listener
+	 *            A XmlContentListener used to get insights while the document
+	 *            is loading.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some reading problem is encountered.
+	 */
+	public void load(InputStream in, XmlContentListener listener)
+			throws IOException, XmlException {
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = this.acquireParser(pool);
 		try {
-			this.load(reader);
+			this.setRoot(parser.parse(decompress(in), listener));
+		} finally {
+			pool.release(parser);
+		}
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified source file, keeping only the
+	 * elements accepted by the given filter. Rejected elements are skipped
+	 * with their whole content and never take any memory.
+	 * 
+	 * @param source
+	 *            the source file containing the xml data.
+	 * 
+	 * @param filter
+	 *            The filter deciding which elements are loaded.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some file reading problem is encountered.
+	 */
+	public void loadFiltered(File source, XmlFilter filter)
+			throws IOException, XmlException {
+		InputStream in = new FileInputStream(source);
+		try {
+			this.loadFiltered(in, filter);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified input stream, keeping only the
+	 * elements accepted by the given filter. Rejected elements are skipped
+	 * with their whole content and never take any memory.
+	 * 
+	 * @param in
+	 *            The input stream containing the xml data.
+	 * 
+	 * @param filter
+	 *            The filter deciding which elements are loaded.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some reading problem is encountered.
+	 */
+	public void loadFiltered(InputStream in, XmlFilter filter)
+			throws IOException, XmlException {
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = this.acquireParser(pool);
+		try {
+			parser.setFilter(filter);
+			this.setRoot(parser.parse(decompress(in)));
+		} finally {
+			pool.release(parser);
+		}
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified file using all available
+	 * processors. The file is read in memory and the root element children
+	 * are parsed concurrently on the common ForkJoinPool. This is intended for
+	 * large documents made of many sibling records: the resulting document is
+	 * the same as the one obtained with {@link #load(File)}. The file encoding
+	 * is detected from the byte order mark or the XML declaration and
+	 * defaults to UTF-8. Gzip compressed files are decompressed on the fly.
+	 * 
+	 * @param source
+	 *            the source file containing the xml data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some file reading problem is encountered.
+	 */
+	public void loadParallel(File source) throws IOException, XmlException {
+		this.loadParallel(source, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified file, parsing the root element
+	 * children concurrently on the given pool.
+	 * 
+	 * @param source
+	 *            the source file containing the xml data.
+	 * 
+	 * @param pool
+	 *            The ForkJoinPool running the parsing tasks.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some file reading problem is encountered.
+	 * 
+	 * @see #loadParallel(File)
+	 */
+	public void loadParallel(File source, ForkJoinPool pool)
+			throws IOException, XmlException {
+		InputStream in = decompress(new FileInputStream(source));
+		// The size of a compressed file says nothing about the text size.
+		long sizeHint = in instanceof GZIPInputStream ? 0 : source.length();
+		Reader reader = new XmlStreamDecoder(in);
+		try {
+			this.setRoot(this.createParallelLoader(pool).parse(reader,
+					sizeHint));
 		} finally {
 			reader.close();
 		}
 	}
 
+	/**
+	 * Loads the XmlDocument from the specified reader using all available
+	 * processors. The reader content is read in memory and the root element
+	 * children are parsed concurrently on the common ForkJoinPool.
+	 * 
+	 * @param reader
+	 *            The reader containing the xml data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some reading problem is encountered.
+	 * 
+	 * @see #loadParallel(File)
+	 */
+	public void loadParallel(Reader reader) throws IOException, XmlException {
+		this.loadParallel(reader, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified reader, parsing the root
+	 * element children concurrently on the given pool.
+	 * 
+	 * @param reader
+	 *            The reader containing the xml data.
+	 * 
+	 * @param pool
+	 *            The ForkJoinPool running the parsing tasks.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some reading problem is encountered.
+	 * 
+	 * @see #loadParallel(File)
+	 */
+	public void loadParallel(Reader reader, ForkJoinPool pool)
+			throws IOException, XmlException {
+		this.setRoot(this.createParallelLoader(pool).parse(reader, 0));
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified file written by
+	 * {@link #saveBinary(File)}.
+	 * 
+	 * @param source
+	 *            the source file containing the binary document.
+	 * 
+	 * @throws XmlException
+	 *             If the file does not contain a binary document.
+	 * 
+	 * @throws IOException
+	 *             If some file reading problem is encountered.
+	 */
+	public void loadBinary(File source) throws IOException, XmlException {
+		InputStream in = new FileInputStream(source);
+		try {
+			this.loadBinary(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads the XmlDocument from the specified input stream containing a
+	 * document written by {@link #saveBinary(OutputStream)}. The tree and the
+	 * document type are restored exactly as they were saved, without parsing
+	 * any XML. Gzip compressed data is detected and decompressed on the fly.
+	 * 
+	 * @param in
+	 *            The input stream containing the binary document.
+	 * 
+	 * @throws XmlException
+	 *             If the stream does not contain a binary document.
+	 * 
+	 * @throws IOException
+	 *             If some reading problem is encountered.
+	 */
+	public void loadBinary(InputStream in) throws IOException, XmlException {
+		XmlBinaryReader reader = new XmlBinaryReader(decompress(in));
+		XmlElement root = reader.read();
+		this.setDocumentType(reader.getDocumentType());
+		this.setRoot(root);
+	}
+
 	/**
 	 * Loads the XmlDocument from the specified reader.
 	 * 
@@ -337,6 +742,11 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	 * 	htmldoc.load(reader, adapter);
 	 * }
 	 * </pre>
+	 * <p>
+	 * An {@link XmlElementListener} is also notified when each element is
+	 * complete and can discard it, so that huge documents are processed one
+	 * record at a time in constant memory.
+	 * </p>
 	 * 
 	 * @param reader
 	 *            The reader pointing to the XML document to load.
@@ -353,11 +763,76 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	 */
 	public void load(Reader reader, XmlContentListener listener)
 			throws IOException, XmlException {
-		this.setRoot(XmlElement.readXML(reader, listener));
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = this.acquireParser(pool);
+		try {
+			this.setRoot(parser.parse(reader, listener));
+		} finally {
+			pool.release(parser);
+		}
 	}
 
 	/**
-	 * Saves the current document in the specified target file.
+	 * Loads the XmlDocument from the specified reader, keeping only the
+	 * elements accepted by the given filter. Rejected elements are skipped
+	 * with their whole content and never take any memory.
+	 * 
+	 * @param reader
+	 *            The reader containing the xml data.
+	 * 
+	 * @param filter
+	 *            The filter deciding which elements are loaded.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some reading problem is encountered.
+	 */
+	public void loadFiltered(Reader reader, XmlFilter filter)
+			throws IOException, XmlException {
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = this.acquireParser(pool);
+		try {
+			parser.setFilter(filter);
+			this.setRoot(parser.parse(reader));
+		} finally {
+			pool.release(parser);
+		}
+	}
+
+	/**
+	 * Returns a stream decompressing the given one if it starts with the gzip
+	 * magic bytes, the given data otherwise.
+	 */
+	private static InputStream decompress(InputStream in) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		byte[] magic = new byte[2];
+		int count = 0;
+		while (count < magic.length) {
+			int read = pushback.read(magic, count, magic.length - count);
+			if (read < 0) {
+				break;
+			}
+			count += read;
+		}
+		pushback.unread(magic, 0, count);
+		if (isGzip(ByteBuffer.wrap(magic, 0, count), 0)) {
+			return new GZIPInputStream(pushback, 65536);
+		}
+		return pushback;
+	}
+
+	private static boolean isGzip(ByteBuffer buffer, int position) {
+		return buffer.limit() - position >= 2
+				&& buffer.get(position) == (byte) 0x1f
+				&& buffer.get(position + 1) == (byte) 0x8b;
+	}
+
+	/**
+	 * Saves the current document in the specified target file. When the
+	 * file name ends with ".gz", the document is saved compressed with
+	 * {@link #saveCompressed(OutputStream)}.
 	 * 
 	 * @param target
 	 *            The file where the xml document will be saved.
@@ -366,10 +841,16 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	 *             If some problems occurs while saving XML to the file.
 	 */
 	public void save(File target) throws IOException {
-		OutputStreamWriter writer = new OutputStreamWriter(
-				new FileOutputStream(target), "UTF-8");
-		this.save(writer);
-		writer.close();
+		FileOutputStream out = new FileOutputStream(target);
+		try {
+			if (target.getName().endsWith(".gz")) {
+				this.saveCompressed(out);
+			} else {
+				this.save(out);
+			}
+		} finally {
+			out.close();
+		}
 	}
 
 	/**
@@ -382,18 +863,67 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	 *             If an issue happens while writing to the writer.
 	 */
 	public void save(Writer writer) throws IOException {
-		PrintWriter pw = new PrintWriter(writer);
-		if (this.xmlDocumentType == XmlDocumentType.XHTML) {
-			pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-			pw.println("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.1//EN\" \"http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd\">");
-		} else if (this.xmlDocumentType == XmlDocumentType.XML_1_0) {
-			pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-		} else if (this.xmlDocumentType == XmlDocumentType.XML_1_1) {
-			pw.println("<?xml version=\"1.1\" encoding=\"UTF-8\"?>");
-		}
+		this.save(writer, null);
+	}
+
+	/**
+	 * Save the current XmlDocument to the specified writer, formatted with the
+	 * given options. The output is the same as the one obtained after a call
+	 * to {@link #format(String, String)} but the document is left untouched:
+	 * the indentation is written on the fly, without adding any XmlText to
+	 * the document. Documents can thus be saved formatted while other threads
+	 * read them.
+	 * 
+	 * @param writer
+	 *            The writer used to save the xml document.
+	 * 
+	 * @param options
+	 *            The end of line and indentation to use or null to save the
+	 *            document as is.
+	 * 
+	 * @throws IOException
+	 *             If an issue happens while writing to the writer.
+	 */
+	public void save(Writer writer, XmlFormatOptions options)
+			throws IOException {
+		writeDeclaration(writer, this.xmlDocumentType);
 		if (this.getRoot() != null) {
-			this.getRoot().write(writer);
-			pw.flush();
+			if (options == null) {
+				this.getRoot().write(writer);
+			} else {
+				this.getRoot().write(writer, options);
+			}
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Writes the XML declaration and the document type declaration
+	 * corresponding to the given document type, each followed by the line
+	 * separator of the current system.
+	 * 
+	 * @param writer
+	 *            The writer to write to.
+	 * 
+	 * @param doctype
+	 *            The type of the document.
+	 * 
+	 * @throws IOException
+	 *             If an issue happens while writing to the writer.
+	 */
+	static void writeDeclaration(Writer writer, XmlDocumentType doctype)
+			throws IOException {
+		if (doctype == XmlDocumentType.XHTML) {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			writer.write(Environment.NEWLINE);
+			writer.write("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.1//EN\" \"http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd\">");
+			writer.write(Environment.NEWLINE);
+		} else if (doctype == XmlDocumentType.XML_1_0) {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			writer.write(Environment.NEWLINE);
+		} else if (doctype == XmlDocumentType.XML_1_1) {
+			writer.write("<?xml version=\"1.1\" encoding=\"UTF-8\"?>");
+			writer.write(Environment.NEWLINE);
 		}
 	}
 
@@ -408,8 +938,159 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	 *             If an error occurs while saving.
 	 */
 	public void save(OutputStream out) throws IOException {
-		this.save(new OutputStreamWriter(out, Charset.availableCharsets().get(
-				"UTF-8")));
+		XmlUtf8Writer writer = new XmlUtf8Writer(out);
+		this.save(writer);
+		writer.flush();
+	}
+
+	/**
+	 * Saves the current document to the given output stream, formatted with
+	 * the given options. The XML will be written in UTF8.
+	 * 
+	 * @param out
+	 *            The output stream to write to.
+	 * 
+	 * @param options
+	 *            The end of line and indentation to use or null to save the
+	 *            document as is.
+	 * 
+	 * @throws IOException
+	 *             If an error occurs while saving.
+	 * 
+	 * @see #save(Writer, XmlFormatOptions)
+	 */
+	public void save(OutputStream out, XmlFormatOptions options)
+			throws IOException {
+		XmlUtf8Writer writer = new XmlUtf8Writer(out);
+		this.save(writer, options);
+		writer.flush();
+	}
+
+	/**
+	 * Saves the current document to the given channel, a FileChannel for
+	 * example. The XML will be written in UTF8, in large blocks.
+	 * 
+	 * @param channel
+	 *            The channel to write to.
+	 * 
+	 * @throws IOException
+	 *             If an error occurs while saving.
+	 */
+	public void save(WritableByteChannel channel) throws IOException {
+		XmlUtf8Writer writer = new XmlUtf8Writer(channel);
+		this.save(writer);
+		writer.flush();
+	}
+
+	/**
+	 * Saves the current document in the given buffer, starting at its
+	 * position. The XML will be written in UTF8.
+	 * 
+	 * @param buffer
+	 *            The buffer to write to. Its position is moved after the
+	 *            written bytes.
+	 * 
+	 * @throws IOException
+	 *             If an error occurs while saving.
+	 * 
+	 * @throws java.nio.BufferOverflowException
+	 *             If the document does not fit in the buffer.
+	 */
+	public void save(ByteBuffer buffer) throws IOException {
+		XmlUtf8Writer writer = new XmlUtf8Writer(buffer);
+		this.save(writer);
+		writer.flush();
+	}
+
+	/**
+	 * Saves the current document to the given output stream in the gzip
+	 * format. The XML is written in UTF8 and compressed in parallel blocks on
+	 * the common ForkJoinPool, which is much faster than a GZIPOutputStream
+	 * for large documents. The output stream is not closed.
+	 * 
+	 * @param out
+	 *            The output stream to write to.
+	 * 
+	 * @throws IOException
+	 *             If an error occurs while saving.
+	 * 
+	 * @see XmlGzipOutputStream
+	 */
+	public void saveCompressed(OutputStream out) throws IOException {
+		this.saveCompressed(out, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Saves the current document to the given output stream in the gzip
+	 * format, compressing on the given pool. The output stream is not closed.
+	 * 
+	 * @param out
+	 *            The output stream to write to.
+	 * 
+	 * @param pool
+	 *            The ForkJoinPool running the compression tasks.
+	 * 
+	 * @throws IOException
+	 *             If an error occurs while saving.
+	 * 
+	 * @see #saveCompressed(OutputStream)
+	 */
+	public void saveCompressed(OutputStream out, ForkJoinPool pool)
+			throws IOException {
+		XmlGzipOutputStream gzip = new XmlGzipOutputStream(out, pool);
+		this.save(gzip);
+		gzip.finish();
+	}
+
+	/**
+	 * Saves the current document in the specified target file using the
+	 * binary format of {@link #saveBinary(OutputStream)}. When the file name
+	 * ends with ".gz", the binary document is also compressed.
+	 * 
+	 * @param target
+	 *            The file where the binary document will be saved.
+	 * 
+	 * @throws IOException
+	 *             If some problems occurs while writing to the file.
+	 */
+	public void saveBinary(File target) throws IOException {
+		OutputStream out = new FileOutputStream(target);
+		try {
+			if (target.getName().endsWith(".gz")) {
+				XmlGzipOutputStream gzip = new XmlGzipOutputStream(out);
+				this.saveBinary(gzip);
+				gzip.finish();
+			} else {
+				this.saveBinary(out);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Saves the current document to the given output stream in a compact
+	 * binary format instead of XML. Element and attribute names are written
+	 * once in a dictionary and referenced by index, lengths are written as
+	 * varints and texts are written without any escaping. The document is
+	 * read back with {@link #loadBinary(InputStream)} much faster than XML
+	 * can be parsed. This is intended for caching documents between
+	 * processes; the format is specific to this library.
+	 * 
+	 * <p>
+	 * XmlSpooledText contents are written like any other text and are read
+	 * back as XmlText instances. Saving fails on a text longer than
+	 * Integer.MAX_VALUE characters, which could not be read back.
+	 * </p>
+	 * 
+	 * @param out
+	 *            The output stream to write to.
+	 * 
+	 * @throws IOException
+	 *             If an error occurs while saving.
+	 */
+	public void saveBinary(OutputStream out) throws IOException {
+		new XmlBinaryWriter(out).write(this.xmlDocumentType, this.getRoot());
 	}
 
 	/**
@@ -422,4 +1103,47 @@ public class XmlDocument extends XmlNavigator implements XmlBloc {
 	public Map<XmlContent, XmlElement> createParentMap() {
 		return createParentMap(this.getRoot());
 	}
+
+	/**
+	 * Reads the bytes of a buffer, from its position to its limit, without
+	 * copying them. The position of the buffer advances as bytes are read.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!this.buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+			this.buffer.position(this.buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return this.buffer.remaining();
+		}
+	}
 }
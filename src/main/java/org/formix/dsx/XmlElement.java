@@ -16,37 +16,38 @@
 package org.formix.dsx;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
-import org.apache.commons.lang.StringEscapeUtils;
 import org.formix.dsx.utils.SUID;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.SAXNotRecognizedException;
-import org.xml.sax.SAXNotSupportedException;
 
 /**
  * Define an Xml node in an XML document.
  * 
  * @author jpgravel
- *
+ * 
  */
 public class XmlElement implements XmlContent {
 
+	private static final XmlContent[] NO_CHILDS = new XmlContent[0];
+
 	/**
 	 * Creates a new XmlElement.
 	 * 
@@ -59,29 +60,10 @@ public class XmlElement implements XmlContent {
 		return new XmlElement(name);
 	}
 
-	private static SAXParser createSaxParser()
-			throws ParserConfigurationException, SAXNotRecognizedException,
-			SAXNotSupportedException, SAXException {
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		factory.setNamespaceAware(false);
-
-		factory.setValidating(false);
-		factory.setFeature("http://xml.org/sax/features/namespaces", false);
-		factory.setFeature("http://xml.org/sax/features/validation", false);
-		factory.setFeature(
-				"http://apache.org/xml/features/nonvalidating/load-dtd-grammar",
-				false);
-		factory.setFeature(
-				"http://apache.org/xml/features/nonvalidating/load-external-dtd",
-				false);
-
-		SAXParser parser = factory.newSAXParser();
-		return parser;
-	}
-
 	/**
 	 * Reads an XmlElement from the given file. Every sub child xml content will
-	 * be recurseively created.
+	 * be recurseively created. The file encoding is detected from the byte
+	 * order mark or the XML declaration and defaults to UTF-8.
 	 * 
 	 * @param file
 	 *            The file containing the XmlElement.
@@ -93,10 +75,12 @@ public class XmlElement implements XmlContent {
 	 */
 	public static XmlElement readXML(File file) throws XmlException {
 		try {
-			Reader reader = new FileReader(file);
-			XmlElement element = readXML(reader);
-			reader.close();
-			return element;
+			InputStream in = new FileInputStream(file);
+			try {
+				return readXML(in);
+			} finally {
+				in.close();
+			}
 		} catch (FileNotFoundException e) {
 			throw new XmlException("Invalid file " + file, e);
 		} catch (IOException e) {
@@ -104,6 +88,68 @@ public class XmlElement implements XmlContent {
 		}
 	}
 
+	/**
+	 * Reads an XmlElement from the given input stream. The encoding is
+	 * detected from the byte order mark or the XML declaration and defaults to
+	 * UTF-8.
+	 * 
+	 * @param in
+	 *            The input stream containing the XmlElement.
+	 * 
+	 * @return A new XmlElement.
+	 * 
+	 * @throws XmlException
+	 *             If there is any problem during Xml parsing.
+	 */
+	public static XmlElement readXML(InputStream in) throws XmlException {
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = pool.acquire();
+		try {
+			return parser.parse(in);
+		} finally {
+			pool.release(parser);
+		}
+	}
+
+	/**
+	 * Reads an XmlElement from the given bytes. The encoding is detected from
+	 * the byte order mark or the XML declaration and defaults to UTF-8.
+	 * 
+	 * @param data
+	 *            The XML data.
+	 * 
+	 * @return A new XmlElement.
+	 * 
+	 * @throws XmlException
+	 *             If there is any problem during Xml parsing.
+	 */
+	public static XmlElement readXML(byte[] data) throws XmlException {
+		return readXML(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Reads an XmlElement from the bytes contained in the given buffer, from
+	 * its position to its limit. The encoding is detected from the byte order
+	 * mark or the XML declaration and defaults to UTF-8.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data.
+	 * 
+	 * @return A new XmlElement.
+	 * 
+	 * @throws XmlException
+	 *             If there is any problem during Xml parsing.
+	 */
+	public static XmlElement readXML(ByteBuffer buffer) throws XmlException {
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = pool.acquire();
+		try {
+			return parser.parse(buffer);
+		} finally {
+			pool.release(parser);
+		}
+	}
+
 	/**
 	 * Reads an XmlElement from the given reader. Every sub child xml content
 	 * will be recurseively created.
@@ -139,27 +185,65 @@ public class XmlElement implements XmlContent {
 	 */
 	public static XmlElement readXML(Reader reader, XmlContentListener listener)
 			throws XmlException {
-		XmlHandler handler = new XmlHandler(listener);
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = pool.acquire();
 		try {
-			SAXParser parser = createSaxParser();
-			parser.setProperty("http://xml.org/sax/properties/lexical-handler",
-					handler);
-			parser.parse(new InputSource(reader), handler);
-			return handler.getRootElement();
-		} catch (SAXException e) {
-			String message = "A parser problem occured";
-			if (handler.peekTopElement() != null) {
-				message += ", node = " + handler.peekTopElement().toString();
-			}
-			throw new XmlException(message, e);
-		} catch (IOException e) {
-			throw new XmlException("A reader problem occured.", e);
-		} catch (ParserConfigurationException e) {
-			throw new XmlException("A parser configuration has been detected.",
-					e);
+			return parser.parse(reader, listener);
+		} finally {
+			pool.release(parser);
+		}
+	}
+
+	/**
+	 * Parse the XML contained in the given character buffer into an
+	 * XmlElement. The buffer is scanned directly, without any intermediate
+	 * copy.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data.
+	 * 
+	 * @param offset
+	 *            The offset of the first character of the XML data.
+	 * 
+	 * @param length
+	 *            The number of characters of XML data.
+	 * 
+	 * @return The XmlElement parsed from the given buffer.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public static XmlElement readXML(char[] buffer, int offset, int length)
+			throws XmlException {
+		XmlParserPool pool = XmlParserPool.getDefault();
+		XmlParser parser = pool.acquire();
+		try {
+			return parser.parse(buffer, offset, length);
+		} finally {
+			pool.release(parser);
 		}
 	}
 
+	/**
+	 * Opens an XmlElementReader returning, one at a time, every XmlElement
+	 * found at the given path. Only one matching subtree is kept in memory at
+	 * once.
+	 * 
+	 * @param reader
+	 *            The reader containing the XML data.
+	 * 
+	 * @param path
+	 *            The path of the desired XmlElements, omitting the root
+	 *            element name. For example: "/IDOC/E1KNA1M".
+	 * 
+	 * @return An XmlElementReader positionned before the first matching
+	 *         XmlElement.
+	 */
+	public static XmlElementReader readElements(Reader reader, String path) {
+		return new XmlElementReader(reader, path);
+	}
+
 	/**
 	 * Parse the given xml string into an XmlElement.
 	 * 
@@ -173,19 +257,19 @@ public class XmlElement implements XmlContent {
 	 *             data.
 	 */
 	public static XmlElement readXML(String xml) throws XmlException {
-		try {
-			Reader reader = new StringReader(xml);
-			XmlElement element = readXML(reader);
-			reader.close();
-			return element;
-		} catch (IOException e) {
-			throw new XmlException(
-					"A problem occured when closing the reader.", e);
-		}
+		char[] buffer = xml.toCharArray();
+		return readXML(buffer, 0, buffer.length);
 	}
 
-	private Map<String, String> attributes;
-	private List<XmlContent> childs;
+	// Attribute names and values, in insertion order: name at 2i, value at
+	// 2i + 1. Most elements have few attributes, a flat array is much smaller
+	// than a map and its entries.
+	private String[] attributes;
+	private int attributeCount;
+	// Children are kept in an array shared by all leaf elements until the
+	// first child is added.
+	private XmlContent[] childs;
+	private int childCount;
 	private long id;
 	private String name;
 
@@ -197,8 +281,10 @@ public class XmlElement implements XmlContent {
 	 */
 	public XmlElement(String name) {
 		this.setName(name);
-		this.attributes = new LinkedHashMap<String, String>();
-		this.childs = new ArrayList<XmlContent>();
+		this.attributes = null;
+		this.attributeCount = 0;
+		this.childs = NO_CHILDS;
+		this.childCount = 0;
 		this.id = -1;
 	}
 
@@ -218,8 +304,7 @@ public class XmlElement implements XmlContent {
 	 */
 	@Deprecated
 	public XmlElement addAttribute(String name, String value) {
-		this.attributes.put(name, value);
-		return this;
+		return this.setAttribute(name, value);
 	}
 
 	/**
@@ -246,10 +331,55 @@ public class XmlElement implements XmlContent {
 	 * @return The current XmlElement instance for method chaining.
 	 */
 	public XmlElement addChild(XmlContent child) {
-		this.childs.add(child);
+		this.insertChild(this.childCount, child);
 		return this;
 	}
 
+	private void insertChild(int index, XmlContent child) {
+		if (this.childCount == this.childs.length) {
+			this.childs = Arrays.copyOf(this.childs,
+					Math.max(4, this.childCount * 2));
+		}
+		System.arraycopy(this.childs, index, this.childs, index + 1,
+				this.childCount - index);
+		this.childs[index] = child;
+		this.childCount++;
+	}
+
+	private XmlContent removeChild(int index) {
+		XmlContent child = this.childs[index];
+		System.arraycopy(this.childs, index + 1, this.childs, index,
+				this.childCount - index - 1);
+		this.childs[--this.childCount] = null;
+		return child;
+	}
+
+	/**
+	 * Releases the unused capacity of the child array. This is used by the
+	 * parser once an element is complete.
+	 */
+	void trimChilds() {
+		if (this.childCount == 0) {
+			this.childs = NO_CHILDS;
+		} else if (this.childCount < this.childs.length) {
+			this.childs = Arrays.copyOf(this.childs, this.childCount);
+		}
+	}
+
+	/**
+	 * Grows the child array so that it can hold the given number of children
+	 * without being copied again. This is used by readers knowing the number
+	 * of children in advance.
+	 * 
+	 * @param capacity
+	 *            The number of children to make room for.
+	 */
+	void ensureChildCapacity(int capacity) {
+		if (capacity > this.childs.length) {
+			this.childs = Arrays.copyOf(this.childs, capacity);
+		}
+	}
+
 	/**
 	 * Adds a new XmlComment to the current XmlElement.
 	 * 
@@ -305,14 +435,15 @@ public class XmlElement implements XmlContent {
 		if (!this.equals(o))
 			return false;
 
-		if (this.childs.size() != o.childs.size())
+		if (this.childCount != o.childCount)
 			return false;
 
-		for (XmlContent c1 : this.childs) {
+		for (int j = 0; j < this.childCount; j++) {
+			XmlContent c1 = this.childs[j];
 			boolean atLeastOneEqual = false;
 
-			for (int i = 0; i < o.childs.size() && !atLeastOneEqual; i++) {
-				XmlContent c2 = o.childs.get(i);
+			for (int i = 0; i < o.childCount && !atLeastOneEqual; i++) {
+				XmlContent c2 = o.childs[i];
 				if (c1 instanceof XmlElement && c2 instanceof XmlElement) {
 					XmlElement e1 = (XmlElement) c1;
 					XmlElement e2 = (XmlElement) c2;
@@ -357,13 +488,14 @@ public class XmlElement implements XmlContent {
 		if (!this.name.equals(other.name))
 			return false;
 
-		if (this.attributes.size() != other.attributes.size())
+		if (this.attributeCount != other.attributeCount)
 			return false;
 
-		for (String key : this.attributes.keySet()) {
-			if (!other.attributes.containsKey(key))
+		for (int i = 0; i < this.attributeCount * 2; i += 2) {
+			int index = other.indexOfAttribute(this.attributes[i]);
+			if (index < 0)
 				return false;
-			if (!this.attributes.get(key).equals(other.attributes.get(key)))
+			if (!this.attributes[i + 1].equals(other.attributes[index + 1]))
 				return false;
 		}
 
@@ -386,7 +518,7 @@ public class XmlElement implements XmlContent {
 	 *         otherwise.
 	 */
 	public boolean hasAttribute(String name) {
-		return this.attributes.containsKey(name);
+		return this.indexOfAttribute(name) >= 0;
 	}
 
 	/**
@@ -399,17 +531,109 @@ public class XmlElement implements XmlContent {
 	 *         not exists for the current XmlElement.
 	 */
 	public String getAttribute(String name) {
-		return this.attributes.get(name);
+		int index = this.indexOfAttribute(name);
+		if (index < 0) {
+			return null;
+		}
+		return this.attributes[index + 1];
 	}
 
 	/**
-	 * Gets the attribute map of the current XmlElement.
+	 * Gets the attribute map of the current XmlElement. The returned map is a
+	 * view on the attributes of this XmlElement, in insertion order: changes
+	 * made to the map are reflected on the element and vice-versa.
 	 * 
 	 * @return A Map&lt;String, String&gt; containing all attributes of this
 	 *         XmlElement.
 	 */
 	public Map<String, String> getAttributes() {
-		return this.attributes;
+		return new AttributeMap();
+	}
+
+	/**
+	 * Gets the number of attributes of the current XmlElement.
+	 * 
+	 * @return the number of attributes of the current XmlElement.
+	 */
+	public int getAttributeCount() {
+		return this.attributeCount;
+	}
+
+	/**
+	 * Gets the name of the attribute at the given index, in insertion order.
+	 * 
+	 * @param index
+	 *            The index of the attribute.
+	 * 
+	 * @return the name of the attribute.
+	 */
+	String getAttributeName(int index) {
+		return this.attributes[index * 2];
+	}
+
+	/**
+	 * Gets the value of the attribute at the given index, in insertion order.
+	 * 
+	 * @param index
+	 *            The index of the attribute.
+	 * 
+	 * @return the value of the attribute.
+	 */
+	String getAttributeValue(int index) {
+		return this.attributes[index * 2 + 1];
+	}
+
+	/**
+	 * Removes the named attribute from the current XmlElement.
+	 * 
+	 * @param name
+	 *            The name of the attribute to remove.
+	 * 
+	 * @return The value of the removed attribute or null if the attribute does
+	 *         not exists for the current XmlElement.
+	 */
+	public String removeAttribute(String name) {
+		int index = this.indexOfAttribute(name);
+		if (index < 0) {
+			return null;
+		}
+		String value = this.attributes[index + 1];
+		this.removeAttributeAt(index);
+		return value;
+	}
+
+	/**
+	 * Replaces all attributes of the current XmlElement. This is used by the
+	 * parser which has already checked that the names are unique.
+	 * 
+	 * @param namesAndValues
+	 *            The attribute names and values: name at 2i, value at 2i + 1.
+	 * 
+	 * @param count
+	 *            The number of attributes.
+	 */
+	void setAttributes(String[] namesAndValues, int count) {
+		this.attributes = count == 0 ? null : Arrays.copyOf(namesAndValues,
+				count * 2);
+		this.attributeCount = count;
+	}
+
+	private int indexOfAttribute(Object name) {
+		for (int i = 0; i < this.attributeCount * 2; i += 2) {
+			if (this.attributes[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void removeAttributeAt(int index) {
+		int end = this.attributeCount * 2;
+		System.arraycopy(this.attributes, index + 2, this.attributes, index,
+				end - index - 2);
+		this.attributes[end - 2] = null;
+		this.attributes[end - 1] = null;
+		this.attributeCount--;
 	}
 
 	/**
@@ -424,16 +648,31 @@ public class XmlElement implements XmlContent {
 	 *             if the index is out of range.
 	 */
 	public XmlContent getChild(int index) {
-		return this.childs.get(index);
+		if (index >= this.childCount) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ this.childCount);
+		}
+		return this.childs[index];
+	}
+
+	/**
+	 * Gets the number of child XmlContent of the current XmlElement.
+	 * 
+	 * @return the number of child XmlContent.
+	 */
+	public int getChildCount() {
+		return this.childCount;
 	}
 
 	/**
-	 * Gets this XmlContent instance child list.
+	 * Gets this XmlContent instance child list. The returned list is a view on
+	 * the children of this XmlElement: changes made to the list are reflected
+	 * on the element and vice-versa.
 	 * 
 	 * @return This XmlContent child list.
 	 */
 	public List<XmlContent> getChilds() {
-		return this.childs;
+		return new ChildList();
 	}
 
 	/**
@@ -497,7 +736,8 @@ public class XmlElement implements XmlContent {
 	 */
 	public XmlElement getElement(String name, int index) {
 		int counter = 0;
-		for (XmlContent child : this.childs) {
+		for (int i = 0; i < this.childCount; i++) {
+			XmlContent child = this.childs[i];
 			if (child instanceof XmlElement) {
 				XmlElement element = (XmlElement) child;
 				if (element.getName().equals(name)) {
@@ -520,7 +760,8 @@ public class XmlElement implements XmlContent {
 	 */
 	public List<XmlElement> getElements(String name) {
 		ArrayList<XmlElement> elements = new ArrayList<XmlElement>();
-		for (XmlContent child : this.childs) {
+		for (int i = 0; i < this.childCount; i++) {
+			XmlContent child = this.childs[i];
 			if (child instanceof XmlElement) {
 				XmlElement element = (XmlElement) child;
 				if (element.getName().equals(name))
@@ -538,7 +779,8 @@ public class XmlElement implements XmlContent {
 	 */
 	public List<XmlElement> getElements() {
 		ArrayList<XmlElement> elements = new ArrayList<XmlElement>();
-		for (XmlContent content : this.childs) {
+		for (int i = 0; i < this.childCount; i++) {
+			XmlContent content = this.childs[i];
 			if (content instanceof XmlElement) {
 				elements.add((XmlElement) content);
 			}
@@ -578,7 +820,23 @@ public class XmlElement implements XmlContent {
 	 * 
 	 */
 	public XmlElement setAttribute(String name, String value) {
-		this.attributes.put(name, value);
+		if (name == null) {
+			throw new NullPointerException("name");
+		}
+		int index = this.indexOfAttribute(name);
+		if (index >= 0) {
+			this.attributes[index + 1] = value;
+			return this;
+		}
+		index = this.attributeCount * 2;
+		if (this.attributes == null) {
+			this.attributes = new String[4];
+		} else if (index == this.attributes.length) {
+			this.attributes = Arrays.copyOf(this.attributes, index * 2);
+		}
+		this.attributes[index] = name;
+		this.attributes[index + 1] = value;
+		this.attributeCount++;
 		return this;
 	}
 
@@ -589,9 +847,12 @@ public class XmlElement implements XmlContent {
 	 *            The new name of the current attribute.
 	 */
 	public void setName(String name) {
-		if (name.matches(".*\\s.*"))
-			throw new IllegalArgumentException(
-					"The element's name can't contain white spaces.");
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == ' ' || (c >= '\t' && c <= '\r'))
+				throw new IllegalArgumentException(
+						"The element's name can't contain white spaces.");
+		}
 		this.name = name;
 	}
 
@@ -613,37 +874,287 @@ public class XmlElement implements XmlContent {
 
 	@Override
 	public void write(Writer writer) throws IOException {
+		this.writeStartTag(writer, this.childCount == 0);
+
+		for (int i = 0; i < this.childCount; i++)
+			this.childs[i].write(writer);
+
+		if (this.childCount > 0)
+			this.writeEndTag(writer);
+	}
+
+	/**
+	 * Writes the current XmlElement formatted with the given options. The
+	 * output is the same as the one obtained after
+	 * {@link XmlDocument#format(String, String)} but the XmlElement is left
+	 * untouched.
+	 * 
+	 * @param writer
+	 *            The writer to write to.
+	 * 
+	 * @param options
+	 *            The end of line and indentation to use.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer fails.
+	 */
+	public void write(Writer writer, XmlFormatOptions options)
+			throws IOException {
+		new XmlFormatter(options).write(this, writer);
+	}
+
+	/**
+	 * Writes the start tag of the current XmlElement.
+	 * 
+	 * @param writer
+	 *            The writer to write to.
+	 * 
+	 * @param empty
+	 *            true to write an empty element tag.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer fails.
+	 */
+	void writeStartTag(Writer writer, boolean empty) throws IOException {
 		writer.append("<");
-		writer.append(this.name);
+		writeName(writer, this.name);
 
-		for (String name : this.attributes.keySet()) {
+		for (int i = 0; i < this.attributeCount * 2; i += 2) {
 			writer.write(' ');
-			this.writeAttribute(writer, name);
+			writeAttribute(writer, this.attributes[i],
+					this.attributes[i + 1]);
 		}
 
-		if (this.childs.size() == 0)
+		if (empty)
 			writer.append("/");
 
 		writer.append(">");
+	}
 
-		for (XmlContent content : this.childs)
-			content.write(writer);
-
-		if (this.childs.size() > 0) {
-			writer.append("</");
-			writer.append(this.name);
-			writer.append(">");
-		}
+	/**
+	 * Writes the end tag of the current XmlElement.
+	 * 
+	 * @param writer
+	 *            The writer to write to.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer fails.
+	 */
+	void writeEndTag(Writer writer) throws IOException {
+		writer.append("</");
+		writeName(writer, this.name);
+		writer.append(">");
 	}
 
-	private void writeAttribute(Writer writer, String name) throws IOException {
-		writer.append(name);
-		String value = this.attributes.get(name);
+	/**
+	 * Writes an attribute, its value escaped.
+	 */
+	static void writeAttribute(Writer writer, String name, String value)
+			throws IOException {
+		writeName(writer, name);
 		if (value != null) {
 			writer.append("=\"");
-			writer.append(StringEscapeUtils.escapeXml(value));
+			XmlEscaper.escape(value, writer);
 			writer.append("\"");
 		}
 	}
 
+	/**
+	 * Writes an element or attribute name.
+	 */
+	static void writeName(Writer writer, String name)
+			throws IOException {
+		if (writer instanceof XmlUtf8Writer) {
+			((XmlUtf8Writer) writer).writeName(name);
+		} else {
+			writer.append(name);
+		}
+	}
+
+	/**
+	 * A live List view on the children of the current XmlElement.
+	 */
+	private class ChildList extends AbstractList<XmlContent> implements
+			RandomAccess {
+
+		@Override
+		public int size() {
+			return childCount;
+		}
+
+		@Override
+		public XmlContent get(int index) {
+			return getChild(index);
+		}
+
+		@Override
+		public XmlContent set(int index, XmlContent element) {
+			XmlContent previous = getChild(index);
+			childs[index] = element;
+			return previous;
+		}
+
+		@Override
+		public void add(int index, XmlContent element) {
+			if (index < 0 || index > childCount) {
+				throw new IndexOutOfBoundsException("Index: " + index
+						+ ", Size: " + childCount);
+			}
+			insertChild(index, element);
+			this.modCount++;
+		}
+
+		@Override
+		public XmlContent remove(int index) {
+			getChild(index);
+			this.modCount++;
+			return removeChild(index);
+		}
+
+		@Override
+		public void clear() {
+			childs = NO_CHILDS;
+			childCount = 0;
+			this.modCount++;
+		}
+	}
+
+	/**
+	 * A live Map view on the attributes of the current XmlElement.
+	 */
+	private class AttributeMap extends AbstractMap<String, String> {
+
+		@Override
+		public int size() {
+			return attributeCount;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return indexOfAttribute(key) >= 0;
+		}
+
+		@Override
+		public String get(Object key) {
+			int index = indexOfAttribute(key);
+			return index < 0 ? null : attributes[index + 1];
+		}
+
+		@Override
+		public String put(String key, String value) {
+			String previous = this.get(key);
+			setAttribute(key, value);
+			return previous;
+		}
+
+		@Override
+		public String remove(Object key) {
+			int index = indexOfAttribute(key);
+			if (index < 0) {
+				return null;
+			}
+			String value = attributes[index + 1];
+			removeAttributeAt(index);
+			return value;
+		}
+
+		@Override
+		public void clear() {
+			attributes = null;
+			attributeCount = 0;
+		}
+
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			return new AbstractSet<Map.Entry<String, String>>() {
+
+				@Override
+				public int size() {
+					return attributeCount;
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator() {
+					return new AttributeIterator();
+				}
+			};
+		}
+	}
+
+	private class AttributeIterator implements
+			Iterator<Map.Entry<String, String>> {
+
+		private int next = 0;
+		private int current = -1;
+
+		public boolean hasNext() {
+			return this.next < attributeCount * 2;
+		}
+
+		public Map.Entry<String, String> next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			this.current = this.next;
+			this.next += 2;
+			return new AttributeEntry(this.current);
+		}
+
+		public void remove() {
+			if (this.current < 0) {
+				throw new IllegalStateException();
+			}
+			removeAttributeAt(this.current);
+			this.next = this.current;
+			this.current = -1;
+		}
+	}
+
+	private class AttributeEntry implements Map.Entry<String, String> {
+
+		private final int index;
+		private final String key;
+
+		public AttributeEntry(int index) {
+			this.index = index;
+			this.key = attributes[index];
+		}
+
+		public String getKey() {
+			return this.key;
+		}
+
+		public String getValue() {
+			return attributes[this.index + 1];
+		}
+
+		public String setValue(String value) {
+			String previous = attributes[this.index + 1];
+			attributes[this.index + 1] = value;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+			String value = this.getValue();
+			return this.key.equals(other.getKey())
+					&& (value == null ? other.getValue() == null : value
+							.equals(other.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			String value = this.getValue();
+			return this.key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return this.key + "=" + this.getValue();
+		}
+	}
 }
@@ -0,0 +1,45 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+/**
+ * An XmlContentListener also notified when an element is complete, after its
+ * end tag has been read. The listener can then ask for the element to be
+ * discarded, which allows documents larger than the memory to be processed
+ * one record at a time with the usual load methods.
+ * 
+ * @author jpgravel
+ * 
+ */
+public interface XmlElementListener extends XmlContentListener {
+
+	/**
+	 * Called after an XmlElement and all its content have been read, before
+	 * the element is added to its parent.
+	 * 
+	 * @param element
+	 *            The XmlElement that have just been completed.
+	 * 
+	 * @param depth
+	 *            The number of ancestors of the element, 0 for the root
+	 *            element.
+	 * 
+	 * @return true to discard the element instead of adding it to its
+	 *         parent. The root element is never discarded.
+	 */
+	boolean elementCompleted(XmlElement element, int depth);
+
+}
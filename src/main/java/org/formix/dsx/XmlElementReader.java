@@ -0,0 +1,273 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Reads an XML document one record at a time. Each call to {@code next}
+ * returns the next fully built XmlElement found at the given path. Elements
+ * outside of the matching subtrees are never created and a returned subtree
+ * is no longer referenced by the reader once {@code next} is called again.
+ * This allows huge documents made of many similar records to be processed
+ * with a memory footprint proportional to a single record.
+ * </p>
+ * 
+ * <p>
+ * Like in {@link XmlNavigator}, the root element name is omitted from the
+ * path. For example, given the following XML:
+ * </p>
+ * 
+ * <p>
+ * <code>
+ * &lt;DEBMAS07&gt;<br>
+ *   &lt;IDOC&gt;<br>
+ *     &lt;E1KNA1M&gt;...&lt;/E1KNA1M&gt;<br>
+ *     &lt;E1KNA1M&gt;...&lt;/E1KNA1M&gt;<br>
+ *   &lt;/IDOC&gt;<br>
+ * &lt;/DEBMAS07&gt;<br>
+ * </code>
+ * </p>
+ * 
+ * <p>
+ * the following code will process every E1KNA1M element, one at a time:
+ * </p>
+ * 
+ * <p>
+ * <code>
+ * XmlElementReader xreader = new XmlElementReader(reader, "/IDOC/E1KNA1M");<br>
+ * XmlElement record = xreader.next();<br>
+ * while (record != null) {<br>
+ * &nbsp;&nbsp;process(record);<br>
+ * &nbsp;&nbsp;record = xreader.next();<br>
+ * }<br>
+ * xreader.close();
+ * </code>
+ * </p>
+ * 
+ * <p>
+ * Indexers are not supported in the path since every matching element is
+ * returned. The path "/" returns the root element itself.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlElementReader {
+
+	private Reader reader;
+	private XmlContentListener listener;
+	private XmlFilter filter;
+	private String path;
+	private String[] names;
+	private XmlTokenizer tokenizer;
+
+	/**
+	 * Creates an XmlElementReader returning each XmlElement found at the given
+	 * path.
+	 * 
+	 * @param reader
+	 *            The reader containing the XML data.
+	 * 
+	 * @param path
+	 *            The path of the XmlElements to return.
+	 */
+	public XmlElementReader(Reader reader, String path) {
+		this(reader, path, new XmlContentAdapter());
+	}
+
+	/**
+	 * Creates an XmlElementReader returning each XmlElement found at the given
+	 * path. The listener is notified for every XmlContent created inside the
+	 * returned XmlElements.
+	 * 
+	 * @param reader
+	 *            The reader containing the XML data.
+	 * 
+	 * @param path
+	 *            The path of the XmlElements to return.
+	 * 
+	 * @param listener
+	 *            The XmlContentListener containing code to be notified each
+	 *            time an Xml content object is created.
+	 */
+	public XmlElementReader(Reader reader, String path,
+			XmlContentListener listener) {
+		this.reader = reader;
+		this.listener = listener;
+		this.path = path;
+		this.names = splitPath(path);
+		this.tokenizer = new XmlTokenizer(reader);
+	}
+
+	/**
+	 * Creates an XmlElementReader returning each XmlElement found at the given
+	 * path. The encoding of the stream is detected from the byte order mark
+	 * or the XML declaration and defaults to UTF-8.
+	 * 
+	 * @param in
+	 *            The input stream containing the XML data.
+	 * 
+	 * @param path
+	 *            The path of the XmlElements to return.
+	 */
+	public XmlElementReader(InputStream in, String path) {
+		this(new XmlStreamDecoder(in), path, new XmlContentAdapter());
+	}
+
+	/**
+	 * Creates an XmlElementReader returning each XmlElement found at the given
+	 * path, in the bytes contained in the given buffer. The buffer can be a
+	 * MappedByteBuffer obtained from {@link FileChannel#map}.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data.
+	 * 
+	 * @param path
+	 *            The path of the XmlElements to return.
+	 */
+	public XmlElementReader(ByteBuffer buffer, String path) {
+		this(new XmlStreamDecoder(buffer), path, new XmlContentAdapter());
+	}
+
+	/**
+	 * Creates an XmlElementReader returning each XmlElement found at the given
+	 * path, in the given file. The file is memory mapped one large window at a
+	 * time, starting at the channel's current position, which makes
+	 * sequential scans of multi-gigabyte files cheap. The channel is closed
+	 * when the XmlElementReader is closed.
+	 * 
+	 * @param channel
+	 *            The channel of the file containing the XML data.
+	 * 
+	 * @param path
+	 *            The path of the XmlElements to return.
+	 * 
+	 * @throws IOException
+	 *             If the channel position cannot be read.
+	 */
+	public XmlElementReader(FileChannel channel, String path)
+			throws IOException {
+		this(new XmlStreamDecoder(channel), path, new XmlContentAdapter());
+	}
+
+	private static String[] splitPath(String path) {
+		List<String> names = new ArrayList<String>();
+		for (String name : path.split("/")) {
+			if (!name.isEmpty()) {
+				names.add(name);
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 * Gets the path of the XmlElements returned by this reader.
+	 * 
+	 * @return the path of the XmlElements returned by this reader.
+	 */
+	public String getPath() {
+		return this.path;
+	}
+
+	/**
+	 * Sets the filter deciding which elements are loaded inside the returned
+	 * XmlElements. The filter receives the full path of each element, from the
+	 * document root. The returned elements themselves are always loaded.
+	 * 
+	 * @param filter
+	 *            The filter to use or null to load every element.
+	 */
+	public void setFilter(XmlFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Reads the next XmlElement found at the reader's path.
+	 * 
+	 * @return The next XmlElement found or null if the end of the document
+	 *         has been reached.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement next() throws XmlException {
+		try {
+			int token = this.tokenizer.next();
+			while (token != XmlTokenizer.END_DOCUMENT) {
+				if (token == XmlTokenizer.START_ELEMENT && this.matches()) {
+					return this.readElement();
+				}
+				token = this.tokenizer.next();
+			}
+			return null;
+		} catch (XmlException e) {
+			throw new XmlException("A parser problem occured, path = "
+					+ this.currentPath(), e);
+		} catch (IOException e) {
+			throw new XmlException("A reader problem occured.", e);
+		}
+	}
+
+	private boolean matches() {
+		// The root element name is omitted from the path.
+		if (this.tokenizer.getDepth() != this.names.length + 1) {
+			return false;
+		}
+		for (int i = 0; i < this.names.length; i++) {
+			if (!this.names[i].equals(this.tokenizer.getName(i + 1))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private XmlElement readElement() throws IOException, XmlException {
+		XmlHandler handler = new XmlHandler(this.listener);
+		handler.setFilter(this.filter);
+		handler.handle(this.tokenizer, XmlTokenizer.START_ELEMENT);
+		while (handler.getDepth() > 0) {
+			handler.handle(this.tokenizer, this.tokenizer.next());
+		}
+		return handler.getRootElement();
+	}
+
+	private String currentPath() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < this.tokenizer.getDepth(); i++) {
+			sb.append('/').append(this.tokenizer.getName(i));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Closes the current XmlElementReader and the underlying reader.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the underlying reader cannot be closed.
+	 */
+	public void close() throws IOException {
+		this.reader.close();
+	}
+}
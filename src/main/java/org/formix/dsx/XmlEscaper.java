@@ -0,0 +1,205 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * <p>
+ * Escapes texts and attribute values while they are written. The text is
+ * scanned once: its characters and the entities replacing the special ones
+ * are gathered in a per thread output block, which is written to the Writer
+ * in a single call. No String is created, whatever the size of the text.
+ * </p>
+ * 
+ * <p>
+ * The escaping is the one of commons-lang StringEscapeUtils.escapeXml: the
+ * five XML special characters are replaced by their entity and every
+ * character above 0x7F by a decimal character reference, in both texts and
+ * attribute values.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlEscaper {
+
+	private static final int BLOCK_SIZE = 1024;
+
+	// The longest replacement is "&#65535;".
+	private static final int MAX_REPLACEMENT_LENGTH = 8;
+
+	private static final ThreadLocal<XmlEscaper> ESCAPERS = new ThreadLocal<XmlEscaper>() {
+		@Override
+		protected XmlEscaper initialValue() {
+			return new XmlEscaper();
+		}
+	};
+
+	private final char[] input;
+	private final char[] output;
+
+	private XmlEscaper() {
+		this.input = new char[BLOCK_SIZE];
+		this.output = new char[BLOCK_SIZE * MAX_REPLACEMENT_LENGTH];
+	}
+
+	/**
+	 * Writes the given text, escaped, to the given writer.
+	 * 
+	 * @param text
+	 *            The text to escape.
+	 * 
+	 * @param writer
+	 *            The writer receiving the escaped text.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer fails.
+	 */
+	static void escape(CharSequence text, Writer writer) throws IOException {
+		XmlEscaper escaper = ESCAPERS.get();
+		int length = text.length();
+		for (int pos = 0; pos < length; pos += BLOCK_SIZE) {
+			int count = Math.min(BLOCK_SIZE, length - pos);
+			getChars(text, pos, pos + count, escaper.input);
+			escaper.write(escaper.input, 0, count, writer);
+		}
+	}
+
+	/**
+	 * Copies the given range of characters without creating a String.
+	 */
+	static void getChars(CharSequence text, int start, int end, char[] target) {
+		if (text instanceof String) {
+			((String) text).getChars(start, end, target, 0);
+		} else if (text instanceof StringBuilder) {
+			((StringBuilder) text).getChars(start, end, target, 0);
+		} else {
+			for (int i = start; i < end; i++) {
+				target[i - start] = text.charAt(i);
+			}
+		}
+	}
+
+	/**
+	 * Writes the given characters, escaped, to the given writer.
+	 * 
+	 * @param chars
+	 *            The buffer containing the characters to escape.
+	 * 
+	 * @param offset
+	 *            The offset of the first character to escape.
+	 * 
+	 * @param length
+	 *            The number of characters to escape.
+	 * 
+	 * @param writer
+	 *            The writer receiving the escaped text.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer fails.
+	 */
+	static void escape(char[] chars, int offset, int length, Writer writer)
+			throws IOException {
+		XmlEscaper escaper = ESCAPERS.get();
+		for (int pos = 0; pos < length; pos += BLOCK_SIZE) {
+			escaper.write(chars, offset + pos,
+					Math.min(BLOCK_SIZE, length - pos), writer);
+		}
+	}
+
+	/**
+	 * Writes the given ISO-8859-1 text, escaped, to the given writer.
+	 * 
+	 * @param bytes
+	 *            The ISO-8859-1 characters to escape.
+	 * 
+	 * @param writer
+	 *            The writer receiving the escaped text.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer fails.
+	 */
+	static void escapeLatin1(byte[] bytes, Writer writer) throws IOException {
+		XmlEscaper escaper = ESCAPERS.get();
+		char[] input = escaper.input;
+		for (int pos = 0; pos < bytes.length; pos += BLOCK_SIZE) {
+			int count = Math.min(BLOCK_SIZE, bytes.length - pos);
+			for (int i = 0; i < count; i++) {
+				input[i] = (char) (bytes[pos + i] & 0xFF);
+			}
+			escaper.write(input, 0, count, writer);
+		}
+	}
+
+	/**
+	 * Escapes at most BLOCK_SIZE characters in the output block and writes
+	 * it.
+	 */
+	private void write(char[] chars, int offset, int length, Writer writer)
+			throws IOException {
+		char[] out = this.output;
+		int count = 0;
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			char c = chars[i];
+			if (c > 0x7F) {
+				count = writeReference(out, count, c);
+				continue;
+			}
+			switch (c) {
+			case '&':
+				count = append(out, count, "&amp;");
+				break;
+			case '<':
+				count = append(out, count, "&lt;");
+				break;
+			case '>':
+				count = append(out, count, "&gt;");
+				break;
+			case '"':
+				count = append(out, count, "&quot;");
+				break;
+			case '\'':
+				count = append(out, count, "&apos;");
+				break;
+			default:
+				out[count++] = c;
+			}
+		}
+		writer.write(out, 0, count);
+	}
+
+	private static int append(char[] out, int count, String entity) {
+		entity.getChars(0, entity.length(), out, count);
+		return count + entity.length();
+	}
+
+	private static int writeReference(char[] out, int count, char c) {
+		out[count++] = '&';
+		out[count++] = '#';
+		int digits = c >= 10000 ? 5 : c >= 1000 ? 4 : 3;
+		int value = c;
+		for (int i = count + digits - 1; i >= count; i--) {
+			out[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		count += digits;
+		out[count++] = ';';
+		return count;
+	}
+}
@@ -0,0 +1,41 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+/**
+ * Decides which elements are loaded while xml is read. Contrary to an
+ * XmlContentListener, a filter is consulted before the element is created: a
+ * rejected element and its whole subtree are skipped by the parser and no
+ * XmlContent is ever created for them.
+ * 
+ * @author jpgravel
+ * 
+ */
+public interface XmlFilter {
+
+	/**
+	 * Called for each start tag, except the root element's which is always
+	 * loaded.
+	 * 
+	 * @param tag
+	 *            The start tag being read. The tag is only valid for the
+	 *            duration of the call.
+	 * 
+	 * @return true to load the element, false to skip it with its content.
+	 */
+	boolean accept(XmlStartTag tag);
+
+}
@@ -0,0 +1,78 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import org.apache.commons.lang.NullArgumentException;
+import org.formix.dsx.utils.Environment;
+
+/**
+ * The end of line and indentation used to write formatted XML. The default
+ * options use the line separator of the current system and two white spaces,
+ * like {@link XmlDocument#format()}.
+ * 
+ * @author jpgravel
+ * 
+ */
+public final class XmlFormatOptions {
+
+	private final String eol;
+	private final String indent;
+
+	/**
+	 * Creates the default format options.
+	 */
+	public XmlFormatOptions() {
+		this(Environment.NEWLINE, "  ");
+	}
+
+	/**
+	 * Creates format options with the given end of line and indentation.
+	 * 
+	 * @param eol
+	 *            the end of line characters used to change lines.
+	 * 
+	 * @param indent
+	 *            the indentation string used to indent embedded XmlElements.
+	 */
+	public XmlFormatOptions(String eol, String indent) {
+		if (eol == null) {
+			throw new NullArgumentException("eol");
+		}
+		if (indent == null) {
+			throw new NullArgumentException("indent");
+		}
+		this.eol = eol;
+		this.indent = indent;
+	}
+
+	/**
+	 * Gets the end of line characters.
+	 * 
+	 * @return the end of line characters.
+	 */
+	public String getEol() {
+		return this.eol;
+	}
+
+	/**
+	 * Gets the indentation string.
+	 * 
+	 * @return the indentation string.
+	 */
+	public String getIndent() {
+		return this.indent;
+	}
+}
@@ -0,0 +1,239 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Writes an XmlElement tree formatted on the fly. The output is the one of
+ * {@link XmlDocument#format(String, String)} followed by a write, but the
+ * tree is only read: texts are trimmed, blank texts are skipped and the
+ * indentation is written between the elements without any XmlText being
+ * created. The indentation strings are built once per level.
+ * </p>
+ * 
+ * <p>
+ * An XmlSpooledText is streamed from its file: it is trimmed and escaped
+ * chunk by chunk and is never loaded as a whole.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlFormatter {
+
+	// A single text shorter than this is written on the element's line.
+	private static final int MAX_INLINE_TEXT_LENGTH = 60;
+
+	private final String eol;
+	private final String escapedIndent;
+	private String[] lineStarts;
+
+	/**
+	 * Creates a formatter using the given options.
+	 * 
+	 * @param options
+	 *            The end of line and indentation to use.
+	 */
+	XmlFormatter(XmlFormatOptions options) {
+		this.eol = options.getEol();
+		this.escapedIndent = escape(options.getIndent());
+		this.lineStarts = new String[16];
+		this.lineStarts[0] = escape(options.getEol());
+	}
+
+	private static String escape(String text) {
+		StringWriter sw = new StringWriter();
+		try {
+			XmlEscaper.escape(text, sw);
+		} catch (IOException e) {
+			// A StringWriter never fails.
+			throw new IllegalStateException(e);
+		}
+		return sw.toString();
+	}
+
+	/**
+	 * Gets the end of line followed by the indentation of the given level.
+	 */
+	String getLineStart(int level) {
+		if (level >= this.lineStarts.length) {
+			this.lineStarts = Arrays.copyOf(this.lineStarts, level * 2);
+		}
+		if (this.lineStarts[level] == null) {
+			this.lineStarts[level] = this.getLineStart(level - 1)
+					+ this.escapedIndent;
+		}
+		return this.lineStarts[level];
+	}
+
+	/**
+	 * Writes the given element, formatted.
+	 * 
+	 * @param element
+	 *            The element to write.
+	 * 
+	 * @param writer
+	 *            The writer to write to.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer fails.
+	 */
+	void write(XmlElement element, Writer writer) throws IOException {
+		this.write(element, 0, writer);
+	}
+
+	private void write(XmlElement element, int level, Writer writer)
+			throws IOException {
+		int childCount = element.getChildCount();
+		XmlContent first = null;
+		int kept = 0;
+		for (int i = 0; i < childCount && kept < 2; i++) {
+			XmlContent child = element.getChild(i);
+			if (!(child instanceof XmlText) || !((XmlText) child).isBlank()) {
+				if (kept == 0) {
+					first = child;
+				}
+				kept++;
+			}
+		}
+		if (kept == 0) {
+			element.writeStartTag(writer, true);
+			return;
+		}
+		element.writeStartTag(writer, false);
+
+		if (kept == 1 && first instanceof XmlText) {
+			String text;
+			if (first instanceof XmlSpooledText) {
+				text = getInlineText((XmlSpooledText) first);
+			} else {
+				text = ((XmlText) first).getText().trim();
+			}
+			if (text != null && text.length() < MAX_INLINE_TEXT_LENGTH
+					&& !text.contains(this.eol)) {
+				((XmlText) first).writeText(writer, text);
+				element.writeEndTag(writer);
+				return;
+			}
+		}
+
+		for (int i = 0; i < childCount; i++) {
+			XmlContent child = element.getChild(i);
+			if (child instanceof XmlElement) {
+				writer.write(this.getLineStart(level + 1));
+				this.write((XmlElement) child, level + 1, writer);
+			} else if (child instanceof XmlSpooledText) {
+				writeTrimmed((XmlSpooledText) child, writer);
+			} else if (child instanceof XmlText) {
+				String text = ((XmlText) child).getText().trim();
+				if (!text.isEmpty()) {
+					((XmlText) child).writeText(writer, text);
+				}
+			} else {
+				child.write(writer);
+			}
+		}
+		writer.write(this.getLineStart(level));
+		element.writeEndTag(writer);
+	}
+
+	/**
+	 * Gets the trimmed text of a spooled text when it is shorter than
+	 * MAX_INLINE_TEXT_LENGTH. The leading white spaces are skipped and at most
+	 * MAX_INLINE_TEXT_LENGTH characters are kept: reading stops at the first
+	 * character past them that is not a white space.
+	 * 
+	 * @return the trimmed text or null if it is too long.
+	 */
+	private static String getInlineText(XmlSpooledText text)
+			throws IOException {
+		StringBuilder sb = new StringBuilder(MAX_INLINE_TEXT_LENGTH);
+		Reader reader = text.getReader();
+		try {
+			int c = reader.read();
+			while (c >= 0 && c <= ' ') {
+				c = reader.read();
+			}
+			while (c >= 0) {
+				if (sb.length() < MAX_INLINE_TEXT_LENGTH) {
+					sb.append((char) c);
+				} else if (c > ' ') {
+					return null;
+				}
+				c = reader.read();
+			}
+		} finally {
+			reader.close();
+		}
+		return sb.toString().trim();
+	}
+
+	/**
+	 * Writes a spooled text trimmed and escaped, chunk by chunk. The white
+	 * spaces ending a chunk are held until a following character shows that
+	 * they are not trailing, as the XmlHandler does when spooling.
+	 */
+	private static void writeTrimmed(XmlSpooledText text, Writer writer)
+			throws IOException {
+		char[] buffer = new char[8192];
+		char[] pending = new char[64];
+		int pendingLength = 0;
+		boolean started = false;
+		Reader reader = text.getReader();
+		try {
+			int count = reader.read(buffer);
+			while (count >= 0) {
+				int start = 0;
+				if (!started) {
+					while (start < count && buffer[start] <= ' ') {
+						start++;
+					}
+					started = start < count;
+				}
+				int end = count;
+				while (end > start && buffer[end - 1] <= ' ') {
+					end--;
+				}
+				if (end > start) {
+					if (pendingLength > 0) {
+						XmlEscaper.escape(pending, 0, pendingLength, writer);
+						pendingLength = 0;
+					}
+					XmlEscaper.escape(buffer, start, end - start, writer);
+				}
+				if (started) {
+					int required = pendingLength + count - end;
+					if (required > pending.length) {
+						pending = Arrays.copyOf(pending,
+								Math.max(required, pending.length * 2));
+					}
+					System.arraycopy(buffer, end, pending, pendingLength,
+							count - end);
+					pendingLength = required;
+				}
+				count = reader.read(buffer);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
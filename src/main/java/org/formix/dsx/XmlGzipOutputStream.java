@@ -0,0 +1,326 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ * An OutputStream writing data in the gzip format, compressing it in parallel
+ * on a ForkJoinPool. The data is cut in blocks that are deflated concurrently,
+ * each one primed with the last 32 KB of the previous block so that the
+ * compression ratio stays close to the one of a GZIPOutputStream. The blocks
+ * are written in order and form a single gzip member that can be read by
+ * any gzip tool or by a GZIPInputStream.
+ * </p>
+ * 
+ * <pre>
+ * XmlGzipOutputStream out = new XmlGzipOutputStream(new FileOutputStream(file));
+ * try {
+ * 	document.save(out);
+ * } finally {
+ * 	out.close();
+ * }
+ * </pre>
+ * 
+ * <p>
+ * The number of blocks waiting to be written is bounded, so the memory used
+ * does not depend on the size of the data. An XmlGzipOutputStream is not
+ * thread safe.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlGzipOutputStream extends OutputStream {
+
+	private static final int BLOCK_SIZE = 1 << 17;
+	private static final int DICTIONARY_SIZE = 1 << 15;
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED,
+			0, 0, 0, 0, 0, 0, 0 };
+
+	// One deflater per level: changing the level of a deflater once its
+	// dictionary is set drops the dictionary.
+	private static final ThreadLocal<Deflater[]> DEFLATERS = new ThreadLocal<Deflater[]>() {
+		@Override
+		protected Deflater[] initialValue() {
+			return new Deflater[Deflater.BEST_COMPRESSION + 2];
+		}
+	};
+
+	private OutputStream out;
+	private ForkJoinPool pool;
+	private int level;
+	private int maxPending;
+	private LinkedList<Future<byte[]>> pending;
+	private CRC32 crc;
+	private long size;
+	private byte[] block;
+	private int count;
+	private byte[] previous;
+	private int previousLength;
+	private boolean finished;
+
+	/**
+	 * Creates a new XmlGzipOutputStream compressing on the common
+	 * ForkJoinPool with the default compression level.
+	 * 
+	 * @param out
+	 *            The stream receiving the compressed data.
+	 * 
+	 * @throws IOException
+	 *             If the gzip header cannot be written.
+	 */
+	public XmlGzipOutputStream(OutputStream out) throws IOException {
+		this(out, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a new XmlGzipOutputStream compressing on the given pool with
+	 * the default compression level.
+	 * 
+	 * @param out
+	 *            The stream receiving the compressed data.
+	 * 
+	 * @param pool
+	 *            The ForkJoinPool running the compression tasks.
+	 * 
+	 * @throws IOException
+	 *             If the gzip header cannot be written.
+	 */
+	public XmlGzipOutputStream(OutputStream out, ForkJoinPool pool)
+			throws IOException {
+		this(out, pool, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Creates a new XmlGzipOutputStream compressing on the given pool.
+	 * 
+	 * @param out
+	 *            The stream receiving the compressed data.
+	 * 
+	 * @param pool
+	 *            The ForkJoinPool running the compression tasks.
+	 * 
+	 * @param level
+	 *            The compression level, from 0 to 9 or
+	 *            Deflater.DEFAULT_COMPRESSION.
+	 * 
+	 * @throws IOException
+	 *             If the gzip header cannot be written.
+	 */
+	public XmlGzipOutputStream(OutputStream out, ForkJoinPool pool, int level)
+			throws IOException {
+		if (level < Deflater.DEFAULT_COMPRESSION
+				|| level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: "
+					+ level);
+		}
+		this.out = out;
+		this.pool = pool;
+		this.level = level;
+		this.maxPending = pool.getParallelism() * 2;
+		this.pending = new LinkedList<Future<byte[]>>();
+		this.crc = new CRC32();
+		this.size = 0;
+		this.block = new byte[BLOCK_SIZE];
+		this.count = 0;
+		this.previous = null;
+		this.previousLength = 0;
+		this.finished = false;
+		this.out.write(HEADER);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (this.finished) {
+			throw new IOException("The stream is finished.");
+		}
+		if (this.count == this.block.length) {
+			this.submit(false);
+		}
+		this.block[this.count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (this.finished) {
+			throw new IOException("The stream is finished.");
+		}
+		while (len > 0) {
+			if (this.count == this.block.length) {
+				this.submit(false);
+			}
+			int length = Math.min(len, this.block.length - this.count);
+			System.arraycopy(b, off, this.block, this.count, length);
+			this.count += length;
+			off += length;
+			len -= length;
+		}
+	}
+
+	/**
+	 * Compresses the buffered data, writes all the compressed blocks and
+	 * flushes the underlying stream. Everything written so far can then be
+	 * decompressed by the reader.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (this.finished) {
+			return;
+		}
+		if (this.count > 0) {
+			this.submit(false);
+		}
+		this.drain(0);
+		this.out.flush();
+	}
+
+	/**
+	 * Compresses the remaining data and writes the gzip trailer without
+	 * closing the underlying stream.
+	 * 
+	 * @throws IOException
+	 *             If an error occurs while compressing or writing.
+	 */
+	public void finish() throws IOException {
+		if (this.finished) {
+			return;
+		}
+		this.submit(true);
+		this.drain(0);
+		long crc = this.crc.getValue();
+		byte[] trailer = new byte[8];
+		for (int i = 0; i < 4; i++) {
+			trailer[i] = (byte) (crc >>> (i * 8));
+			trailer[i + 4] = (byte) (this.size >>> (i * 8));
+		}
+		this.out.write(trailer);
+		this.finished = true;
+	}
+
+	/**
+	 * Finishes the compression and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			this.finish();
+		} finally {
+			this.out.close();
+		}
+	}
+
+	private void submit(boolean last) throws IOException {
+		if (this.finished) {
+			throw new IOException("The stream is finished.");
+		}
+		this.crc.update(this.block, 0, this.count);
+		this.size += this.count;
+		this.pending.add(this.pool.submit(new BlockTask(this.block,
+				this.count, this.previous, this.previousLength, this.level,
+				last)));
+		// Submitted blocks are never modified, the next one gets a new array.
+		this.previous = this.block;
+		this.previousLength = this.count;
+		this.block = new byte[BLOCK_SIZE];
+		this.count = 0;
+		this.drain(this.maxPending);
+	}
+
+	private void drain(int maxPending) throws IOException {
+		while (this.pending.size() > maxPending) {
+			try {
+				this.out.write(this.pending.removeFirst().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.getMessage());
+			} catch (ExecutionException e) {
+				throw new IOException("A compression problem occured.",
+						e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Deflates one block, primed with the end of the previous one.
+	 */
+	private static class BlockTask implements Callable<byte[]> {
+
+		private byte[] data;
+		private int length;
+		private byte[] dictionary;
+		private int dictionaryEnd;
+		private int level;
+		private boolean last;
+
+		public BlockTask(byte[] data, int length, byte[] dictionary,
+				int dictionaryEnd, int level, boolean last) {
+			this.data = data;
+			this.length = length;
+			this.dictionary = dictionary;
+			this.dictionaryEnd = dictionaryEnd;
+			this.level = level;
+			this.last = last;
+		}
+
+		@Override
+		public byte[] call() {
+			Deflater[] deflaters = DEFLATERS.get();
+			Deflater deflater = deflaters[this.level + 1];
+			if (deflater == null) {
+				deflater = new Deflater(this.level, true);
+				deflaters[this.level + 1] = deflater;
+			} else {
+				deflater.reset();
+			}
+			if (this.dictionary != null && this.dictionaryEnd > 0) {
+				int length = Math.min(this.dictionaryEnd, DICTIONARY_SIZE);
+				deflater.setDictionary(this.dictionary, this.dictionaryEnd
+						- length, length);
+			}
+			deflater.setInput(this.data, 0, this.length);
+			if (this.last) {
+				deflater.finish();
+			}
+			int flush = this.last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+			byte[] output = new byte[this.length + (this.length >> 8) + 64];
+			int count = 0;
+			while (true) {
+				count += deflater.deflate(output, count, output.length - count,
+						flush);
+				if (this.last ? deflater.finished() : count < output.length) {
+					break;
+				}
+				if (count == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+			}
+			return Arrays.copyOf(output, count);
+		}
+	}
+}
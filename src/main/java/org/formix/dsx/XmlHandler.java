@@ -15,116 +15,387 @@
  ***************************************************************************/
 package org.formix.dsx;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Stack;
 
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.ext.DefaultHandler2;
+/**
+ * Builds an XmlElement tree from the tokens read by an XmlTokenizer. Large
+ * texts and CDATA sections are received in many chunks: the chunks are
+ * gathered in a single buffer and the corresponding XmlText or XmlCDATA is
+ * created once, when the next markup is read. Texts larger than the spool
+ * threshold are written to an XmlSpooledText as they are read.
+ * 
+ * @author jpgravel
+ * 
+ */
+class XmlHandler {
 
-class XmlHandler extends DefaultHandler2 {
+	private static final int MAX_RETAINED_BUFFER_SIZE = 65536;
 
 	private XmlContentListener listener;
+	private XmlElementListener elementListener;
+	private XmlFilter filter;
 	private XmlElement rootElement;
 	private Stack<XmlElement> elementStack;
-	private String currentCDATA;
+	private char[] pendingText;
+	private int pendingLength;
+	private int pendingToken;
+	private int spoolThreshold;
+	private File spoolDirectory;
+	private boolean stripWhiteSpaces;
+	private XmlSpooledText spooledText;
 
 	public XmlHandler() {
 		this(new XmlContentAdapter());
 	}
 
 	public XmlHandler(XmlContentListener listener) {
+		this.elementStack = new Stack<XmlElement>();
+		this.pendingText = new char[256];
+		this.reset(listener);
+	}
+
+	/**
+	 * Prepares the handler to build a new XmlElement tree.
+	 * 
+	 * @param listener
+	 *            The listener notified while the new tree is built.
+	 */
+	public void reset(XmlContentListener listener) {
 		this.listener = listener;
+		this.elementListener = null;
+		if (listener instanceof XmlElementListener) {
+			this.elementListener = (XmlElementListener) listener;
+		}
 		this.rootElement = null;
-		this.elementStack = new Stack<XmlElement>();
-		this.currentCDATA = null;
+		this.elementStack.clear();
+		this.pendingLength = 0;
+		this.pendingToken = 0;
+		if (this.spooledText != null) {
+			this.spooledText.delete();
+			this.spooledText = null;
+		}
+		if (this.pendingText.length > MAX_RETAINED_BUFFER_SIZE) {
+			this.pendingText = new char[256];
+		}
+	}
+
+	/**
+	 * Sets the filter deciding which elements are built. The root element is
+	 * always built.
+	 * 
+	 * @param filter
+	 *            The filter to use or null to build every element.
+	 */
+	public void setFilter(XmlFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Sets the number of characters above which a text is written to an
+	 * XmlSpooledText instead of being kept in memory.
+	 * 
+	 * @param threshold
+	 *            The spool threshold or 0 to keep every text in memory.
+	 * 
+	 * @param directory
+	 *            The directory of the spool files or null to use the default
+	 *            temporary directory.
+	 */
+	public void setSpoolThreshold(int threshold, File directory) {
+		this.spoolThreshold = threshold;
+		this.spoolDirectory = directory;
+	}
+
+	/**
+	 * Sets if the white spaces are stripped while the tree is built: texts,
+	 * CDATA sections and comments are trimmed and the blank ones are never
+	 * created. The resulting tree is the same as the one obtained after
+	 * {@link XmlDocument#cleanUp()}.
+	 * 
+	 * @param stripWhiteSpaces
+	 *            true to strip the white spaces.
+	 */
+	public void setStripWhiteSpaces(boolean stripWhiteSpaces) {
+		this.stripWhiteSpaces = stripWhiteSpaces;
 	}
 
 	public XmlElement getRootElement() {
 		return rootElement;
 	}
 
-	@Override
-	public void startElement(String uri, String localName, String qName,
-			Attributes attributes) throws SAXException {
-		XmlElement newElement = new XmlElement(qName);
-		for (int i = 0; i < attributes.getLength(); i++) {
-			String name = attributes.getQName(i);
-			String value = attributes.getValue(i);
-			newElement.setAttribute(name, value);
+	/**
+	 * Reads all tokens from the given tokenizer and builds the corresponding
+	 * XmlElement tree.
+	 * 
+	 * @param tokenizer
+	 *            The tokenizer to read from.
+	 * 
+	 * @return The root XmlElement.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the underlying reader fails.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the XML is not well formed.
+	 */
+	public XmlElement parse(XmlTokenizer tokenizer) throws IOException,
+			XmlException {
+		int token = tokenizer.next();
+		while (token != XmlTokenizer.END_DOCUMENT) {
+			this.handle(tokenizer, token);
+			token = tokenizer.next();
 		}
-		this.elementStack.add(newElement);
-		this.listener.elementCreated(newElement);
+		return this.rootElement;
 	}
 
-	@Override
-	public void endElement(String uri, String localName, String qName)
-			throws SAXException {
-		XmlElement child = this.elementStack.pop();
-		this.mergeTextChilds(child);
-		if (this.elementStack.size() > 0)
-			this.elementStack.peek().addChild(child);
-		else
-			this.rootElement = child;
+	/**
+	 * Reads all tokens of a document fragment from the given tokenizer and
+	 * adds the corresponding XmlContents to the given parent element.
+	 * 
+	 * @param tokenizer
+	 *            The tokenizer positioned at the start of a fragment.
+	 * 
+	 * @param parent
+	 *            The element receiving the fragment content.
+	 * 
+	 * @return The parent element.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the underlying reader fails.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the XML is not well formed.
+	 */
+	public XmlElement parse(XmlTokenizer tokenizer, XmlElement parent)
+			throws IOException, XmlException {
+		this.elementStack.add(parent);
+		this.parse(tokenizer);
+		this.flushText();
+		this.elementStack.pop();
+		return parent;
 	}
 
-	private void mergeTextChilds(XmlElement elem) {
-		for (int i = 0; i < (elem.getChilds().size() - 1); i++) {
-			XmlContent c1 = elem.getChild(i);
-			XmlContent c2 = elem.getChild(i + 1);
-			if (this.mergeText(c1, c2)) {
-				elem.getChilds().remove(i + 1); // remove c2
-				i--;
+	/**
+	 * Handles the current token of the given tokenizer.
+	 * 
+	 * @param tokenizer
+	 *            The tokenizer positioned on the token to handle.
+	 * 
+	 * @param token
+	 *            The type of the current token.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the underlying reader fails.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the XML is not well formed.
+	 */
+	public void handle(XmlTokenizer tokenizer, int token) throws IOException,
+			XmlException {
+		switch (token) {
+		case XmlTokenizer.START_ELEMENT:
+			if (this.filter != null && !this.elementStack.isEmpty()
+					&& !this.filter.accept(tokenizer)) {
+				// Texts on both sides of a skipped element are gathered.
+				tokenizer.skipElement();
+			} else {
+				this.flushText();
+				this.startElement(tokenizer);
+			}
+			break;
+		case XmlTokenizer.END_ELEMENT:
+			this.flushText();
+			this.endElement();
+			break;
+		case XmlTokenizer.TEXT:
+		case XmlTokenizer.CDATA:
+			if (token != this.pendingToken) {
+				this.flushText();
+				this.pendingToken = token;
 			}
+			this.appendText(tokenizer.getTextCharacters(),
+					tokenizer.getTextLength());
+			break;
+		case XmlTokenizer.COMMENT:
+			this.flushText();
+			this.comment(tokenizer.getTextCharacters(), 0,
+					tokenizer.getTextLength());
+			break;
 		}
 	}
 
-	private boolean mergeText(XmlContent c1, XmlContent c2) {
-		if ((c1 instanceof XmlText) && (c2 instanceof XmlText)
-				&& (c1.getClass().equals(c2.getClass()))) {
-			XmlText text2 = (XmlText) c2;
-			((XmlText) c1).append(text2.getText());
-			return true;
+	private void appendText(char[] chars, int length) throws IOException {
+		int offset = 0;
+		if (this.stripWhiteSpaces && this.pendingLength == 0
+				&& this.spooledText == null) {
+			// Leading white spaces are dropped.
+			while (offset < length && chars[offset] <= ' ') {
+				offset++;
+			}
+			length -= offset;
+		}
+		if (this.spooledText != null) {
+			this.spool(chars, offset, length);
+			return;
+		}
+		if (this.spoolThreshold > 0 && this.pendingToken == XmlTokenizer.TEXT
+				&& this.pendingLength + length > this.spoolThreshold) {
+			this.spooledText = new XmlSpooledText(this.spoolDirectory);
+			int pending = this.pendingLength;
+			this.pendingLength = 0;
+			this.spool(this.pendingText, 0, pending);
+			this.spool(chars, offset, length);
+			return;
 		}
-		return false;
+		this.buffer(chars, offset, length);
 	}
 
-	@Override
-	public void characters(char[] ch, int start, int length)
-			throws SAXException {
+	/**
+	 * Appends characters to the spooled text. When the white spaces are
+	 * stripped, trailing white spaces are kept in the pending text buffer
+	 * until a non white space character follows them.
+	 */
+	private void spool(char[] chars, int offset, int length)
+			throws IOException {
+		if (!this.stripWhiteSpaces) {
+			this.spooledText.append(chars, offset, length);
+			return;
+		}
+		int end = offset + length;
+		while (end > offset && chars[end - 1] <= ' ') {
+			end--;
+		}
+		if (end > offset) {
+			if (this.pendingLength > 0) {
+				this.spooledText.append(this.pendingText, 0,
+						this.pendingLength);
+				this.pendingLength = 0;
+			}
+			this.spooledText.append(chars, offset, end - offset);
+		}
+		this.buffer(chars, end, offset + length - end);
+	}
 
-		// TODO we should handle the case where more than 16KB is received and
-		// the Text element is splitted in many XmlText
-		// We found out that case when receiving base64 files
-		// 43,224 bytes were split in 3 XmlText
+	private void buffer(char[] chars, int offset, int length) {
+		int required = this.pendingLength + length;
+		if (required > this.pendingText.length) {
+			this.pendingText = Arrays.copyOf(this.pendingText,
+					Math.max(required, this.pendingText.length * 2));
+		}
+		System.arraycopy(chars, offset, this.pendingText, this.pendingLength,
+				length);
+		this.pendingLength = required;
+	}
 
-		String str = new String(ch, start, length);
-		if (this.currentCDATA == null) {
-			XmlText text = this.elementStack.peek().addText(str);
+	/**
+	 * Creates the XmlText or XmlCDATA holding the gathered text chunks.
+	 */
+	private void flushText() throws IOException {
+		if (this.spooledText != null) {
+			XmlSpooledText text = this.spooledText;
+			this.spooledText = null;
+			text.closeWriter();
+			this.elementStack.peek().addChild(text);
 			this.listener.textCreated(text);
-		} else {
-			this.currentCDATA += new String(str);
+		} else if (this.stripWhiteSpaces) {
+			// Trailing white spaces are dropped, blank texts are not created.
+			int length = this.pendingLength;
+			while (length > 0 && this.pendingText[length - 1] <= ' ') {
+				length--;
+			}
+			if (length > 0 && this.pendingToken == XmlTokenizer.TEXT) {
+				this.characters(this.pendingText, 0, length);
+			} else if (length > 0 && this.pendingToken == XmlTokenizer.CDATA) {
+				this.cdata(this.pendingText, 0, length);
+			}
+		} else if (this.pendingToken == XmlTokenizer.TEXT) {
+			this.characters(this.pendingText, 0, this.pendingLength);
+		} else if (this.pendingToken == XmlTokenizer.CDATA) {
+			this.cdata(this.pendingText, 0, this.pendingLength);
 		}
+		this.pendingLength = 0;
+		this.pendingToken = 0;
 	}
 
-	@Override
-	public void comment(char[] ch, int start, int length) throws SAXException {
-		String comment = new String(ch, start, length);
-		if (!this.elementStack.isEmpty()) {
-			XmlComment cmt = this.elementStack.peek().addComment(comment);
-			this.listener.commentCreated(cmt);
-		}
+	private void startElement(XmlTokenizer tokenizer) {
+		XmlElement newElement = new XmlElement(tokenizer.getName());
+		newElement.setAttributes(tokenizer.getAttributes(),
+				tokenizer.getAttributeCount());
+		this.elementStack.add(newElement);
+		this.listener.elementCreated(newElement);
+	}
+
+	private void endElement() {
+		XmlElement child = this.elementStack.pop();
+		child.trimChilds();
+		boolean discard = this.elementListener != null
+				&& this.elementListener.elementCompleted(child,
+						this.elementStack.size());
+		if (this.elementStack.size() > 0) {
+			if (!discard)
+				this.elementStack.peek().addChild(child);
+		} else
+			this.rootElement = child;
 	}
 
-	@Override
-	public void startCDATA() throws SAXException {
-		this.currentCDATA = "";
+	private void characters(char[] ch, int start, int length) {
+		XmlText text = new XmlText(ch, start, length);
+		this.elementStack.peek().addChild(text);
+		this.listener.textCreated(text);
 	}
 
-	@Override
-	public void endCDATA() throws SAXException {
-		XmlCDATA cdata = this.elementStack.peek().addCDATA(this.currentCDATA);
+	private void cdata(char[] ch, int start, int length) {
+		XmlCDATA cdata = new XmlCDATA(ch, start, length);
+		this.elementStack.peek().addChild(cdata);
 		this.listener.cdataCreated(cdata);
-		this.currentCDATA = null;
+	}
+
+	private void comment(char[] ch, int start, int length) {
+		if (this.stripWhiteSpaces) {
+			int end = start + length;
+			while (start < end && ch[start] <= ' ') {
+				start++;
+			}
+			while (end > start && ch[end - 1] <= ' ') {
+				end--;
+			}
+			if (start == end) {
+				return;
+			}
+			length = end - start;
+		}
+		String comment = new String(ch, start, length);
+		XmlComment cmt = this.elementStack.peek().addComment(comment);
+		this.listener.commentCreated(cmt);
+	}
+
+	/**
+	 * Ends the XmlElements still being built. This is used when the parsing
+	 * stops before the end of the document.
+	 * 
+	 * @return The root XmlElement.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the spooled text cannot be written.
+	 */
+	public XmlElement closeElements() throws IOException {
+		this.flushText();
+		while (!this.elementStack.isEmpty()) {
+			this.endElement();
+		}
+		return this.rootElement;
+	}
+
+	/**
+	 * Gets the number of XmlElements currently being built.
+	 * 
+	 * @return the number of XmlElements currently being built.
+	 */
+	public int getDepth() {
+		return this.elementStack.size();
 	}
 
 	public XmlElement peekTopElement() {
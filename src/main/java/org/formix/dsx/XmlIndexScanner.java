@@ -0,0 +1,522 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Records the nodes of an {@link XmlIndexedDocument}. Unlike the
+ * {@link XmlTokenizer}, the scanner only looks for the markup: attribute
+ * values are skipped, references are left undecoded and no text is copied.
+ * The only strings created are the element names, once per distinct name.
+ * </p>
+ * 
+ * <p>
+ * The scanner reads the code units of an {@link XmlCharStore}: characters or
+ * the bytes of an encoded document. It checks the structure of the document:
+ * the nesting of the elements, the names of the end tags, the syntax of the
+ * tags and the content found outside of the root element. Attribute values,
+ * duplicate attributes and references are only checked when they are
+ * decoded.
+ * </p>
+ * 
+ * <p>
+ * Consecutive text or CDATA chunks are gathered in a single node, as the
+ * XmlParser does. Processing instructions are skipped but do not split the
+ * texts around them.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlIndexScanner {
+
+	private final XmlCharStore store;
+	private final long end;
+	private final XmlNodeTable table;
+	private long pos;
+
+	// The units of each name, found through an open addressing table.
+	private final List<String> names;
+	private char[][] nameUnits;
+	private int[] nameSlots;
+
+	private int[] lastChilds;
+	private int depth;
+	private int current;
+	private int pending;
+	private boolean docTypeDeclared;
+
+	/**
+	 * Creates a scanner for the given range of code units.
+	 * 
+	 * @param store
+	 *            The store holding the document.
+	 * 
+	 * @param start
+	 *            The offset of the first code unit of the document.
+	 * 
+	 * @param end
+	 *            The offset following the last code unit of the document.
+	 * 
+	 * @param direct
+	 *            true to store the node records in direct buffers.
+	 */
+	XmlIndexScanner(XmlCharStore store, long start, long end, boolean direct) {
+		this.store = store;
+		this.end = end;
+		this.table = new XmlNodeTable(direct);
+		this.pos = start;
+		this.names = new ArrayList<String>();
+		this.nameUnits = new char[16][];
+		this.nameSlots = new int[32];
+		this.lastChilds = new int[16];
+		this.depth = 0;
+		this.current = -1;
+		this.pending = -1;
+		this.docTypeDeclared = false;
+	}
+
+	/**
+	 * Scans the whole document.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the structure of the document is malformed.
+	 */
+	void scan() throws XmlException {
+		this.skipMisc();
+		if (this.pos == this.end) {
+			throw this.error("Premature end of file");
+		}
+		this.readStartTag();
+		while (this.depth > 0) {
+			long start = this.pos;
+			while (this.pos < this.end && this.store.charAt(this.pos) != '<') {
+				this.pos++;
+			}
+			if (this.pos + 1 >= this.end) {
+				throw this.error("The element type \""
+						+ this.names.get(this.table.getNameIndex(this.current))
+						+ "\" is not terminated at the end of the document");
+			}
+			if (this.pos > start) {
+				this.addText(XmlIndexedDocument.TEXT, start);
+			}
+			start = this.pos;
+			char c = this.store.charAt(this.pos + 1);
+			if (c == '/') {
+				this.readEndTag();
+			} else if (c == '?') {
+				this.skipUntil(2, "?>",
+						"The processing instruction is not terminated");
+			} else if (c == '!') {
+				if (this.startsWith("<!--")) {
+					this.skipUntil(4, "-->", "The comment is not terminated");
+					this.pending = -1;
+					this.addNode(XmlIndexedDocument.COMMENT, -1, start);
+				} else if (this.startsWith("<![CDATA[")) {
+					this.skipUntil(9, "]]>",
+							"The CDATA section is not terminated");
+					this.addText(XmlIndexedDocument.CDATA, start);
+				} else {
+					throw this.error("Invalid markup declaration");
+				}
+			} else {
+				this.readStartTag();
+			}
+		}
+		this.skipMisc();
+		if (this.pos < this.end) {
+			throw this.error("Only one root element is allowed");
+		}
+		this.table.trim();
+	}
+
+	/**
+	 * Gets the node records of the scanned document.
+	 * 
+	 * @return the node records of the scanned document.
+	 */
+	XmlNodeTable getNodes() {
+		return this.table;
+	}
+
+	/**
+	 * Gets the element names of the scanned document, in the order of the
+	 * name indexes of the node records.
+	 * 
+	 * @return the element names of the scanned document.
+	 */
+	String[] getNames() {
+		return this.names.toArray(new String[this.names.size()]);
+	}
+
+	/**
+	 * Tells if the scanned document declares a document type.
+	 * 
+	 * @return true if the scanned document declares a document type.
+	 */
+	boolean isDocTypeDeclared() {
+		return this.docTypeDeclared;
+	}
+
+	/**
+	 * Skips the white spaces, comments, processing instructions and document
+	 * type declarations found outside of the root element. Stops at the end
+	 * of the document or at the start of an element.
+	 */
+	private void skipMisc() throws XmlException {
+		while (this.pos < this.end) {
+			char c = this.store.charAt(this.pos);
+			if (c != '<') {
+				if (!isWhiteSpace(c) && c != '\uFEFF') {
+					throw this.error("Content is not allowed outside of the root element");
+				}
+				this.pos++;
+				continue;
+			}
+			if (this.pos + 1 == this.end) {
+				throw this.error("Unexpected end of document");
+			}
+			c = this.store.charAt(this.pos + 1);
+			if (c == '/') {
+				throw this.error("Unexpected end tag");
+			} else if (c == '?') {
+				this.skipUntil(2, "?>",
+						"The processing instruction is not terminated");
+			} else if (c == '!') {
+				if (this.startsWith("<!--")) {
+					this.skipUntil(4, "-->", "The comment is not terminated");
+				} else if (this.startsWith("<![CDATA[")) {
+					throw this.error("CDATA is not allowed outside of the root element");
+				} else if (this.startsWith("<!DOCTYPE")) {
+					this.skipDocType();
+				} else {
+					throw this.error("Invalid markup declaration");
+				}
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void skipDocType() throws XmlException {
+		this.pos += 9;
+		boolean inSubset = false;
+		while (true) {
+			if (this.pos == this.end) {
+				throw this.error("The document type declaration is not terminated");
+			}
+			char c = this.store.charAt(this.pos);
+			if (c == '"' || c == '\'') {
+				this.skipQuoted(c);
+			} else if (c == '<' && inSubset && this.startsWith("<!--")) {
+				this.skipUntil(4, "-->", "The comment is not terminated");
+			} else {
+				this.pos++;
+				if (c == '[') {
+					inSubset = true;
+				} else if (c == ']') {
+					inSubset = false;
+				} else if (c == '>' && !inSubset) {
+					this.docTypeDeclared = true;
+					return;
+				}
+			}
+		}
+	}
+
+	private void skipQuoted(char quote) throws XmlException {
+		this.pos++;
+		while (true) {
+			if (this.pos == this.end) {
+				throw this.error("Unexpected end of document");
+			}
+			if (this.store.charAt(this.pos++) == quote) {
+				return;
+			}
+		}
+	}
+
+	private void readStartTag() throws XmlException {
+		long start = this.pos;
+		this.pos++;
+		int nameIndex = this.readName();
+		boolean empty = false;
+		while (true) {
+			boolean spaced = this.skipWhiteSpaces();
+			if (this.pos == this.end) {
+				throw this.error("Unexpected end of document");
+			}
+			char c = this.store.charAt(this.pos);
+			if (c == '>') {
+				this.pos++;
+				break;
+			}
+			if (c == '/') {
+				if (this.pos + 1 == this.end
+						|| this.store.charAt(this.pos + 1) != '>') {
+					throw this.error("'>' expected");
+				}
+				this.pos += 2;
+				empty = true;
+				break;
+			}
+			if (!spaced) {
+				throw this.error("White space expected before attribute");
+			}
+			this.scanName();
+			this.skipWhiteSpaces();
+			this.expect('=');
+			this.skipWhiteSpaces();
+			this.skipAttributeValue();
+		}
+		this.pending = -1;
+		int node = this.addNode(XmlIndexedDocument.ELEMENT, nameIndex, start);
+		if (!empty) {
+			this.depth++;
+			if (this.depth == this.lastChilds.length) {
+				this.lastChilds = Arrays.copyOf(this.lastChilds,
+						this.depth * 2);
+			}
+			this.lastChilds[this.depth] = -1;
+			this.current = node;
+		}
+	}
+
+	private void skipAttributeValue() throws XmlException {
+		if (this.pos == this.end) {
+			throw this.error("Unexpected end of document");
+		}
+		char quote = this.store.charAt(this.pos);
+		if (quote != '"' && quote != '\'') {
+			throw this.error("A quoted attribute value is expected");
+		}
+		this.pos++;
+		while (true) {
+			if (this.pos == this.end) {
+				throw this.error("Unexpected end of document");
+			}
+			char c = this.store.charAt(this.pos);
+			if (c == quote) {
+				this.pos++;
+				return;
+			} else if (c == '<') {
+				throw this.error("The value of an attribute must not contain '<'");
+			}
+			this.pos++;
+		}
+	}
+
+	private void readEndTag() throws XmlException {
+		this.pos += 2;
+		long start = this.pos;
+		this.scanName();
+		int expected = this.table.getNameIndex(this.current);
+		if (!this.nameEquals(expected, start, this.pos)) {
+			String name = this.names.get(expected);
+			throw this.error("The element type \"" + name
+					+ "\" must be terminated by the matching end-tag \"</"
+					+ name + ">\"");
+		}
+		this.skipWhiteSpaces();
+		this.expect('>');
+		this.pending = -1;
+		this.table.setEnd(this.current, this.pos);
+		this.current = this.table.getParent(this.current);
+		this.depth--;
+	}
+
+	/**
+	 * Appends the text or CDATA chunk ending at the current position to the
+	 * pending node if it has the same kind.
+	 */
+	private void addText(int kind, long start) {
+		if (this.pending != -1 && this.table.getKind(this.pending) == kind) {
+			this.table.setEnd(this.pending, this.pos);
+		} else {
+			this.pending = this.addNode(kind, -1, start);
+		}
+	}
+
+	/**
+	 * Appends a node ending at the current position and links it to the
+	 * current element. The last child of the open element at each level is
+	 * kept in lastChilds.
+	 */
+	private int addNode(int kind, int nameIndex, long start) {
+		int node = this.table.add(kind, nameIndex, start, this.pos,
+				this.current);
+		if (this.current != -1) {
+			int previous = this.lastChilds[this.depth];
+			if (previous == -1) {
+				this.table.setFirstChild(this.current, node);
+			} else {
+				this.table.setNextSibling(previous, node);
+			}
+			this.lastChilds[this.depth] = node;
+		}
+		return node;
+	}
+
+	/**
+	 * Scans a name and gets its index. The string of a name is only created
+	 * the first time the name is found.
+	 */
+	private int readName() throws XmlException {
+		long start = this.pos;
+		this.scanName();
+		int hash = 0;
+		for (long i = start; i < this.pos; i++) {
+			hash = 31 * hash + this.store.charAt(i);
+		}
+		int mask = this.nameSlots.length - 1;
+		int slot = hash & mask;
+		while (this.nameSlots[slot] != 0) {
+			int nameIndex = this.nameSlots[slot] - 1;
+			if (this.nameEquals(nameIndex, start, this.pos)) {
+				return nameIndex;
+			}
+			slot = slot + 1 & mask;
+		}
+
+		int nameIndex = this.names.size();
+		char[] units = new char[(int) (this.pos - start)];
+		for (int i = 0; i < units.length; i++) {
+			units[i] = this.store.charAt(start + i);
+		}
+		if (nameIndex == this.nameUnits.length) {
+			this.nameUnits = Arrays.copyOf(this.nameUnits, nameIndex * 2);
+		}
+		this.nameUnits[nameIndex] = units;
+		this.names.add(new String(this.store.getChars(start, this.pos)));
+		this.nameSlots[slot] = nameIndex + 1;
+		if (this.names.size() * 2 > this.nameSlots.length) {
+			this.rehashNames();
+		}
+		return nameIndex;
+	}
+
+	private void rehashNames() {
+		int[] slots = new int[this.nameSlots.length * 2];
+		int mask = slots.length - 1;
+		for (int nameIndex = 0; nameIndex < this.names.size(); nameIndex++) {
+			int hash = 0;
+			for (char c : this.nameUnits[nameIndex]) {
+				hash = 31 * hash + c;
+			}
+			int slot = hash & mask;
+			while (slots[slot] != 0) {
+				slot = slot + 1 & mask;
+			}
+			slots[slot] = nameIndex + 1;
+		}
+		this.nameSlots = slots;
+	}
+
+	private boolean nameEquals(int nameIndex, long start, long end) {
+		char[] units = this.nameUnits[nameIndex];
+		if (units.length != end - start) {
+			return false;
+		}
+		for (int i = 0; i < units.length; i++) {
+			if (units[i] != this.store.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the position to the end of the name starting at the current
+	 * position.
+	 */
+	private void scanName() throws XmlException {
+		long start = this.pos;
+		while (true) {
+			if (this.pos == this.end) {
+				throw this.error("Unexpected end of document");
+			}
+			char c = this.store.charAt(this.pos);
+			if (c <= ' ' || c == '/' || c == '>' || c == '=' || c == '<') {
+				break;
+			}
+			this.pos++;
+		}
+		if (this.pos == start) {
+			throw this.error("A name is expected");
+		}
+	}
+
+	private boolean skipWhiteSpaces() {
+		long start = this.pos;
+		while (this.pos < this.end && isWhiteSpace(this.store.charAt(this.pos))) {
+			this.pos++;
+		}
+		return this.pos > start;
+	}
+
+	private void expect(char c) throws XmlException {
+		if (this.pos == this.end || this.store.charAt(this.pos) != c) {
+			throw this.error("'" + c + "' expected");
+		}
+		this.pos++;
+	}
+
+	private boolean startsWith(String markup) {
+		if (this.end - this.pos < markup.length()) {
+			return false;
+		}
+		for (int i = 0; i < markup.length(); i++) {
+			if (this.store.charAt(this.pos + i) != markup.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skips the given number of units, then everything up to and including
+	 * the terminator.
+	 */
+	private void skipUntil(int count, String terminator, String message)
+			throws XmlException {
+		this.pos += count;
+		char first = terminator.charAt(0);
+		while (true) {
+			if (this.end - this.pos < terminator.length()) {
+				throw this.error(message);
+			}
+			if (this.store.charAt(this.pos) == first
+					&& this.startsWith(terminator)) {
+				this.pos += terminator.length();
+				return;
+			}
+			this.pos++;
+		}
+	}
+
+	private static boolean isWhiteSpace(char c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+	}
+
+	private XmlException error(String message) {
+		return new XmlException(message + " (position " + this.pos + ")");
+	}
+}
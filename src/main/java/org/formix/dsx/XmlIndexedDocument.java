@@ -0,0 +1,694 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * A read-only document kept in its original character buffer. Instead of
+ * building an XmlElement tree, loading records the structure of the document
+ * in a few parallel arrays holding, for each node, its kind, its name, its
+ * location in the buffer and its parent, first child and next sibling. Texts
+ * and attributes are decoded from the buffer only when they are requested.
+ * </p>
+ * 
+ * <p>
+ * A document read from a file or a stream encoded in UTF-8 or ISO-8859-1 is
+ * kept in the heap as the bytes that were read: the ASCII characters take a
+ * single byte and nothing is decoded while loading. Other encodings are
+ * decoded to a character buffer.
+ * </p>
+ * 
+ * <p>
+ * The query methods follow the {@link XmlNavigator} path syntax. The
+ * XmlElements they return are built on demand from the buffer and are
+ * detached copies: modifying them does not change the indexed document.
+ * </p>
+ * 
+ * <pre>
+ * XmlIndexedDocument idoc = new XmlIndexedDocument();
+ * idoc.load(new File(&quot;idoc.xml&quot;));
+ * String name = idoc.getText(&quot;/IDOC/E1KNA1M/NAME1&quot;);
+ * </pre>
+ * 
+ * <p>
+ * An off-heap document keeps its characters and its node records in direct
+ * buffers outside of the Java heap. Whatever its size, such a document is
+ * made of a few dozen objects: it adds nothing to the work of the garbage
+ * collector and documents larger than 2 GB can be loaded. Streams and readers
+ * are then copied to the direct buffers as they are read, without ever
+ * holding the whole document in the heap. Closing the document releases all
+ * its buffers at once.
+ * </p>
+ * 
+ * <p>
+ * Loading only looks for the markup. The structure of the document is
+ * validated when it is loaded but attribute values and references are
+ * checked when they are decoded: querying a malformed value throws an
+ * IllegalStateException. Once loaded, an XmlIndexedDocument can be queried
+ * from many threads.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlIndexedDocument implements Closeable {
+
+	private static final Pattern INDEXER_PATTERN = Pattern
+			.compile("(.*)\\[([0-9]+)\\]");
+
+	private static final String INVALID_CONTENT = "The indexed content is "
+			+ "malformed or has been modified";
+
+	// Node kinds.
+	static final int ELEMENT = 1;
+	static final int TEXT = 2;
+	static final int CDATA = 3;
+	static final int COMMENT = 4;
+
+	private final boolean offHeap;
+	private XmlCharStore chars;
+	private boolean docTypeDeclared;
+	private String[] names;
+	private XmlNodeTable nodes;
+
+	/**
+	 * Creates an empty XmlIndexedDocument stored in the heap. One of the load
+	 * methods must be called before querying the document.
+	 */
+	public XmlIndexedDocument() {
+		this(false);
+	}
+
+	/**
+	 * Creates an empty XmlIndexedDocument. One of the load methods must be
+	 * called before querying the document.
+	 * 
+	 * @param offHeap
+	 *            true to store the document in direct buffers outside of the
+	 *            heap.
+	 */
+	public XmlIndexedDocument(boolean offHeap) {
+		this.offHeap = offHeap;
+		this.clear();
+	}
+
+	/**
+	 * Tells if the document is stored outside of the heap.
+	 * 
+	 * @return true if the document is stored in direct buffers.
+	 */
+	public boolean isOffHeap() {
+		return this.offHeap;
+	}
+
+	/**
+	 * Loads the document from the specified file. The encoding is detected
+	 * from the byte order mark or the XML declaration and defaults to UTF-8.
+	 * 
+	 * @param source
+	 *            the source file containing the xml data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some file reading problem is encountered.
+	 */
+	public void load(File source) throws IOException, XmlException {
+		InputStream in = new FileInputStream(source);
+		try {
+			this.load(in, source.length());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads the document from the specified input stream. The encoding is
+	 * detected from the byte order mark or the XML declaration and defaults to
+	 * UTF-8. The stream is not closed.
+	 * 
+	 * @param in
+	 *            The input stream containing the xml data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some reading problem is encountered.
+	 */
+	public void load(InputStream in) throws IOException, XmlException {
+		this.load(in, 0);
+	}
+
+	private void load(InputStream in, long sizeHint) throws IOException,
+			XmlException {
+		if (this.offHeap) {
+			this.load(new XmlStreamDecoder(in), sizeHint);
+			return;
+		}
+		byte[] data = new byte[(int) Math.min(Integer.MAX_VALUE - 8,
+				Math.max(sizeHint + 1, 8192))];
+		int length = 0;
+		int count = in.read(data, 0, data.length);
+		while (count >= 0) {
+			length += count;
+			if (length == data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			count = in.read(data, length, data.length - length);
+		}
+		if (data.length - length > length / 8) {
+			data = Arrays.copyOf(data, length);
+		}
+
+		XmlStreamDecoder decoder = new XmlStreamDecoder(ByteBuffer.wrap(data,
+				0, length));
+		decoder.read(new char[0], 0, 0);
+		String encoding = decoder.getEncoding();
+		boolean utf8 = encoding.equals("UTF-8") || encoding.equals("US-ASCII");
+		if (!utf8 && !encoding.equals("ISO-8859-1")) {
+			this.load(decoder, length);
+			return;
+		}
+		int start = 0;
+		if (utf8 && length >= 3 && data[0] == (byte) 0xEF
+				&& data[1] == (byte) 0xBB && data[2] == (byte) 0xBF) {
+			start = 3;
+		}
+		if (utf8) {
+			int malformed = XmlCharStore.indexOfMalformed(data, start, length);
+			if (malformed != -1) {
+				throw new XmlException("A reader problem occured.",
+						new IOException("Invalid UTF-8 byte sequence at byte "
+								+ malformed));
+			}
+		}
+		this.clear();
+		this.index(new XmlCharStore(data, utf8), start, length);
+	}
+
+	/**
+	 * Loads the document from the specified reader. The reader is not closed.
+	 * 
+	 * @param reader
+	 *            The reader containing the xml data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 * 
+	 * @throws IOException
+	 *             If some reading problem is encountered.
+	 */
+	public void load(Reader reader) throws IOException, XmlException {
+		this.load(reader, 0);
+	}
+
+	private void load(Reader reader, long sizeHint) throws IOException,
+			XmlException {
+		if (this.offHeap) {
+			this.clear();
+			XmlCharStore store = new XmlCharStore();
+			char[] buffer = new char[8192];
+			int count = reader.read(buffer, 0, buffer.length);
+			while (count >= 0) {
+				store.append(buffer, 0, count);
+				count = reader.read(buffer, 0, buffer.length);
+			}
+			store.trim();
+			this.index(store, 0, store.length());
+			return;
+		}
+		char[] data = new char[(int) Math.min(Integer.MAX_VALUE - 8,
+				Math.max(sizeHint + 1, 8192))];
+		int length = 0;
+		int count = reader.read(data, 0, data.length);
+		while (count >= 0) {
+			length += count;
+			if (length == data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			count = reader.read(data, length, data.length - length);
+		}
+		if (data.length - length > length / 8) {
+			data = Arrays.copyOf(data, length);
+		}
+		this.load(data, 0, length);
+	}
+
+	/**
+	 * Loads the document contained in the given character buffer. An in-heap
+	 * document indexes the buffer in place and keeps it: the buffer must not
+	 * be modified afterward. An off-heap document copies it.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data.
+	 * 
+	 * @param offset
+	 *            The offset of the first character of the XML data.
+	 * 
+	 * @param length
+	 *            The number of characters of XML data.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 */
+	public void load(char[] buffer, int offset, int length)
+			throws XmlException {
+		this.clear();
+		if (this.offHeap) {
+			XmlCharStore store = new XmlCharStore();
+			store.append(buffer, offset, length);
+			store.trim();
+			this.index(store, 0, length);
+		} else {
+			this.index(new XmlCharStore(buffer), offset, offset + length);
+		}
+	}
+
+	/**
+	 * Loads the given XML string.
+	 * 
+	 * @param xml
+	 *            The XML string to load.
+	 * 
+	 * @throws XmlException
+	 *             If a problem with XML is encountered.
+	 */
+	public void load(String xml) throws XmlException {
+		char[] data = xml.toCharArray();
+		this.load(data, 0, data.length);
+	}
+
+	/**
+	 * Releases the characters and the nodes of the document. The document is
+	 * empty afterward and can be loaded again.
+	 */
+	public void close() {
+		this.clear();
+	}
+
+	private void clear() {
+		this.chars = null;
+		this.docTypeDeclared = false;
+		this.names = new String[0];
+		this.nodes = new XmlNodeTable(false);
+	}
+
+	/**
+	 * Scans the given range of the store and records its nodes.
+	 */
+	private void index(XmlCharStore store, long start, long end)
+			throws XmlException {
+		XmlIndexScanner scanner = new XmlIndexScanner(store, start, end,
+				this.offHeap);
+		try {
+			scanner.scan();
+		} catch (XmlException e) {
+			throw new XmlException("A parser problem occured", e);
+		}
+		this.chars = store;
+		this.docTypeDeclared = scanner.isDocTypeDeclared();
+		this.names = scanner.getNames();
+		this.nodes = scanner.getNodes();
+	}
+
+	/**
+	 * Gets the number of nodes of the document: elements, texts, CDATA
+	 * sections and comments.
+	 * 
+	 * @return the number of nodes of the document.
+	 */
+	public int getNodeCount() {
+		return this.nodes.size();
+	}
+
+	/**
+	 * Builds the XmlElement tree of the whole document.
+	 * 
+	 * @return the root element or null if no document is loaded.
+	 */
+	public XmlElement getRoot() {
+		if (this.nodes.size() == 0) {
+			return null;
+		}
+		return this.materialize(0);
+	}
+
+	/**
+	 * Gets the first XmlElement found at the given path. The element is built
+	 * from the buffer with its whole content.
+	 * 
+	 * @param path
+	 *            The path to the desired XmlElement.
+	 * 
+	 * @return the first XmlElement found at the given path or null if the
+	 *         path is invalid.
+	 */
+	public XmlElement getElement(String path) {
+		int node = this.find(path);
+		if (node == -1) {
+			return null;
+		}
+		return this.materialize(node);
+	}
+
+	/**
+	 * Return all elements that corresponds to the last element name in the
+	 * given path.
+	 * 
+	 * @param path
+	 *            The path to the elements to return.
+	 * 
+	 * @return A List of elements corresponding to the given path. An empty list
+	 *         if the path is invalid or empty.
+	 */
+	public List<XmlElement> getElements(String path) {
+		int lastElemIndex = path.lastIndexOf('/');
+		int parent = this.find(path.substring(0, lastElemIndex));
+		List<XmlElement> elements = new ArrayList<XmlElement>();
+		if (parent == -1) {
+			return elements;
+		}
+		int nameIndex = this.indexOfName(path.substring(lastElemIndex + 1));
+		if (nameIndex == -1) {
+			return elements;
+		}
+		XmlNodeTable table = this.nodes;
+		for (int child = table.getFirstChild(parent); child != -1; child = table
+				.getNextSibling(child)) {
+			if (table.getNameIndex(child) == nameIndex) {
+				elements.add(this.materialize(child));
+			}
+		}
+		return elements;
+	}
+
+	/**
+	 * Gets the concatenated text of all children of the element targeted by
+	 * the given path, or the value of an attribute. The text is the same as
+	 * the one returned by {@link XmlNavigator#getText(String)}.
+	 * 
+	 * @param path
+	 *            the path pointing to an XmlElement or attribute.
+	 * 
+	 * @return the concatenated text of all children of the element targeted by
+	 *         the given path. Returns null if the given path is invalid.
+	 */
+	public String getText(String path) {
+		String localPath = path;
+		String attributeName = getAttributeName(path);
+		if (attributeName != null) {
+			localPath = path.substring(0, path.length()
+					- attributeName.length() - 1);
+		}
+
+		int node = this.find(localPath);
+		if (node == -1) {
+			return null;
+		}
+
+		if (attributeName != null) {
+			return this.getAttribute(node, attributeName);
+		}
+
+		XmlNodeTable table = this.nodes;
+		StringBuilder sb = new StringBuilder();
+		for (int child = table.getFirstChild(node); child != -1; child = table
+				.getNextSibling(child)) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			int kind = table.getKind(child);
+			if (kind == ELEMENT) {
+				sb.append(this.materialize(child).toString().trim());
+			} else if (kind != COMMENT) {
+				sb.append(this.decodeText(child).trim());
+			}
+		}
+		return sb.toString().trim();
+	}
+
+	/**
+	 * Tells if a given path is valid or not.
+	 * 
+	 * @param path
+	 *            The path to test.
+	 * 
+	 * @return True if the given path is valid, false otherwise.
+	 */
+	public boolean exists(String path) {
+		String attributeName = getAttributeName(path);
+		if (attributeName != null) {
+			int node = this.find(path.substring(0, path.length()
+					- attributeName.length() - 1));
+			return node != -1 && this.getAttribute(node, attributeName) != null;
+		}
+		return this.find(path) != -1;
+	}
+
+	private static String getAttributeName(String path) {
+		int lastSlash = path.lastIndexOf("/");
+		int arobasIndex = path.indexOf('@', lastSlash);
+		if (arobasIndex == -1) {
+			return null;
+		}
+		return path.substring(arobasIndex + 1);
+	}
+
+	/**
+	 * Finds the node of the element targeted by the given path, following the
+	 * same rules as {@link XmlNavigator#getElement(String)}.
+	 * 
+	 * @return the node of the element or -1 if the path is invalid.
+	 */
+	private int find(String path) {
+		if (this.nodes.size() == 0) {
+			return -1;
+		}
+		String[] steps = path.split("/");
+		int curr = 0;
+		for (int i = path.startsWith("/") ? 1 : 0; i < steps.length
+				&& curr != -1; i++) {
+			String name = steps[i];
+			int index = 0;
+			Matcher matcher = INDEXER_PATTERN.matcher(name);
+			if (matcher.matches()) {
+				name = matcher.group(1);
+				index = Integer.parseInt(matcher.group(2));
+				if (name.trim().isEmpty()) {
+					name = null;
+				}
+			}
+			int nameIndex = -1;
+			if (name != null) {
+				nameIndex = this.indexOfName(name);
+				if (nameIndex == -1) {
+					return -1;
+				}
+			}
+			curr = this.findChild(curr, nameIndex, index);
+		}
+		return curr;
+	}
+
+	private int indexOfName(String name) {
+		for (int i = 0; i < this.names.length; i++) {
+			if (this.names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int findChild(int parent, int nameIndex, int index) {
+		XmlNodeTable table = this.nodes;
+		int counter = 0;
+		for (int child = table.getFirstChild(parent); child != -1; child = table
+				.getNextSibling(child)) {
+			if (table.getKind(child) == ELEMENT
+					&& (nameIndex == -1 || table.getNameIndex(child) == nameIndex)) {
+				if (counter == index) {
+					return child;
+				}
+				counter++;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the start tag of the given element node with the given tokenizer.
+	 * 
+	 * @return the offset in the store following the start tag.
+	 */
+	private long readStartTag(XmlTokenizer tokenizer, int node) {
+		XmlCharStore store = this.chars;
+		long start = this.nodes.getStart(node);
+		long end = start + 1;
+		char quote = 0;
+		char c = 0;
+		while (quote != 0 || c != '>') {
+			c = store.charAt(end++);
+			if (quote == 0 && (c == '"' || c == '\'')) {
+				quote = c;
+			} else if (c == quote) {
+				quote = 0;
+			}
+		}
+		String name = this.names[this.nodes.getNameIndex(node)];
+		this.reset(tokenizer, start, end, name);
+		try {
+			tokenizer.next();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read the buffer", e);
+		} catch (XmlException e) {
+			throw new IllegalStateException(INVALID_CONTENT, e);
+		}
+		return end;
+	}
+
+	/**
+	 * Resets the tokenizer on the given range of the store, read as the
+	 * content of the named element. Off-heap characters are copied and bytes
+	 * are decoded.
+	 */
+	private void reset(XmlTokenizer tokenizer, long start, long end,
+			String parentName) {
+		char[] array = this.chars.array();
+		if (array != null) {
+			tokenizer.reset(array, (int) start, (int) (end - start),
+					parentName, this.docTypeDeclared);
+			return;
+		}
+		array = this.chars.getChars(start, end);
+		tokenizer.reset(array, 0, array.length, parentName,
+				this.docTypeDeclared);
+	}
+
+	private String getAttribute(int node, String attributeName) {
+		XmlParserPool parsers = XmlParserPool.getDefault();
+		XmlParser parser = parsers.acquire();
+		try {
+			XmlTokenizer tokenizer = parser.getTokenizer();
+			this.readStartTag(tokenizer, node);
+			for (int i = 0; i < tokenizer.getAttributeCount(); i++) {
+				if (tokenizer.getAttributeName(i).equals(attributeName)) {
+					return tokenizer.getAttributeValue(i);
+				}
+			}
+			return null;
+		} finally {
+			parsers.release(parser);
+		}
+	}
+
+	/**
+	 * Builds the XmlElement of the given node with its whole content.
+	 */
+	private XmlElement materialize(int node) {
+		XmlCharStore store = this.chars;
+		XmlParserPool parsers = XmlParserPool.getDefault();
+		XmlParser parser = parsers.acquire();
+		try {
+			XmlTokenizer tokenizer = parser.getTokenizer();
+			long contentStart = this.readStartTag(tokenizer, node);
+			XmlElement element = new XmlElement(tokenizer.getName());
+			element.setAttributes(tokenizer.getAttributes(),
+					tokenizer.getAttributeCount());
+			if (store.charAt(contentStart - 2) == '/') {
+				return element;
+			}
+			long contentEnd = this.nodes.getEnd(node) - 1;
+			while (store.charAt(contentEnd) != '<') {
+				contentEnd--;
+			}
+			char[] array = store.array();
+			if (array == null) {
+				array = store.getChars(contentStart, contentEnd);
+				return parser.parseFragment(array, 0, array.length, element,
+						this.docTypeDeclared);
+			}
+			return parser.parseFragment(array, (int) contentStart,
+					(int) (contentEnd - contentStart), element,
+					this.docTypeDeclared);
+		} catch (XmlException e) {
+			throw new IllegalStateException(INVALID_CONTENT, e);
+		} finally {
+			parsers.release(parser);
+		}
+	}
+
+	/**
+	 * Decodes the text of a TEXT or CDATA node. Plain texts without any
+	 * reference or carriage return are copied straight from the characters.
+	 */
+	private String decodeText(int node) {
+		long start = this.nodes.getStart(node);
+		long end = this.nodes.getEnd(node);
+		char[] buf = this.chars.array();
+		int offset = (int) start;
+		int length = (int) (end - start);
+		if (buf == null) {
+			buf = this.chars.getChars(start, end);
+			offset = 0;
+			length = buf.length;
+		}
+		boolean plain = true;
+		for (int i = offset; plain && i < offset + length; i++) {
+			char c = buf[i];
+			plain = c != '&' && c != '\r' && c != '<';
+		}
+		if (plain) {
+			return new String(buf, offset, length);
+		}
+
+		XmlParserPool parsers = XmlParserPool.getDefault();
+		XmlParser parser = parsers.acquire();
+		XmlTokenizer tokenizer = parser.getTokenizer();
+		int parent = this.nodes.getParent(node);
+		tokenizer.reset(buf, offset, length,
+				this.names[this.nodes.getNameIndex(parent)],
+				this.docTypeDeclared);
+		try {
+			StringBuilder sb = new StringBuilder(length);
+			while (tokenizer.next() != XmlTokenizer.END_DOCUMENT) {
+				sb.append(tokenizer.getTextCharacters(), 0,
+						tokenizer.getTextLength());
+			}
+			return sb.toString();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read the buffer", e);
+		} catch (XmlException e) {
+			throw new IllegalStateException(INVALID_CONTENT, e);
+		} finally {
+			parsers.release(parser);
+		}
+	}
+}
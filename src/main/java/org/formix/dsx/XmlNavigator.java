@@ -137,6 +137,9 @@ import org.formix.dsx.XmlElement;
  */
 public class XmlNavigator {
 
+	private static final Pattern INDEXER_PATTERN = Pattern
+			.compile("(.*)\\[([0-9]+)\\]");
+
 	private XmlElement root;
 
 	/**
@@ -248,8 +251,7 @@ public class XmlNavigator {
 		}
 		String name = names.poll();
 		while ((name != null) && (curr != null)) {
-			Pattern pattern = Pattern.compile("(.*)\\[([0-9]+)\\]");
-			Matcher matcher = pattern.matcher(name);
+			Matcher matcher = INDEXER_PATTERN.matcher(name);
 			if (matcher.matches()) {
 				if (matcher.group(1) == null || matcher.group(1).trim().isEmpty()) {
 					List<XmlElement> elements = curr.getElements();
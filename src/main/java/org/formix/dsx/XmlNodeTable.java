@@ -0,0 +1,205 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The node records of an {@link XmlIndexedDocument}. Each node has a kind, a
+ * name index, a parent, a first child, a next sibling and the start and end
+ * offsets of its markup in the document characters.
+ * </p>
+ * 
+ * <p>
+ * Records are stored in blocks of BLOCK_SIZE nodes, either in the heap or in
+ * direct buffers outside of the heap. The first block grows by doubling, the
+ * next ones are allocated at full size so that large tables are never copied.
+ * A table holds a few objects whatever the number of nodes: the garbage
+ * collector has almost nothing to trace.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlNodeTable {
+
+	private static final int BLOCK_SHIFT = 14;
+	private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	// Int fields of a record.
+	private static final int KIND_AND_NAME = 0;
+	private static final int PARENT = 1;
+	private static final int FIRST_CHILD = 2;
+	private static final int NEXT_SIBLING = 3;
+	private static final int INT_FIELDS = 4;
+
+	// The kind is kept in the top byte of the KIND_AND_NAME field.
+	private static final int NAME_MASK = 0xFFFFFF;
+
+	private final boolean direct;
+	private IntBuffer[] ints;
+	private LongBuffer[] longs;
+	private int size;
+
+	/**
+	 * Creates an empty table.
+	 * 
+	 * @param direct
+	 *            true to store the records in direct buffers.
+	 */
+	XmlNodeTable(boolean direct) {
+		this.direct = direct;
+		this.ints = new IntBuffer[] { this.allocateInts(16 * INT_FIELDS) };
+		this.longs = new LongBuffer[] { this.allocateLongs(16 * 2) };
+		this.size = 0;
+	}
+
+	private IntBuffer allocateInts(int capacity) {
+		if (this.direct) {
+			return ByteBuffer.allocateDirect(capacity * 4)
+					.order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+		return IntBuffer.allocate(capacity);
+	}
+
+	private LongBuffer allocateLongs(int capacity) {
+		if (this.direct) {
+			return ByteBuffer.allocateDirect(capacity * 8)
+					.order(ByteOrder.nativeOrder()).asLongBuffer();
+		}
+		return LongBuffer.allocate(capacity);
+	}
+
+	/**
+	 * Gets the number of nodes of the table.
+	 * 
+	 * @return the number of nodes of the table.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Appends a node without parent, child or sibling.
+	 * 
+	 * @return the index of the new node.
+	 */
+	int add(int kind, int nameIndex, long start, long end, int parent) {
+		int node = this.size;
+		int block = node >>> BLOCK_SHIFT;
+		int index = node & BLOCK_MASK;
+		if (block == this.ints.length) {
+			this.ints = Arrays.copyOf(this.ints, block + 1);
+			this.longs = Arrays.copyOf(this.longs, block + 1);
+			this.ints[block] = this.allocateInts(BLOCK_SIZE * INT_FIELDS);
+			this.longs[block] = this.allocateLongs(BLOCK_SIZE * 2);
+		} else if (index * INT_FIELDS == this.ints[block].capacity()) {
+			this.resize(block, Math.max(16, index * 2));
+		}
+		this.size++;
+		int i = index * INT_FIELDS;
+		IntBuffer records = this.ints[block];
+		records.put(i + KIND_AND_NAME, kind << 24 | (nameIndex & NAME_MASK));
+		records.put(i + PARENT, parent);
+		records.put(i + FIRST_CHILD, -1);
+		records.put(i + NEXT_SIBLING, -1);
+		this.longs[block].put(index * 2, start);
+		this.longs[block].put(index * 2 + 1, end);
+		return node;
+	}
+
+	private void resize(int block, int capacity) {
+		IntBuffer ints = this.allocateInts(capacity * INT_FIELDS);
+		LongBuffer longs = this.allocateLongs(capacity * 2);
+		IntBuffer oldInts = this.ints[block];
+		LongBuffer oldLongs = this.longs[block];
+		oldInts.clear().limit(Math.min(oldInts.capacity(), ints.capacity()));
+		oldLongs.clear().limit(Math.min(oldLongs.capacity(), longs.capacity()));
+		ints.put(oldInts).clear();
+		longs.put(oldLongs).clear();
+		this.ints[block] = ints;
+		this.longs[block] = longs;
+	}
+
+	/**
+	 * Shrinks the last block to the number of nodes it holds.
+	 */
+	void trim() {
+		int block = this.size == 0 ? 0 : (this.size - 1) >>> BLOCK_SHIFT;
+		int count = this.size - (block << BLOCK_SHIFT);
+		if (count * INT_FIELDS < this.ints[block].capacity()) {
+			this.resize(block, count);
+		}
+	}
+
+	int getKind(int node) {
+		return this.getInt(node, KIND_AND_NAME) >>> 24;
+	}
+
+	int getNameIndex(int node) {
+		int name = this.getInt(node, KIND_AND_NAME) & NAME_MASK;
+		return name == NAME_MASK ? -1 : name;
+	}
+
+	int getParent(int node) {
+		return this.getInt(node, PARENT);
+	}
+
+	int getFirstChild(int node) {
+		return this.getInt(node, FIRST_CHILD);
+	}
+
+	void setFirstChild(int node, int child) {
+		this.setInt(node, FIRST_CHILD, child);
+	}
+
+	int getNextSibling(int node) {
+		return this.getInt(node, NEXT_SIBLING);
+	}
+
+	void setNextSibling(int node, int sibling) {
+		this.setInt(node, NEXT_SIBLING, sibling);
+	}
+
+	long getStart(int node) {
+		return this.longs[node >>> BLOCK_SHIFT].get((node & BLOCK_MASK) * 2);
+	}
+
+	long getEnd(int node) {
+		return this.longs[node >>> BLOCK_SHIFT]
+				.get((node & BLOCK_MASK) * 2 + 1);
+	}
+
+	void setEnd(int node, long end) {
+		this.longs[node >>> BLOCK_SHIFT].put((node & BLOCK_MASK) * 2 + 1, end);
+	}
+
+	private int getInt(int node, int field) {
+		return this.ints[node >>> BLOCK_SHIFT].get((node & BLOCK_MASK)
+				* INT_FIELDS + field);
+	}
+
+	private void setInt(int node, int field, int value) {
+		this.ints[node >>> BLOCK_SHIFT].put((node & BLOCK_MASK) * INT_FIELDS
+				+ field, value);
+	}
+}
@@ -0,0 +1,363 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Parses a document made of many sibling records in parallel. The document is
+ * first read in memory, then pre-scanned to find the boundaries of the root
+ * element children. Consecutive children are grouped in chunks that are
+ * parsed concurrently on a ForkJoinPool. The parsed children are finally
+ * attached to the root element in document order.
+ * </p>
+ * 
+ * <p>
+ * Chunks are always cut right before the start tag of a root child, so the
+ * resulting tree is identical to the one built by a sequential parse.
+ * Documents too small to be worth splitting are parsed sequentially.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlParallelLoader {
+
+	private static final int MIN_CHUNK_SIZE = 65536;
+	private static final int CHUNKS_PER_THREAD = 4;
+	// Some JVMs cannot allocate arrays of Integer.MAX_VALUE elements.
+	private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+	private final ForkJoinPool pool;
+	private boolean stripWhiteSpaces;
+
+	/**
+	 * Creates a loader running its tasks on the given pool.
+	 * 
+	 * @param pool
+	 *            The pool running the parsing tasks.
+	 */
+	XmlParallelLoader(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets if the white spaces are stripped while the chunks are parsed.
+	 * 
+	 * @param stripWhiteSpaces
+	 *            true to strip the white spaces.
+	 * 
+	 * @see XmlParser#setStripWhiteSpaces(boolean)
+	 */
+	void setStripWhiteSpaces(boolean stripWhiteSpaces) {
+		this.stripWhiteSpaces = stripWhiteSpaces;
+	}
+
+	/**
+	 * Reads the whole content of the given reader and parses it.
+	 * 
+	 * @param reader
+	 *            The reader containing the XML data.
+	 * 
+	 * @param sizeHint
+	 *            The expected number of characters, 0 if unknown.
+	 * 
+	 * @return The root XmlElement.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the reader fails.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the XML is not well formed or if the document
+	 *             does not fit in a char array.
+	 */
+	XmlElement parse(Reader reader, long sizeHint) throws IOException,
+			XmlException {
+		char[] buffer = new char[(int) Math.min(MAX_BUFFER_SIZE,
+				Math.max(sizeHint, 8192))];
+		int length = 0;
+		int count = reader.read(buffer, 0, buffer.length);
+		while (count >= 0) {
+			length += count;
+			if (length == buffer.length) {
+				if (length == MAX_BUFFER_SIZE) {
+					throw new XmlException(
+							"The document is too large for parallel loading.");
+				}
+				buffer = Arrays.copyOf(buffer,
+						(int) Math.min(MAX_BUFFER_SIZE, length * 2L));
+			}
+			count = reader.read(buffer, length, buffer.length - length);
+		}
+		return this.parse(buffer, length);
+	}
+
+	/**
+	 * Parses the XML document contained in the given buffer.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data, starting at index 0.
+	 * 
+	 * @param length
+	 *            The number of characters of the document.
+	 * 
+	 * @return The root XmlElement.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the XML is not well formed.
+	 */
+	XmlElement parse(char[] buffer, int length) throws XmlException {
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, length
+				/ (this.pool.getParallelism() * CHUNKS_PER_THREAD));
+		if (length < chunkSize * 2) {
+			return this.parseSequential(buffer, length);
+		}
+
+		// Read the prolog and the root start tag.
+		XmlTokenizer tokenizer = new XmlTokenizer(buffer, 0, length);
+		XmlElement root;
+		int contentStart;
+		try {
+			if (tokenizer.next() != XmlTokenizer.START_ELEMENT) {
+				return this.parseSequential(buffer, length);
+			}
+			root = new XmlElement(tokenizer.getName());
+			for (int i = 0; i < tokenizer.getAttributeCount(); i++) {
+				root.setAttribute(tokenizer.getAttributeName(i),
+						tokenizer.getAttributeValue(i));
+			}
+			contentStart = (int) tokenizer.getPosition();
+		} catch (IOException e) {
+			throw new XmlException("A reader problem occured.", e);
+		} catch (XmlException e) {
+			throw new XmlException("A parser problem occured", e);
+		}
+		if (buffer[contentStart - 2] == '/') {
+			return this.parseSequential(buffer, length);
+		}
+
+		List<Integer> bounds = split(buffer, contentStart, length, chunkSize);
+		if (bounds == null || bounds.size() < 3) {
+			// Malformed or not splittable: the sequential parse reports
+			// errors accurately.
+			return this.parseSequential(buffer, length);
+		}
+
+		boolean docType = tokenizer.isDocTypeDeclared();
+		List<Future<XmlElement>> results = new ArrayList<Future<XmlElement>>();
+		for (int i = 0; i < bounds.size() - 1; i++) {
+			results.add(this.pool.submit(new ChunkTask(buffer, bounds.get(i),
+					bounds.get(i + 1), root.getName(), docType,
+					this.stripWhiteSpaces)));
+		}
+
+		// The root end tag and the epilog are validated while the chunks are
+		// parsed.
+		int rootEnd = bounds.get(bounds.size() - 1);
+		tokenizer.reset(buffer, rootEnd, length - rootEnd, root.getName(),
+				docType);
+		try {
+			while (tokenizer.next() != XmlTokenizer.END_DOCUMENT) {
+				continue;
+			}
+		} catch (IOException e) {
+			throw new XmlException("A reader problem occured.", e);
+		} catch (XmlException e) {
+			throw new XmlException("A parser problem occured", e);
+		}
+
+		for (Future<XmlElement> result : results) {
+			for (XmlContent child : join(result).getChilds()) {
+				root.addChild(child);
+			}
+		}
+		return root;
+	}
+
+	private XmlElement parseSequential(char[] buffer, int length)
+			throws XmlException {
+		XmlParserPool parsers = XmlParserPool.getDefault();
+		XmlParser parser = parsers.acquire();
+		try {
+			parser.setStripWhiteSpaces(this.stripWhiteSpaces);
+			return parser.parse(buffer, 0, length);
+		} finally {
+			parsers.release(parser);
+		}
+	}
+
+	private static XmlElement join(Future<XmlElement> result)
+			throws XmlException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new XmlException("Parallel parsing interrupted.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof XmlException) {
+				throw (XmlException) e.getCause();
+			}
+			throw new XmlException("A parser problem occured", e.getCause());
+		}
+	}
+
+	/**
+	 * Finds the chunk boundaries of the root element content. Only markup is
+	 * looked at: comments, CDATA sections, processing instructions and quoted
+	 * attribute values are skipped so that their content is never mistaken
+	 * for a tag.
+	 * 
+	 * @return the offsets of the chunks, the last one being the offset of the
+	 *         root end tag, or null if the root end tag is not found.
+	 */
+	private static List<Integer> split(char[] buf, int start, int limit, int chunkSize) {
+		List<Integer> bounds = new ArrayList<Integer>();
+		bounds.add(start);
+		int nextBound = start + chunkSize;
+		int depth = 1;
+		int pos = start;
+		while (pos < limit) {
+			if (buf[pos] != '<') {
+				pos++;
+				continue;
+			}
+			int tagStart = pos;
+			if (pos + 1 >= limit) {
+				return null;
+			}
+			char c = buf[pos + 1];
+			if (c == '!') {
+				if (startsWith(buf, pos, limit, "<!--")) {
+					pos = indexOf(buf, pos + 4, limit, "-->");
+				} else if (startsWith(buf, pos, limit, "<![CDATA[")) {
+					pos = indexOf(buf, pos + 9, limit, "]]>");
+				} else {
+					return null;
+				}
+			} else if (c == '?') {
+				pos = indexOf(buf, pos + 2, limit, "?>");
+			} else if (c == '/') {
+				pos = indexOf(buf, pos + 2, limit, ">");
+				depth--;
+				if (depth == 0) {
+					bounds.add(tagStart);
+					return bounds;
+				}
+			} else {
+				if (depth == 1 && tagStart >= nextBound) {
+					bounds.add(tagStart);
+					nextBound = tagStart + chunkSize;
+				}
+				pos = skipStartTag(buf, pos + 1, limit);
+				if (pos < 0) {
+					return null;
+				}
+				if (buf[pos - 2] != '/') {
+					depth++;
+				}
+			}
+			if (pos < 0) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private static int skipStartTag(char[] buf, int pos, int limit) {
+		char quote = 0;
+		while (pos < limit) {
+			char c = buf[pos++];
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(char[] buf, int pos, int limit,
+			String prefix) {
+		if (pos + prefix.length() > limit) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buf[pos + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(char[] buf, int pos, int limit, String end) {
+		int last = limit - end.length();
+		for (int i = pos; i <= last; i++) {
+			if (startsWith(buf, i, limit, end)) {
+				return i + end.length();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses one chunk of root children with a pooled XmlParser.
+	 */
+	private static class ChunkTask implements Callable<XmlElement> {
+
+		private final char[] buffer;
+		private final int start;
+		private final int end;
+		private final String rootName;
+		private final boolean docType;
+		private final boolean stripWhiteSpaces;
+
+		public ChunkTask(char[] buffer, int start, int end, String rootName,
+				boolean docType, boolean stripWhiteSpaces) {
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			this.rootName = rootName;
+			this.docType = docType;
+			this.stripWhiteSpaces = stripWhiteSpaces;
+		}
+
+		public XmlElement call() throws XmlException {
+			XmlParserPool parsers = XmlParserPool.getDefault();
+			XmlParser parser = parsers.acquire();
+			try {
+				parser.setStripWhiteSpaces(this.stripWhiteSpaces);
+				return parser.parseFragment(this.buffer, this.start, this.end
+						- this.start, new XmlElement(this.rootName),
+						this.docType);
+			} finally {
+				parsers.release(parser);
+			}
+		}
+	}
+}
@@ -0,0 +1,448 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Parses XML into XmlElement trees. An XmlParser keeps its internal buffers
+ * from one document to the next and can be reused as many times as needed.
+ * The parser is reset between each document.
+ * </p>
+ * 
+ * <p>
+ * An XmlParser instance is not thread safe. Use an {@link XmlParserPool} to
+ * share parsers between threads.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlParser {
+
+	private XmlTokenizer tokenizer;
+	private XmlStreamDecoder decoder;
+	private XmlHandler handler;
+	private XmlFilter filter;
+	private int textSpoolThreshold;
+	private File spoolDirectory;
+	private boolean stripWhiteSpaces;
+
+	/**
+	 * Creates a new XmlParser.
+	 */
+	public XmlParser() {
+		this.tokenizer = new XmlTokenizer();
+		this.decoder = new XmlStreamDecoder();
+		this.handler = new XmlHandler();
+	}
+
+	/**
+	 * Gets the filter deciding which elements are loaded.
+	 * 
+	 * @return the current filter or null if every element is loaded.
+	 */
+	public XmlFilter getFilter() {
+		return this.filter;
+	}
+
+	/**
+	 * Sets the filter deciding which elements are loaded. Elements rejected by
+	 * the filter are skipped with their whole content and no XmlContent is
+	 * created for them. The filter stays in effect for all subsequent
+	 * documents until the parser is reset.
+	 * 
+	 * @param filter
+	 *            The filter to use or null to load every element.
+	 */
+	public void setFilter(XmlFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Tells if the white spaces are stripped while the document is parsed.
+	 * 
+	 * @return true if the white spaces are stripped.
+	 */
+	public boolean isStripWhiteSpaces() {
+		return this.stripWhiteSpaces;
+	}
+
+	/**
+	 * Sets if the white spaces are stripped while the document is parsed.
+	 * Texts, CDATA sections and comments are trimmed and the blank ones are
+	 * never created, which gives the same tree as a call to
+	 * {@link XmlDocument#cleanUp()} after the parsing, without allocating the
+	 * white space nodes. The setting stays in effect for all subsequent
+	 * parsing until changed or until the parser is reset.
+	 * 
+	 * @param stripWhiteSpaces
+	 *            true to strip the white spaces.
+	 */
+	public void setStripWhiteSpaces(boolean stripWhiteSpaces) {
+		this.stripWhiteSpaces = stripWhiteSpaces;
+	}
+
+	/**
+	 * Gets the number of characters above which a text is spooled to a
+	 * temporary file.
+	 * 
+	 * @return the spool threshold or 0 if texts are always kept in memory.
+	 */
+	public int getTextSpoolThreshold() {
+		return this.textSpoolThreshold;
+	}
+
+	/**
+	 * Sets the number of characters above which a text is spooled to a
+	 * temporary file. Larger texts are loaded as {@link XmlSpooledText}
+	 * instances, written to disk as they are read, so huge payloads never
+	 * reside in the heap. The threshold stays in effect for all subsequent
+	 * documents until the parser is reset.
+	 * 
+	 * <p>
+	 * Each spooled text owns a temporary file. The file is deleted when
+	 * {@link XmlSpooledText#close()} is called, or in the background once the
+	 * XmlSpooledText is no longer referenced and has been garbage collected.
+	 * Callers that process many documents should close the spooled texts they
+	 * are done with rather than wait for the garbage collector, which may run
+	 * late when the heap is large. A text being spooled when the parsing
+	 * fails is deleted right away.
+	 * </p>
+	 * 
+	 * @param threshold
+	 *            The spool threshold or 0 to always keep texts in memory.
+	 */
+	public void setTextSpoolThreshold(int threshold) {
+		this.textSpoolThreshold = threshold;
+	}
+
+	/**
+	 * Gets the directory of the spool files.
+	 * 
+	 * @return the directory of the spool files or null if the default
+	 *         temporary directory is used.
+	 */
+	public File getSpoolDirectory() {
+		return this.spoolDirectory;
+	}
+
+	/**
+	 * Sets the directory of the spool files.
+	 * 
+	 * @param directory
+	 *            The directory of the spool files or null to use the default
+	 *            temporary directory.
+	 */
+	public void setSpoolDirectory(File directory) {
+		this.spoolDirectory = directory;
+	}
+
+	/**
+	 * Gets the tokenizer of this parser. Callers borrowing the tokenizer of a
+	 * pooled parser must not use it after the parser is released.
+	 * 
+	 * @return the tokenizer of this parser.
+	 */
+	XmlTokenizer getTokenizer() {
+		return this.tokenizer;
+	}
+
+	/**
+	 * Parses the XML read from the given reader.
+	 * 
+	 * @param reader
+	 *            The reader containing the XML data.
+	 * 
+	 * @return The XmlElement created by parsing the given reader data.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement parse(Reader reader) throws XmlException {
+		return this.parse(reader, new XmlContentAdapter());
+	}
+
+	/**
+	 * Parses the XML read from the given reader and fire events from the
+	 * provided listener.
+	 * 
+	 * @param reader
+	 *            The reader containing the XML data.
+	 * 
+	 * @param listener
+	 *            The XmlContentListener containing code to be notified each
+	 *            time an Xml content object is created.
+	 * 
+	 * @return The XmlElement created by parsing the given reader data.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement parse(Reader reader, XmlContentListener listener)
+			throws XmlException {
+		this.tokenizer.reset(reader);
+		return this.parse(listener);
+	}
+
+	/**
+	 * Parses the XML read from the given input stream. The encoding is
+	 * detected from the byte order mark or the XML declaration and defaults to
+	 * UTF-8.
+	 * 
+	 * @param in
+	 *            The input stream containing the XML data.
+	 * 
+	 * @return The XmlElement created by parsing the given stream data.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement parse(InputStream in) throws XmlException {
+		return this.parse(in, new XmlContentAdapter());
+	}
+
+	/**
+	 * Parses the XML read from the given input stream and fire events from
+	 * the provided listener. The encoding is detected from the byte order
+	 * mark or the XML declaration and defaults to UTF-8.
+	 * 
+	 * @param in
+	 *            The input stream containing the XML data.
+	 * 
+	 * @param listener
+	 *            The XmlContentListener containing code to be notified each
+	 *            time an Xml content object is created.
+	 * 
+	 * @return The XmlElement created by parsing the given stream data.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement parse(InputStream in, XmlContentListener listener)
+			throws XmlException {
+		this.decoder.reset(in);
+		this.tokenizer.reset(this.decoder);
+		return this.parse(listener);
+	}
+
+	/**
+	 * Parses the XML bytes contained in the given buffer, from its position to
+	 * its limit. The encoding is detected from the byte order mark or the XML
+	 * declaration and defaults to UTF-8.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data.
+	 * 
+	 * @return The XmlElement parsed from the given buffer.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement parse(ByteBuffer buffer) throws XmlException {
+		this.decoder.reset(buffer);
+		this.tokenizer.reset(this.decoder);
+		return this.parse(new XmlContentAdapter());
+	}
+
+	/**
+	 * Parses the XML file read from the given channel, starting at the
+	 * channel's current position. The file is memory mapped in large windows
+	 * so the data is served by the operating system page cache without going
+	 * through read calls. Files larger than 2 GB are supported. The channel
+	 * is not closed by this method.
+	 * 
+	 * @param channel
+	 *            The channel of the file containing the XML data.
+	 * 
+	 * @return The XmlElement parsed from the given file.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement parse(FileChannel channel) throws XmlException {
+		return this.parse(channel, new XmlContentAdapter());
+	}
+
+	/**
+	 * Parses the XML file read from the given channel and fire events from
+	 * the provided listener. The file is memory mapped in large windows,
+	 * starting at the channel's current position. The channel is not closed
+	 * by this method.
+	 * 
+	 * @param channel
+	 *            The channel of the file containing the XML data.
+	 * 
+	 * @param listener
+	 *            The XmlContentListener containing code to be notified each
+	 *            time an Xml content object is created.
+	 * 
+	 * @return The XmlElement parsed from the given file.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement parse(FileChannel channel, XmlContentListener listener)
+			throws XmlException {
+		try {
+			this.decoder.reset(channel);
+		} catch (IOException e) {
+			this.clear();
+			throw new XmlException("A reader problem occured.", e);
+		}
+		this.tokenizer.reset(this.decoder);
+		return this.parse(listener);
+	}
+
+	/**
+	 * Parses the given XML string.
+	 * 
+	 * @param xml
+	 *            The XML string to parse.
+	 * 
+	 * @return The XmlElement parsed from the given XML string.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement parse(String xml) throws XmlException {
+		char[] buffer = xml.toCharArray();
+		return this.parse(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * Parses the XML contained in the given character buffer. The buffer is
+	 * scanned directly, without any intermediate copy.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data.
+	 * 
+	 * @param offset
+	 *            The offset of the first character of the XML data.
+	 * 
+	 * @param length
+	 *            The number of characters of XML data.
+	 * 
+	 * @return The XmlElement parsed from the given buffer.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlElement parse(char[] buffer, int offset, int length)
+			throws XmlException {
+		this.tokenizer.reset(buffer, offset, length);
+		return this.parse(new XmlContentAdapter());
+	}
+
+	/**
+	 * Parses a fragment of a document: the content of an element whose start
+	 * tag is not part of the fragment.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the whole document.
+	 * 
+	 * @param offset
+	 *            The offset of the first character of the fragment.
+	 * 
+	 * @param length
+	 *            The number of characters of the fragment.
+	 * 
+	 * @param parent
+	 *            The element receiving the parsed content.
+	 * 
+	 * @param docTypeDeclared
+	 *            true if the document declares a document type.
+	 * 
+	 * @return The parent element.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the fragment is not well formed.
+	 */
+	XmlElement parseFragment(char[] buffer, int offset, int length,
+			XmlElement parent, boolean docTypeDeclared) throws XmlException {
+		this.tokenizer.reset(buffer, offset, length, parent.getName(),
+				docTypeDeclared);
+		this.handler.reset(new XmlContentAdapter());
+		this.handler.setStripWhiteSpaces(this.stripWhiteSpaces);
+		try {
+			return this.handler.parse(this.tokenizer, parent);
+		} catch (XmlException e) {
+			throw new XmlException("A parser problem occured", e);
+		} catch (IOException e) {
+			throw new XmlException("A reader problem occured.", e);
+		} finally {
+			this.clear();
+		}
+	}
+
+	private XmlElement parse(XmlContentListener listener) throws XmlException {
+		this.handler.reset(listener);
+		this.handler.setFilter(this.filter);
+		this.handler.setSpoolThreshold(this.textSpoolThreshold,
+				this.spoolDirectory);
+		this.handler.setStripWhiteSpaces(this.stripWhiteSpaces);
+		try {
+			return this.handler.parse(this.tokenizer);
+		} catch (XmlException e) {
+			String message = "A parser problem occured";
+			if (this.handler.peekTopElement() != null) {
+				message += ", node = "
+						+ this.handler.peekTopElement().toString();
+			}
+			throw new XmlException(message, e);
+		} catch (IOException e) {
+			throw new XmlException("A reader problem occured.", e);
+		} finally {
+			this.clear();
+		}
+	}
+
+	/**
+	 * Resets the parser, releases any reference held on the last parsed
+	 * document and restores the default settings.
+	 */
+	public void reset() {
+		this.clear();
+		this.filter = null;
+		this.textSpoolThreshold = 0;
+		this.spoolDirectory = null;
+		this.stripWhiteSpaces = false;
+	}
+
+	private void clear() {
+		this.tokenizer.clear();
+		this.decoder.clear();
+		this.handler.reset(null);
+		this.handler.setFilter(null);
+		this.handler.setSpoolThreshold(0, null);
+		this.handler.setStripWhiteSpaces(false);
+	}
+}
@@ -0,0 +1,116 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A thread safe pool of XmlParser instances. The pool never blocks: when it is
+ * empty a new XmlParser is created and when it is full, released parsers are
+ * simply dropped. Since parsers are not bound to threads, the pool behaves the
+ * same whatever the number of threads using it.
+ * </p>
+ * 
+ * <p>
+ * Typical usage:
+ * </p>
+ * 
+ * <pre>
+ * XmlParser parser = pool.acquire();
+ * try {
+ * 	XmlElement root = parser.parse(reader);
+ * 	// ...
+ * } finally {
+ * 	pool.release(parser);
+ * }
+ * </pre>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlParserPool {
+
+	private static final XmlParserPool DEFAULT = new XmlParserPool(Runtime
+			.getRuntime().availableProcessors() * 2);
+
+	/**
+	 * Gets the default XmlParserPool used by the XmlElement.readXML methods.
+	 * 
+	 * @return the default XmlParserPool.
+	 */
+	public static XmlParserPool getDefault() {
+		return DEFAULT;
+	}
+
+	private int maxSize;
+	private Queue<XmlParser> parsers;
+	private AtomicInteger size;
+
+	/**
+	 * Creates an XmlParserPool keeping at most maxSize idle parsers.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of idle parsers kept by the pool.
+	 */
+	public XmlParserPool(int maxSize) {
+		this.maxSize = maxSize;
+		this.parsers = new ConcurrentLinkedQueue<XmlParser>();
+		this.size = new AtomicInteger(0);
+	}
+
+	/**
+	 * Gets the maximum number of idle parsers kept by the pool.
+	 * 
+	 * @return the maximum number of idle parsers kept by the pool.
+	 */
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * Takes an idle XmlParser from the pool or creates a new one if none is
+	 * available.
+	 * 
+	 * @return an XmlParser ready to parse a new document.
+	 */
+	public XmlParser acquire() {
+		XmlParser parser = this.parsers.poll();
+		if (parser == null) {
+			return new XmlParser();
+		}
+		this.size.decrementAndGet();
+		return parser;
+	}
+
+	/**
+	 * Resets the given parser and gives it back to the pool.
+	 * 
+	 * @param parser
+	 *            The parser to give back. The parser must not be used after
+	 *            having been released.
+	 */
+	public void release(XmlParser parser) {
+		parser.reset();
+		if (this.size.incrementAndGet() <= this.maxSize) {
+			this.parsers.offer(parser);
+		} else {
+			this.size.decrementAndGet();
+		}
+	}
+}
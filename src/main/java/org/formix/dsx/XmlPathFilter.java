@@ -0,0 +1,122 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * An XmlFilter selecting elements by path. Like in {@link XmlNavigator}, the
+ * root element name is omitted from the paths. A path segment "*" matches any
+ * element name.
+ * </p>
+ * 
+ * <p>
+ * An element is loaded when it is not inside an excluded path and, if include
+ * paths are given, when it is on the way to an included path or inside it.
+ * For example, the following filter loads only the E1KNA1M records of an
+ * IDOC, without their E1KNVVM children:
+ * </p>
+ * 
+ * <pre>
+ * XmlPathFilter filter = new XmlPathFilter();
+ * filter.include(&quot;/IDOC/E1KNA1M&quot;);
+ * filter.exclude(&quot;/IDOC/E1KNA1M/E1KNVVM&quot;);
+ * </pre>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlPathFilter implements XmlFilter {
+
+	private List<String[]> includes;
+	private List<String[]> excludes;
+
+	/**
+	 * Creates an XmlPathFilter accepting every element.
+	 */
+	public XmlPathFilter() {
+		this.includes = new ArrayList<String[]>();
+		this.excludes = new ArrayList<String[]>();
+	}
+
+	/**
+	 * Adds a path to load. Once an include path is given, only the elements
+	 * leading to an included path or contained in one are loaded.
+	 * 
+	 * @param path
+	 *            The path of the elements to load.
+	 * 
+	 * @return this XmlPathFilter.
+	 */
+	public XmlPathFilter include(String path) {
+		this.includes.add(splitPath(path));
+		return this;
+	}
+
+	/**
+	 * Adds a path to skip. The elements at the given path are skipped with
+	 * their whole content.
+	 * 
+	 * @param path
+	 *            The path of the elements to skip.
+	 * 
+	 * @return this XmlPathFilter.
+	 */
+	public XmlPathFilter exclude(String path) {
+		this.excludes.add(splitPath(path));
+		return this;
+	}
+
+	private static String[] splitPath(String path) {
+		List<String> names = new ArrayList<String>();
+		for (String name : path.split("/")) {
+			if (!name.isEmpty()) {
+				names.add(name);
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	public boolean accept(XmlStartTag tag) {
+		// The root element name is omitted from the paths.
+		int length = tag.getDepth() - 1;
+		for (String[] exclude : this.excludes) {
+			if (exclude.length <= length && matches(exclude, tag, exclude.length)) {
+				return false;
+			}
+		}
+		if (this.includes.isEmpty()) {
+			return true;
+		}
+		for (String[] include : this.includes) {
+			if (matches(include, tag, Math.min(include.length, length))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean matches(String[] path, XmlStartTag tag, int length) {
+		for (int i = 0; i < length; i++) {
+			if (!path[i].equals("*") && !path[i].equals(tag.getName(i + 1))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,160 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Parses XML bytes as they arrive, without ever blocking. Each chunk given to
+ * {@code feed} is parsed right away, as far as the received data allows, and
+ * the XmlContentListener is notified of the XmlContents as they are created.
+ * The incomplete token at the end of a chunk is kept until the next chunk
+ * completes it. The resulting tree and events are the same as the ones
+ * produced by {@link XmlParser}.
+ * </p>
+ * 
+ * <pre>
+ * XmlPushParser parser = new XmlPushParser(listener);
+ * // each time some bytes are received:
+ * parser.feed(buffer);
+ * // once the whole response is received:
+ * XmlElement root = parser.endOfInput();
+ * </pre>
+ * 
+ * <p>
+ * The encoding is detected from the byte order mark or the XML declaration
+ * and defaults to UTF-8. An XmlPushParser can parse many documents, one after
+ * the other: it is ready for a new document after {@code endOfInput}, after an
+ * error or after {@code reset}. It is not thread safe.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlPushParser {
+
+	private XmlTokenizer tokenizer;
+	private XmlStreamDecoder decoder;
+	private XmlHandler handler;
+	private XmlContentListener listener;
+
+	/**
+	 * Creates a new XmlPushParser.
+	 */
+	public XmlPushParser() {
+		this(new XmlContentAdapter());
+	}
+
+	/**
+	 * Creates a new XmlPushParser notifying the given listener.
+	 * 
+	 * @param listener
+	 *            The XmlContentListener containing code to be notified each
+	 *            time an Xml content object is created.
+	 */
+	public XmlPushParser(XmlContentListener listener) {
+		this.tokenizer = new XmlTokenizer();
+		this.decoder = new XmlStreamDecoder();
+		this.handler = new XmlHandler();
+		this.listener = listener;
+		this.reset();
+	}
+
+	/**
+	 * Parses the remaining bytes of the given buffer. The buffer is consumed
+	 * and can be reused by the caller as soon as this method returns.
+	 * 
+	 * @param chunk
+	 *            The buffer containing the next bytes of the document.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the data received so far is not well formed.
+	 */
+	public void feed(ByteBuffer chunk) throws XmlException {
+		this.decoder.feed(chunk);
+		this.parse();
+	}
+
+	/**
+	 * Parses the given bytes.
+	 * 
+	 * @param bytes
+	 *            The array containing the next bytes of the document.
+	 * 
+	 * @param offset
+	 *            The offset of the first byte to parse.
+	 * 
+	 * @param length
+	 *            The number of bytes to parse.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the data received so far is not well formed.
+	 */
+	public void feed(byte[] bytes, int offset, int length) throws XmlException {
+		this.feed(ByteBuffer.wrap(bytes, offset, length));
+	}
+
+	/**
+	 * Tells the parser that the whole document has been fed and completes the
+	 * parsing. The parser is then ready for a new document.
+	 * 
+	 * @return The XmlElement parsed from the fed bytes.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the document is not well formed or incomplete.
+	 */
+	public XmlElement endOfInput() throws XmlException {
+		this.decoder.endOfInput();
+		this.parse();
+		XmlElement root = this.handler.getRootElement();
+		this.reset();
+		return root;
+	}
+
+	private void parse() throws XmlException {
+		try {
+			int token = this.tokenizer.next();
+			while (token != XmlTokenizer.NEED_INPUT
+					&& token != XmlTokenizer.END_DOCUMENT) {
+				this.handler.handle(this.tokenizer, token);
+				token = this.tokenizer.next();
+			}
+		} catch (XmlException e) {
+			String message = "A parser problem occured";
+			if (this.handler.peekTopElement() != null) {
+				message += ", node = "
+						+ this.handler.peekTopElement().toString();
+			}
+			this.reset();
+			throw new XmlException(message, e);
+		} catch (IOException e) {
+			this.reset();
+			throw new XmlException("A reader problem occured.", e);
+		}
+	}
+
+	/**
+	 * Drops the document being parsed. The parser is ready for a new
+	 * document.
+	 */
+	public void reset() {
+		this.decoder.resetPush();
+		this.tokenizer.resetPush(this.decoder);
+		this.handler.reset(this.listener);
+	}
+}
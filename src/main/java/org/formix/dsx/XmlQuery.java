@@ -0,0 +1,300 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Loads only the parts of a document needed to resolve a set of
+ * {@link XmlNavigator} paths and stops reading as soon as every path is either
+ * resolved or can no longer match. Values located near the beginning of a
+ * large document are thus found without reading the remainder of the data.
+ * </p>
+ * 
+ * <p>
+ * Since an XmlNavigator always follows the first element matching each step
+ * of a path, a path can no longer match once the element selected for one of
+ * its steps is closed. The returned XmlDocument contains the elements leading
+ * to each resolved path and the whole subtree of the targeted elements. An
+ * attribute path is resolved by the start tag of its element, whose content is
+ * neither read nor kept. The siblings preceding an indexed step are kept
+ * without their content. Attribute and indexer syntaxes are supported. For
+ * example:
+ * </p>
+ * 
+ * <pre>
+ * XmlQuery query = new XmlQuery(&quot;/IDOC/EDI_DC40/DOCNUM&quot;,
+ * 		&quot;/IDOC/E1KNA1M@SEGMENT&quot;);
+ * XmlDocument header = query.execute(new File(&quot;idoc.xml&quot;));
+ * String docnum = header.getText(&quot;/IDOC/EDI_DC40/DOCNUM&quot;);
+ * </pre>
+ * 
+ * <p>
+ * An XmlQuery can be executed many times and from many threads.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlQuery {
+
+	private static final Pattern INDEXER_PATTERN = Pattern
+			.compile("(.*)\\[([0-9]+)\\]");
+
+	private List<String> paths;
+
+	/**
+	 * Creates an XmlQuery resolving the given paths.
+	 * 
+	 * @param paths
+	 *            The XmlNavigator paths to resolve.
+	 */
+	public XmlQuery(String... paths) {
+		this.paths = new ArrayList<String>();
+		for (String path : paths) {
+			this.paths.add(path);
+		}
+	}
+
+	/**
+	 * Gets the paths resolved by this query.
+	 * 
+	 * @return the paths resolved by this query.
+	 */
+	public List<String> getPaths() {
+		return this.paths;
+	}
+
+	/**
+	 * Reads the given file up to the point where all paths are resolved.
+	 * 
+	 * @param file
+	 *            The file containing the XML data.
+	 * 
+	 * @return An XmlDocument containing the resolved elements.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 * 
+	 * @throws IOException
+	 *             If some file reading problem is encountered.
+	 */
+	public XmlDocument execute(File file) throws XmlException, IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return this.execute(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the given input stream up to the point where all paths are
+	 * resolved. The encoding is detected from the byte order mark or the XML
+	 * declaration and defaults to UTF-8. The stream is not closed.
+	 * 
+	 * @param in
+	 *            The input stream containing the XML data.
+	 * 
+	 * @return An XmlDocument containing the resolved elements.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlDocument execute(InputStream in) throws XmlException {
+		return this.execute(new XmlStreamDecoder(in));
+	}
+
+	/**
+	 * Reads the given reader up to the point where all paths are resolved.
+	 * The reader is not closed.
+	 * 
+	 * @param reader
+	 *            The reader containing the XML data.
+	 * 
+	 * @return An XmlDocument containing the resolved elements.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if a problem occur while reading the provided XML
+	 *             data.
+	 */
+	public XmlDocument execute(Reader reader) throws XmlException {
+		XmlTokenizer tokenizer = new XmlTokenizer(reader);
+		Execution execution = new Execution(this.paths);
+		XmlHandler handler = new XmlHandler();
+		handler.setFilter(execution);
+		try {
+			int token = tokenizer.next();
+			while (token != XmlTokenizer.END_DOCUMENT) {
+				handler.handle(tokenizer, token);
+				if (token == XmlTokenizer.START_ELEMENT && execution.isDone()) {
+					break;
+				}
+				if (token == XmlTokenizer.END_ELEMENT
+						&& execution.elementEnded(tokenizer.getDepth() + 1)) {
+					break;
+				}
+				token = tokenizer.next();
+			}
+			return new XmlDocument(handler.closeElements());
+		} catch (XmlException e) {
+			throw new XmlException("A parser problem occured", e);
+		} catch (IOException e) {
+			throw new XmlException("A reader problem occured.", e);
+		}
+	}
+
+	/**
+	 * Keeps track of the resolution of each path during one execution.
+	 */
+	private static class Execution implements XmlFilter {
+
+		private List<PathState> states;
+		private int remaining;
+
+		public Execution(List<String> paths) {
+			this.states = new ArrayList<PathState>();
+			this.remaining = 0;
+			for (String path : paths) {
+				PathState state = new PathState(path);
+				this.states.add(state);
+				if (!state.done) {
+					this.remaining++;
+				}
+			}
+		}
+
+		public boolean accept(XmlStartTag tag) {
+			boolean accepted = false;
+			for (PathState state : this.states) {
+				if (!state.done) {
+					if (state.accept(tag)) {
+						accepted = true;
+					}
+					if (state.done) {
+						this.remaining--;
+					}
+				}
+			}
+			return accepted;
+		}
+
+		/**
+		 * Tells if every path is done. Attribute paths are done as soon as
+		 * the start tag of their element is read.
+		 * 
+		 * @return true if every path is done.
+		 */
+		public boolean isDone() {
+			return this.remaining == 0;
+		}
+
+		/**
+		 * Updates the paths after an element has been closed.
+		 * 
+		 * @return true if every path is done.
+		 */
+		public boolean elementEnded(int depth) {
+			for (PathState state : this.states) {
+				if (!state.done && depth == state.matched + 1) {
+					state.done = true;
+					this.remaining--;
+				}
+			}
+			return this.remaining == 0;
+		}
+	}
+
+	/**
+	 * The resolution state of a single path. The element selected for each
+	 * matched step stays open until the path is done. The content of the
+	 * element targeted by an attribute path is not needed: the path is done
+	 * once its start tag is accepted.
+	 */
+	private static class PathState {
+
+		private String[] names;
+		private int[] indexes;
+		private boolean attribute;
+		private int matched;
+		private int count;
+		private boolean done;
+
+		public PathState(String path) {
+			int lastSlash = path.lastIndexOf('/');
+			int arobasIndex = path.indexOf('@', lastSlash);
+			this.attribute = arobasIndex != -1;
+			if (this.attribute) {
+				path = path.substring(0, arobasIndex);
+			}
+			List<String> steps = new ArrayList<String>();
+			for (String step : path.split("/")) {
+				if (!step.isEmpty()) {
+					steps.add(step);
+				}
+			}
+			this.names = new String[steps.size()];
+			this.indexes = new int[steps.size()];
+			for (int i = 0; i < steps.size(); i++) {
+				Matcher matcher = INDEXER_PATTERN.matcher(steps.get(i));
+				if (matcher.matches()) {
+					String name = matcher.group(1).trim();
+					this.names[i] = name.isEmpty() ? null : name;
+					this.indexes[i] = Integer.parseInt(matcher.group(2));
+				} else {
+					this.names[i] = steps.get(i);
+				}
+			}
+			// The root element is always read.
+			this.done = this.attribute && this.names.length == 0;
+		}
+
+		public boolean accept(XmlStartTag tag) {
+			// The root element is at depth 1 and is never part of the path.
+			int depth = tag.getDepth();
+			if (this.matched == this.names.length) {
+				return depth > this.matched + 1;
+			}
+			if (depth != this.matched + 2) {
+				return false;
+			}
+			String name = this.names[this.matched];
+			if (name != null && !name.equals(tag.getName())) {
+				return false;
+			}
+			if (this.count++ < this.indexes[this.matched]) {
+				// Preceding siblings are kept, without their content, so
+				// that indexers give the same result on the loaded tree.
+				return true;
+			}
+			this.matched++;
+			this.count = 0;
+			this.done = this.attribute && this.matched == this.names.length;
+			return true;
+		}
+	}
+}
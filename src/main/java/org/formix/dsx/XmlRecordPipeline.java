@@ -0,0 +1,371 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ * Fans the records of an {@link XmlElementReader} out to many worker threads.
+ * The calling thread parses the records and hands them to the workers, which
+ * call {@link XmlRecordProcessor#process} concurrently. The results are given
+ * to {@link XmlRecordProcessor#collect}, in document order if the pipeline is
+ * ordered.
+ * </p>
+ * 
+ * <p>
+ * At most {@code capacity} records are in flight, waiting, being processed
+ * or waiting for an earlier record to be collected. Parsing pauses when that
+ * limit is reached and resumes as soon as a record is collected, so the
+ * memory used stays proportional to the capacity whatever the document size.
+ * </p>
+ * 
+ * <p>
+ * <code>
+ * XmlElementReader xreader = new XmlElementReader(in, "/IDOC/E1KNA1M");<br>
+ * XmlRecordPipeline pipeline = new XmlRecordPipeline(xreader);<br>
+ * pipeline.setOrdered(true);<br>
+ * pipeline.process(processor);<br>
+ * xreader.close();
+ * </code>
+ * </p>
+ * 
+ * <p>
+ * The first exception thrown by the reader or the processor stops the
+ * pipeline: the remaining records are dropped and {@code process} throws an
+ * XmlException caused by it.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlRecordPipeline {
+
+	private XmlElementReader reader;
+	private int workers;
+	private int capacity;
+	private boolean ordered;
+	private Executor executor;
+
+	/**
+	 * Creates a pipeline processing the records of the given reader with one
+	 * worker per available processor.
+	 * 
+	 * @param reader
+	 *            The reader of the records.
+	 */
+	public XmlRecordPipeline(XmlElementReader reader) {
+		this.reader = reader;
+		this.workers = Runtime.getRuntime().availableProcessors();
+		this.capacity = 0;
+		this.ordered = false;
+		this.executor = null;
+	}
+
+	/**
+	 * Gets the number of worker threads.
+	 * 
+	 * @return the number of worker threads.
+	 */
+	public int getWorkers() {
+		return this.workers;
+	}
+
+	/**
+	 * Sets the number of worker threads.
+	 * 
+	 * @param workers
+	 *            The number of worker threads, at least 1.
+	 */
+	public void setWorkers(int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException(
+					"At least one worker is needed.");
+		}
+		this.workers = workers;
+	}
+
+	/**
+	 * Gets the maximum number of records in flight.
+	 * 
+	 * @return the maximum number of records in flight.
+	 */
+	public int getCapacity() {
+		return this.capacity == 0 ? this.workers * 4 : this.capacity;
+	}
+
+	/**
+	 * Sets the maximum number of records in flight. Defaults to four records
+	 * per worker.
+	 * 
+	 * @param capacity
+	 *            The maximum number of records in flight, at least 1.
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"The capacity must be at least 1.");
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Tells if the results are collected in document order.
+	 * 
+	 * @return true if the results are collected in document order.
+	 */
+	public boolean isOrdered() {
+		return this.ordered;
+	}
+
+	/**
+	 * Sets if the results are collected in document order. Otherwise they
+	 * are collected as soon as they are available.
+	 * 
+	 * @param ordered
+	 *            true to collect the results in document order.
+	 */
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Sets the executor running the workers. The executor must be able to run
+	 * all the workers at the same time. By default, a new daemon thread is
+	 * started for each worker.
+	 * 
+	 * @param executor
+	 *            The executor running the workers or null.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Reads every record and processes it. Returns once every result has been
+	 * collected.
+	 * 
+	 * @param processor
+	 *            The processor of the records.
+	 * 
+	 * @return The number of records collected.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the reader or the processor fails, or if a worker
+	 *             cannot be started.
+	 */
+	public <T> long process(XmlRecordProcessor<T> processor)
+			throws XmlException {
+		Run<T> run = new Run<T>(processor, this.getCapacity(), this.ordered,
+				this.workers);
+		int started = 0;
+		boolean complete = false;
+		try {
+			for (int i = 0; i < this.workers; i++) {
+				if (this.executor == null) {
+					Thread thread = new Thread(run,
+							"XmlRecordPipeline worker " + (i + 1));
+					thread.setDaemon(true);
+					thread.start();
+				} else {
+					this.executor.execute(run);
+				}
+				started++;
+			}
+			complete = true;
+		} catch (RuntimeException e) {
+			throw new XmlException("Unable to start the workers.", e);
+		} finally {
+			if (!complete) {
+				// The workers already started would wait forever otherwise.
+				run.stop(started);
+			}
+		}
+		run.publish(this.reader);
+		return run.getCollected();
+	}
+
+	private static final class Record {
+
+		private final long index;
+		private final XmlElement element;
+
+		public Record(long index, XmlElement element) {
+			this.index = index;
+			this.element = element;
+		}
+	}
+
+	/**
+	 * The state of one call to process. Each worker runs the same Run.
+	 */
+	private static final class Run<T> implements Runnable {
+
+		private static final Record END = new Record(-1, null);
+
+		private final XmlRecordProcessor<T> processor;
+		private final int capacity;
+		private final boolean ordered;
+		private final int workers;
+		private final BlockingQueue<Record> queue;
+		private final Semaphore permits;
+		private final CountDownLatch finished;
+		private final Map<Long, T> pending;
+		private long nextIndex;
+		private long collected;
+		private volatile Throwable failure;
+
+		public Run(XmlRecordProcessor<T> processor, int capacity,
+				boolean ordered, int workers) {
+			this.processor = processor;
+			this.capacity = capacity;
+			this.ordered = ordered;
+			this.workers = workers;
+			this.queue = new LinkedBlockingQueue<Record>();
+			this.permits = new Semaphore(capacity);
+			this.finished = new CountDownLatch(workers);
+			this.pending = new HashMap<Long, T>();
+			this.nextIndex = 0;
+			this.collected = 0;
+			this.failure = null;
+		}
+
+		/**
+		 * Reads the records and hands them to the workers, then waits for the
+		 * workers to finish.
+		 */
+		public void publish(XmlElementReader reader) throws XmlException {
+			try {
+				long index = 0;
+				XmlElement element = reader.next();
+				while (element != null && this.failure == null) {
+					this.permits.acquire();
+					this.queue.add(new Record(index++, element));
+					element = reader.next();
+				}
+			} catch (XmlException e) {
+				this.fail(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				this.fail(e);
+			} finally {
+				for (int i = 0; i < this.workers; i++) {
+					this.queue.add(END);
+				}
+			}
+
+			boolean interrupted = false;
+			while (this.finished.getCount() > 0) {
+				try {
+					this.finished.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+			Throwable failure = this.failure;
+			if (failure instanceof XmlException) {
+				throw (XmlException) failure;
+			} else if (failure instanceof InterruptedException) {
+				throw new XmlException("Record processing interrupted.",
+						failure);
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (failure != null) {
+				throw new XmlException("A record processing problem occured",
+						failure);
+			}
+		}
+
+		/**
+		 * Ends the given number of workers without publishing any record.
+		 */
+		public void stop(int workers) {
+			for (int i = 0; i < workers; i++) {
+				this.queue.add(END);
+			}
+		}
+
+		public void run() {
+			try {
+				Record record = this.queue.take();
+				while (record != END) {
+					if (this.failure == null) {
+						try {
+							this.collect(record.index,
+									this.processor.process(record.element));
+						} catch (Throwable e) {
+							this.fail(e);
+						}
+					} else {
+						this.permits.release();
+					}
+					record = this.queue.take();
+				}
+			} catch (InterruptedException e) {
+				this.fail(e);
+			} finally {
+				this.finished.countDown();
+			}
+		}
+
+		private void collect(long index, T result) throws Exception {
+			synchronized (this.pending) {
+				if (!this.ordered) {
+					this.processor.collect(result);
+					this.collected++;
+					this.permits.release();
+					return;
+				}
+				this.pending.put(index, result);
+				while (this.failure == null
+						&& this.pending.containsKey(this.nextIndex)) {
+					T next = this.pending.remove(this.nextIndex);
+					this.nextIndex++;
+					this.processor.collect(next);
+					this.collected++;
+					this.permits.release();
+				}
+			}
+		}
+
+		private void fail(Throwable e) {
+			synchronized (this.pending) {
+				if (this.failure == null) {
+					this.failure = e;
+					this.pending.clear();
+					// Unblocks the publisher waiting for collected records.
+					this.permits.release(this.capacity);
+				}
+			}
+		}
+
+		public long getCollected() {
+			synchronized (this.pending) {
+				return this.collected;
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+/**
+ * Processes the records published by an {@link XmlRecordPipeline}. The
+ * {@code process} method does the heavy work and is called concurrently by
+ * the pipeline workers. The {@code collect} method receives the results one
+ * at a time, in document order if the pipeline is ordered.
+ * 
+ * @param <T>
+ *            The type of the results of the processing.
+ * 
+ * @author jpgravel
+ * 
+ */
+public interface XmlRecordProcessor<T> {
+
+	/**
+	 * Called by a worker thread for each record. Must be thread safe.
+	 * 
+	 * @param record
+	 *            The record to process. The pipeline keeps no reference to
+	 *            it once this method returns.
+	 * 
+	 * @return The result to collect.
+	 * 
+	 * @throws Exception
+	 *             Stops the pipeline.
+	 */
+	T process(XmlElement record) throws Exception;
+
+	/**
+	 * Called for each result. Calls are never concurrent.
+	 * 
+	 * @param result
+	 *            The result of a call to {@code process}.
+	 * 
+	 * @throws Exception
+	 *             Stops the pipeline.
+	 */
+	void collect(T result) throws Exception;
+
+}
@@ -0,0 +1,399 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Reformats an XML document while it is read, without building any
+ * XmlElement tree. The output is the same as the one of an XmlDocument loaded
+ * from the source, formatted with {@link XmlDocument#format(String, String)}
+ * or cleaned with {@link XmlDocument#cleanUp()}, then saved. The memory used
+ * does not depend on the size of the document, only on its depth, so
+ * multi-gigabyte files can be prettified or minified.
+ * </p>
+ * 
+ * <pre>
+ * // Indents the document.
+ * new XmlReformatter(new XmlFormatOptions()).reformat(source, target);
+ * // Strips the ignorable white spaces.
+ * new XmlReformatter().reformat(source, target);
+ * </pre>
+ * 
+ * <p>
+ * Texts are trimmed on the fly: only their trailing white spaces are kept
+ * until the next character tells if they must be written. An XmlReformatter
+ * can be reused but is not thread safe.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlReformatter {
+
+	// A single text shorter than this is written on the element's line.
+	private static final int MAX_INLINE_TEXT_LENGTH = 60;
+
+	private XmlFormatOptions options;
+	private XmlDocumentType documentType;
+
+	private Writer writer;
+	private String eol;
+	private XmlFormatter formatter;
+	private int depth;
+	private String[] names;
+	private boolean[] open;
+	private int[] kept;
+	private boolean[] inline;
+
+	// The text, CDATA section or comment being written.
+	private int textToken;
+	private boolean textStarted;
+	private boolean textFirst;
+	private int textLength;
+	private char[] textHead;
+	private char[] spaces;
+	private int spaceCount;
+
+	/**
+	 * Creates an XmlReformatter stripping the white spaces like
+	 * {@link XmlDocument#cleanUp()}.
+	 */
+	public XmlReformatter() {
+		this(null);
+	}
+
+	/**
+	 * Creates an XmlReformatter indenting the document with the given options
+	 * like {@link XmlDocument#format(String, String)}.
+	 * 
+	 * @param options
+	 *            The end of line and indentation to use or null to strip the
+	 *            white spaces only.
+	 */
+	public XmlReformatter(XmlFormatOptions options) {
+		this.options = options;
+		this.documentType = XmlDocumentType.XML_1_0;
+		this.names = new String[16];
+		this.open = new boolean[16];
+		this.kept = new int[16];
+		this.inline = new boolean[16];
+		this.textHead = new char[MAX_INLINE_TEXT_LENGTH];
+		this.spaces = new char[256];
+	}
+
+	/**
+	 * Gets the document type used to write the XML declaration.
+	 * 
+	 * @return the document type.
+	 */
+	public XmlDocumentType getDocumentType() {
+		return this.documentType;
+	}
+
+	/**
+	 * Sets the document type used to write the XML declaration. Defaults to
+	 * XML_1_0, like a new XmlDocument.
+	 * 
+	 * @param documentType
+	 *            The document type.
+	 */
+	public void setDocumentType(XmlDocumentType documentType) {
+		this.documentType = documentType;
+	}
+
+	/**
+	 * Reformats the source file in the target file, in UTF-8. The source
+	 * encoding is detected from the byte order mark or the XML declaration
+	 * and defaults to UTF-8. The source file is memory mapped in large
+	 * windows.
+	 * 
+	 * @param source
+	 *            The file to reformat.
+	 * 
+	 * @param target
+	 *            The file receiving the reformatted document.
+	 * 
+	 * @throws IOException
+	 *             If a file cannot be read or written.
+	 * 
+	 * @throws XmlException
+	 *             If the source is not well formed.
+	 */
+	public void reformat(File source, File target) throws IOException,
+			XmlException {
+		FileInputStream in = new FileInputStream(source);
+		try {
+			FileOutputStream out = new FileOutputStream(target);
+			try {
+				XmlUtf8Writer writer = new XmlUtf8Writer(out);
+				this.reformat(new XmlStreamDecoder(in.getChannel()), writer);
+				writer.flush();
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reformats the document read from the given stream to the given output
+	 * stream, in UTF-8. The streams are not closed.
+	 * 
+	 * @param in
+	 *            The stream containing the document to reformat.
+	 * 
+	 * @param out
+	 *            The stream receiving the reformatted document.
+	 * 
+	 * @throws IOException
+	 *             If a stream fails.
+	 * 
+	 * @throws XmlException
+	 *             If the source is not well formed.
+	 */
+	public void reformat(InputStream in, OutputStream out) throws IOException,
+			XmlException {
+		XmlUtf8Writer writer = new XmlUtf8Writer(out);
+		this.reformat(new XmlStreamDecoder(in), writer);
+		writer.flush();
+	}
+
+	/**
+	 * Reformats the document read from the given reader to the given writer.
+	 * Neither is closed.
+	 * 
+	 * @param reader
+	 *            The reader containing the document to reformat.
+	 * 
+	 * @param writer
+	 *            The writer receiving the reformatted document.
+	 * 
+	 * @throws IOException
+	 *             If the reader or the writer fails.
+	 * 
+	 * @throws XmlException
+	 *             If the source is not well formed.
+	 */
+	public void reformat(Reader reader, Writer writer) throws IOException,
+			XmlException {
+		XmlFormatOptions options = this.options;
+		if (options == null) {
+			options = new XmlFormatOptions("", "");
+		}
+		this.writer = writer;
+		this.eol = options.getEol();
+		this.formatter = new XmlFormatter(options);
+		this.depth = 0;
+		this.textToken = 0;
+		this.textStarted = false;
+		this.spaceCount = 0;
+		try {
+			XmlTokenizer tokenizer = new XmlTokenizer(reader);
+			XmlDocument.writeDeclaration(writer, this.documentType);
+			int token = tokenizer.next();
+			while (token != XmlTokenizer.END_DOCUMENT) {
+				this.handle(tokenizer, token);
+				token = tokenizer.next();
+			}
+			writer.flush();
+		} catch (XmlException e) {
+			throw new XmlException("A parser problem occured", e);
+		} finally {
+			this.writer = null;
+			Arrays.fill(this.names, null);
+		}
+	}
+
+	private void handle(XmlTokenizer tokenizer, int token) throws IOException {
+		switch (token) {
+		case XmlTokenizer.START_ELEMENT:
+			this.endText();
+			this.startElement(tokenizer);
+			break;
+		case XmlTokenizer.END_ELEMENT:
+			this.endText();
+			this.endElement();
+			break;
+		case XmlTokenizer.TEXT:
+		case XmlTokenizer.CDATA:
+			// Consecutive chunks of the same kind form a single XmlText.
+			if (token != this.textToken) {
+				this.endText();
+				this.textToken = token;
+			}
+			this.text(tokenizer.getTextCharacters(), tokenizer.getTextLength());
+			break;
+		case XmlTokenizer.COMMENT:
+			this.endText();
+			this.textToken = token;
+			this.text(tokenizer.getTextCharacters(), tokenizer.getTextLength());
+			this.endText();
+			break;
+		}
+	}
+
+	/**
+	 * Counts a child of the current element, which is then known to be non
+	 * empty. Returns true for the first child.
+	 */
+	private boolean keep() throws IOException {
+		int i = this.depth - 1;
+		if (!this.open[i]) {
+			this.writer.write('>');
+			this.open[i] = true;
+		}
+		return ++this.kept[i] == 1;
+	}
+
+	private void startElement(XmlTokenizer tokenizer) throws IOException {
+		if (this.depth > 0) {
+			this.keep();
+			this.writeLineStart(this.depth);
+		}
+		String name = tokenizer.getName();
+		this.writer.write('<');
+		XmlElement.writeName(this.writer, name);
+		for (int i = 0; i < tokenizer.getAttributeCount(); i++) {
+			this.writer.write(' ');
+			XmlElement.writeAttribute(this.writer,
+					tokenizer.getAttributeName(i),
+					tokenizer.getAttributeValue(i));
+		}
+		if (this.depth == this.names.length) {
+			int length = this.depth * 2;
+			this.names = Arrays.copyOf(this.names, length);
+			this.open = Arrays.copyOf(this.open, length);
+			this.kept = Arrays.copyOf(this.kept, length);
+			this.inline = Arrays.copyOf(this.inline, length);
+		}
+		this.names[this.depth] = name;
+		this.open[this.depth] = false;
+		this.kept[this.depth] = 0;
+		this.inline[this.depth] = false;
+		this.depth++;
+	}
+
+	private void endElement() throws IOException {
+		this.depth--;
+		int i = this.depth;
+		if (this.kept[i] == 0) {
+			this.writer.write("/>");
+		} else {
+			if (this.kept[i] > 1 || !this.inline[i]) {
+				this.writeLineStart(i);
+			}
+			this.writer.write("</");
+			XmlElement.writeName(this.writer, this.names[i]);
+			this.writer.write('>');
+		}
+		this.names[i] = null;
+	}
+
+	private void writeLineStart(int level) throws IOException {
+		String lineStart = this.formatter.getLineStart(level);
+		if (!lineStart.isEmpty()) {
+			this.writer.write(lineStart);
+		}
+	}
+
+	/**
+	 * Writes a chunk of the current text, CDATA section or comment, trimmed.
+	 */
+	private void text(char[] chars, int length) throws IOException {
+		int start = 0;
+		if (!this.textStarted) {
+			while (start < length && chars[start] <= ' ') {
+				start++;
+			}
+			if (start == length) {
+				return;
+			}
+			this.textStarted = true;
+			this.textFirst = this.keep();
+			if (this.textToken == XmlTokenizer.CDATA) {
+				this.writer.write("<![CDATA[");
+			} else if (this.textToken == XmlTokenizer.COMMENT) {
+				this.writer.write("<!--");
+			}
+		}
+		int end = length;
+		while (end > start && chars[end - 1] <= ' ') {
+			end--;
+		}
+		if (end > start) {
+			if (this.spaceCount > 0) {
+				this.write(this.spaces, 0, this.spaceCount);
+				this.spaceCount = 0;
+			}
+			this.write(chars, start, end - start);
+		}
+		int count = length - end;
+		if (this.spaceCount + count > this.spaces.length) {
+			this.spaces = Arrays.copyOf(this.spaces,
+					Math.max(this.spaceCount + count, this.spaces.length * 2));
+		}
+		System.arraycopy(chars, end, this.spaces, this.spaceCount, count);
+		this.spaceCount += count;
+	}
+
+	private void write(char[] chars, int offset, int length)
+			throws IOException {
+		if (this.textLength < MAX_INLINE_TEXT_LENGTH) {
+			System.arraycopy(chars, offset, this.textHead, this.textLength,
+					Math.min(length, MAX_INLINE_TEXT_LENGTH - this.textLength));
+		}
+		this.textLength += length;
+		if (this.textToken == XmlTokenizer.TEXT) {
+			XmlEscaper.escape(chars, offset, length, this.writer);
+		} else {
+			this.writer.write(chars, offset, length);
+		}
+	}
+
+	/**
+	 * Ends the current text, CDATA section or comment. Its trailing white
+	 * spaces are dropped.
+	 */
+	private void endText() throws IOException {
+		if (this.textStarted) {
+			if (this.textToken == XmlTokenizer.CDATA) {
+				this.writer.write("]]>");
+			} else if (this.textToken == XmlTokenizer.COMMENT) {
+				this.writer.write("-->");
+			}
+			if (this.textFirst) {
+				this.inline[this.depth - 1] = this.textLength < MAX_INLINE_TEXT_LENGTH
+						&& !new String(this.textHead, 0, this.textLength)
+								.contains(this.eol);
+			}
+		}
+		this.textToken = 0;
+		this.textStarted = false;
+		this.textLength = 0;
+		this.spaceCount = 0;
+	}
+}
@@ -0,0 +1,364 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>
+ * An XmlText whose content is kept in a temporary file instead of the heap.
+ * The parser creates XmlSpooledText instances for texts larger than the
+ * threshold given to {@link XmlParser#setTextSpoolThreshold(int)}. The content
+ * is stored in UTF-8, which takes a single byte per character for base64
+ * payloads.
+ * </p>
+ * 
+ * <p>
+ * The content should be consumed through {@link #getReader()} or
+ * {@link #getInputStream()}: {@link #getText()} loads the whole content in
+ * memory. The {@code write} method streams the content from the file.
+ * </p>
+ * 
+ * <p>
+ * The temporary file is deleted by {@link #close()} or {@link #delete()},
+ * after which the text cannot be used anymore. Otherwise, it is deleted once
+ * the XmlSpooledText has been garbage collected, so a long running process
+ * dropping its documents does not fill the disk. The daemon thread deleting
+ * these files is started by the first XmlSpooledText created. Files of texts
+ * still reachable when the virtual machine terminates are not deleted.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+public class XmlSpooledText extends XmlText implements Closeable {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final ReferenceQueue<XmlSpooledText> UNREACHABLE = new ReferenceQueue<XmlSpooledText>();
+	// Keeps the cleaners reachable until their text is collected.
+	private static final Set<FileCleaner> CLEANERS = Collections
+			.synchronizedSet(new HashSet<FileCleaner>());
+
+	// Started by the first XmlSpooledText, ends when interrupted.
+	private static Thread cleanerThread = null;
+
+	private File file;
+	private FileCleaner cleaner;
+	private long length;
+	private Writer writer;
+	private boolean deleted;
+
+	/**
+	 * Creates an empty XmlSpooledText stored in a new temporary file.
+	 * 
+	 * @param directory
+	 *            The directory of the temporary file or null to use the
+	 *            default temporary directory.
+	 * 
+	 * @throws IOException
+	 *             If the temporary file cannot be created.
+	 */
+	public XmlSpooledText(File directory) throws IOException {
+		startCleaner();
+		this.file = File.createTempFile("dsx", ".txt", directory);
+		this.cleaner = new FileCleaner(this, this.file);
+		CLEANERS.add(this.cleaner);
+		this.length = 0;
+		this.writer = null;
+		this.deleted = false;
+	}
+
+	/**
+	 * Starts the thread deleting the files of unreachable texts, unless it
+	 * is already running.
+	 */
+	private static synchronized void startCleaner() {
+		if (cleanerThread != null) {
+			return;
+		}
+		cleanerThread = new Thread("XmlSpooledText cleaner") {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						FileCleaner cleaner = (FileCleaner) UNREACHABLE
+								.remove();
+						CLEANERS.remove(cleaner);
+						cleaner.file.delete();
+					}
+				} catch (InterruptedException e) {
+					// The next XmlSpooledText starts a new thread.
+					synchronized (XmlSpooledText.class) {
+						if (cleanerThread == this) {
+							cleanerThread = null;
+						}
+					}
+				}
+			}
+		};
+		cleanerThread.setDaemon(true);
+		cleanerThread.start();
+	}
+
+	/**
+	 * Gets the temporary file holding the UTF-8 encoded content.
+	 * 
+	 * @return the temporary file holding the content.
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Gets the number of characters of the text.
+	 * 
+	 * @return the number of characters of the text, 0 once deleted.
+	 */
+	public long length() {
+		return this.length;
+	}
+
+	/**
+	 * Opens a reader on the text content. The reader must be closed by the
+	 * caller.
+	 * 
+	 * @return a reader on the text content.
+	 * 
+	 * @throws IOException
+	 *             If the temporary file cannot be read.
+	 */
+	public Reader getReader() throws IOException {
+		this.checkNotDeleted();
+		this.closeWriter();
+		return new BufferedReader(new InputStreamReader(this.getInputStream(),
+				UTF_8), BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens an input stream on the UTF-8 encoded text content. The stream
+	 * must be closed by the caller.
+	 * 
+	 * @return an input stream on the text content.
+	 * 
+	 * @throws IOException
+	 *             If the temporary file cannot be read.
+	 */
+	public InputStream getInputStream() throws IOException {
+		this.checkNotDeleted();
+		this.closeWriter();
+		return new FileInputStream(this.file);
+	}
+
+	/**
+	 * Deletes the temporary file, like {@link #delete()}.
+	 */
+	public void close() {
+		this.delete();
+	}
+
+	/**
+	 * Deletes the temporary file. The text cannot be used afterward: every
+	 * method reading or changing it throws an IllegalStateException. Deleting
+	 * the text again does nothing.
+	 */
+	public void delete() {
+		if (this.deleted) {
+			return;
+		}
+		try {
+			this.closeWriter();
+		} catch (IOException e) {
+			// the file is deleted anyway.
+		}
+		this.file.delete();
+		CLEANERS.remove(this.cleaner);
+		this.cleaner.clear();
+		this.deleted = true;
+		this.length = 0;
+	}
+
+	private void checkNotDeleted() {
+		if (this.deleted) {
+			throw new IllegalStateException("The spooled text has been "
+					+ "deleted: " + this.file);
+		}
+	}
+
+	/**
+	 * Appends characters to the content.
+	 * 
+	 * @param chars
+	 *            The buffer containing the characters to append.
+	 * 
+	 * @param offset
+	 *            The offset of the first character to append.
+	 * 
+	 * @param count
+	 *            The number of characters to append.
+	 * 
+	 * @throws IOException
+	 *             If the temporary file cannot be written.
+	 */
+	public void append(char[] chars, int offset, int count)
+			throws IOException {
+		this.checkNotDeleted();
+		if (this.writer == null) {
+			this.writer = new OutputStreamWriter(new FileOutputStream(
+					this.file, true), UTF_8);
+		}
+		this.writer.write(chars, offset, count);
+		this.length += count;
+	}
+
+	/**
+	 * Flushes and closes the writer used to append characters, if any.
+	 * 
+	 * @throws IOException
+	 *             If the temporary file cannot be written.
+	 */
+	void closeWriter() throws IOException {
+		if (this.writer != null) {
+			Writer w = this.writer;
+			this.writer = null;
+			w.close();
+		}
+	}
+
+	/**
+	 * Gets the whole text. The content is entirely loaded in memory, use
+	 * {@link #getReader()} to avoid it.
+	 * 
+	 * @return the text value.
+	 */
+	@Override
+	public String getText() {
+		StringWriter sw = new StringWriter((int) Math.min(this.length,
+				Integer.MAX_VALUE - 8));
+		try {
+			this.copyTo(sw, false);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read " + this.file, e);
+		}
+		return sw.toString();
+	}
+
+	@Override
+	boolean isBlank() {
+		try {
+			Reader reader = this.getReader();
+			try {
+				char[] buffer = new char[BUFFER_SIZE];
+				int count = reader.read(buffer);
+				while (count >= 0) {
+					for (int i = 0; i < count; i++) {
+						if (buffer[i] > ' ') {
+							return false;
+						}
+					}
+					count = reader.read(buffer);
+				}
+				return true;
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read " + this.file, e);
+		}
+	}
+
+	@Override
+	public void setText(String text) {
+		this.checkNotDeleted();
+		try {
+			this.closeWriter();
+			this.length = 0;
+			this.writer = new OutputStreamWriter(new FileOutputStream(
+					this.file, false), UTF_8);
+			this.writer.write(text);
+			this.length = text.length();
+			this.closeWriter();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write " + this.file, e);
+		}
+	}
+
+	@Override
+	public void append(String value) {
+		try {
+			char[] chars = value.toCharArray();
+			this.append(chars, 0, chars.length);
+			this.closeWriter();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write " + this.file, e);
+		}
+	}
+
+	@Override
+	public void write(Writer writer) throws IOException {
+		this.copyTo(writer, true);
+	}
+
+	private void copyTo(Writer writer, boolean escape) throws IOException {
+		Reader reader = this.getReader();
+		try {
+			char[] buffer = new char[BUFFER_SIZE];
+			int count = reader.read(buffer);
+			while (count >= 0) {
+				if (escape) {
+					XmlEscaper.escape(buffer, 0, count, writer);
+				} else {
+					writer.write(buffer, 0, count);
+				}
+				count = reader.read(buffer);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Deletes the file of a spooled text once the text is unreachable. It
+	 * must not reference the text itself.
+	 */
+	private static class FileCleaner extends PhantomReference<XmlSpooledText> {
+
+		private File file;
+
+		public FileCleaner(XmlSpooledText text, File file) {
+			super(text, UNREACHABLE);
+			this.file = file;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+/**
+ * A read only view of the start tag being read by the parser. It gives access
+ * to the element name, its attributes and the names of its ancestors without
+ * creating any XmlElement.
+ * 
+ * @author jpgravel
+ * 
+ */
+public interface XmlStartTag {
+
+	/**
+	 * Gets the name of the element.
+	 * 
+	 * @return the name of the element.
+	 */
+	String getName();
+
+	/**
+	 * Gets the depth of the element. The root element is at depth 1.
+	 * 
+	 * @return the depth of the element.
+	 */
+	int getDepth();
+
+	/**
+	 * Gets the name of the element or of one of its ancestors. The root
+	 * element is at level 0 and the element itself is at level getDepth() - 1.
+	 * 
+	 * @param level
+	 *            The level of the element name to get.
+	 * 
+	 * @return the name of the element at the given level.
+	 */
+	String getName(int level);
+
+	/**
+	 * Gets the number of attributes of the element.
+	 * 
+	 * @return the number of attributes of the element.
+	 */
+	int getAttributeCount();
+
+	/**
+	 * Gets the name of the attribute at the given index.
+	 * 
+	 * @param index
+	 *            The index of the attribute, from 0 to getAttributeCount() - 1.
+	 * 
+	 * @return the name of the attribute.
+	 */
+	String getAttributeName(int index);
+
+	/**
+	 * Gets the value of the attribute at the given index.
+	 * 
+	 * @param index
+	 *            The index of the attribute, from 0 to getAttributeCount() - 1.
+	 * 
+	 * @return the value of the attribute.
+	 */
+	String getAttributeValue(int index);
+
+}
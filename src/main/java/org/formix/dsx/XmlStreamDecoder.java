@@ -0,0 +1,691 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Decodes XML bytes into characters. The encoding is detected from the byte
+ * order mark or from the XML declaration and defaults to UTF-8.
+ * </p>
+ * 
+ * <p>
+ * UTF-8 and ISO-8859-1 are decoded directly into the buffer given to the
+ * {@code read} method, which is the tokenizer's own buffer, without any
+ * intermediate character buffer. Bytes held by a direct or memory mapped
+ * ByteBuffer are read in place, without being copied to the heap first. Other
+ * encodings are decoded using the corresponding {@link CharsetDecoder}.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlStreamDecoder extends Reader {
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int MAX_DECLARATION_SIZE = 1024;
+	private static final long MAPPING_SIZE = 1L << 28;
+
+	private static final int UTF_8 = 1;
+	private static final int ISO_8859_1 = 2;
+	private static final int CHARSET = 3;
+
+	private static final Pattern ENCODING_PATTERN = Pattern
+			.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']");
+
+	private byte[] streamBuffer;
+	private InputStream in;
+	private ByteBuffer source;
+	private FileChannel channel;
+	private long channelPosition;
+	private boolean push;
+	private boolean endOfInput;
+	private long mappingSize;
+	private byte[] data;
+	private int dataPos;
+	private int dataLimit;
+	private long dataOffset;
+	private String encoding;
+	private int mode;
+	private CharsetDecoder decoder;
+	private boolean flushed;
+	private char[] pair;
+	private int pendingChar;
+
+	/**
+	 * Creates a decoder without any data. One of the reset methods must be
+	 * called before reading.
+	 */
+	XmlStreamDecoder() {
+		this.streamBuffer = new byte[BUFFER_SIZE];
+		this.mappingSize = MAPPING_SIZE;
+		this.pair = new char[2];
+		this.clear();
+	}
+
+	/**
+	 * Creates a decoder reading bytes from the given input stream.
+	 * 
+	 * @param in
+	 *            The input stream containing the XML data.
+	 */
+	XmlStreamDecoder(InputStream in) {
+		this();
+		this.reset(in);
+	}
+
+	/**
+	 * Creates a decoder reading bytes from the given buffer, starting at its
+	 * position up to its limit. The buffer is consumed by the decoder.
+	 * 
+	 * @param source
+	 *            The buffer containing the XML data.
+	 */
+	XmlStreamDecoder(ByteBuffer source) {
+		this();
+		this.reset(source);
+	}
+
+	/**
+	 * Creates a decoder reading bytes from the given file channel using memory
+	 * mapping.
+	 * 
+	 * @param channel
+	 *            The file channel containing the XML data.
+	 * 
+	 * @throws IOException
+	 *             If the channel position cannot be read.
+	 */
+	XmlStreamDecoder(FileChannel channel) throws IOException {
+		this(channel, MAPPING_SIZE);
+	}
+
+	/**
+	 * Creates a decoder reading bytes from the given file channel using
+	 * memory mapped windows of the given size.
+	 * 
+	 * @param channel
+	 *            The file channel containing the XML data.
+	 * 
+	 * @param mappingSize
+	 *            The size in bytes of each mapped window.
+	 * 
+	 * @throws IOException
+	 *             If the channel position cannot be read.
+	 */
+	XmlStreamDecoder(FileChannel channel, long mappingSize) throws IOException {
+		this();
+		this.mappingSize = mappingSize;
+		this.reset(channel);
+	}
+
+	/**
+	 * Prepares the decoder to read a new document from the given input
+	 * stream.
+	 * 
+	 * @param in
+	 *            The input stream containing the XML data.
+	 */
+	void reset(InputStream in) {
+		this.clear();
+		this.in = in;
+		this.data = this.streamBuffer;
+	}
+
+	/**
+	 * Prepares the decoder to read a new document from the given buffer.
+	 * 
+	 * @param source
+	 *            The buffer containing the XML data.
+	 */
+	void reset(ByteBuffer source) {
+		this.clear();
+		this.source = source;
+		if (source.hasArray()) {
+			// Heap buffers are decoded in place.
+			this.data = source.array();
+			this.dataPos = source.arrayOffset() + source.position();
+			this.dataLimit = source.arrayOffset() + source.limit();
+			this.dataOffset = -this.dataPos;
+			source.position(source.limit());
+		} else {
+			this.data = this.streamBuffer;
+		}
+	}
+
+	/**
+	 * Prepares the decoder to read a new document from the given file
+	 * channel, starting at its current position. The file is memory mapped
+	 * one window at a time so files larger than 2 GB can be read and only the
+	 * pages being decoded need to be resident.
+	 * 
+	 * @param channel
+	 *            The file channel containing the XML data.
+	 * 
+	 * @throws IOException
+	 *             If the channel position cannot be read.
+	 */
+	void reset(FileChannel channel) throws IOException {
+		this.clear();
+		this.channel = channel;
+		this.channelPosition = channel.position();
+	}
+
+	/**
+	 * Prepares the decoder to read a new document whose bytes are pushed with
+	 * the {@code feed} method. Reading the decoder throws a
+	 * {@link XmlTokenizer.NeedInputException} when every byte fed so far has
+	 * been decoded, until {@code endOfInput} is called.
+	 */
+	void resetPush() {
+		this.clear();
+		this.push = true;
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffer to the bytes to decode.
+	 * The buffer is consumed.
+	 * 
+	 * @param chunk
+	 *            The buffer containing the next bytes of the document.
+	 */
+	void feed(ByteBuffer chunk) {
+		int remaining = this.dataLimit - this.dataPos;
+		int required = remaining + chunk.remaining();
+		if (required > this.data.length) {
+			byte[] grown = new byte[Math.max(required, this.data.length * 2)];
+			System.arraycopy(this.data, this.dataPos, grown, 0, remaining);
+			this.data = grown;
+		} else {
+			System.arraycopy(this.data, this.dataPos, this.data, 0, remaining);
+		}
+		this.dataOffset += this.dataPos;
+		this.dataPos = 0;
+		this.dataLimit = required;
+		chunk.get(this.data, remaining, chunk.remaining());
+	}
+
+	/**
+	 * Tells the decoder that no more bytes will be fed.
+	 */
+	void endOfInput() {
+		this.endOfInput = true;
+	}
+
+	/**
+	 * Releases the references held on the last document.
+	 */
+	void clear() {
+		this.in = null;
+		this.source = null;
+		this.channel = null;
+		this.channelPosition = 0;
+		this.push = false;
+		this.endOfInput = false;
+		this.data = this.streamBuffer;
+		this.dataPos = 0;
+		this.dataLimit = 0;
+		this.dataOffset = 0;
+		this.encoding = null;
+		this.mode = 0;
+		this.decoder = null;
+		this.flushed = false;
+		this.pendingChar = -1;
+	}
+
+	/**
+	 * Gets the detected encoding.
+	 * 
+	 * @return the detected encoding or null if nothing has been read yet.
+	 */
+	String getEncoding() {
+		return this.encoding;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (this.encoding == null) {
+			this.detectEncoding();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (this.pendingChar >= 0) {
+			cbuf[off] = (char) this.pendingChar;
+			this.pendingChar = -1;
+			return 1;
+		}
+		if (len == 1) {
+			// Makes sure that a surrogate pair can always be decoded.
+			int count = this.read(this.pair, 0, 2);
+			if (count > 0) {
+				cbuf[off] = this.pair[0];
+				if (count == 2) {
+					this.pendingChar = this.pair[1];
+				}
+				return 1;
+			}
+			return count;
+		}
+		while (true) {
+			int count;
+			if (this.mode != CHARSET && this.dataPos == this.dataLimit
+					&& this.hasDirectData()) {
+				if (this.mode == UTF_8) {
+					count = this.decodeUtf8Direct(cbuf, off, len);
+				} else {
+					count = this.decodeLatin1Direct(cbuf, off, len);
+				}
+			} else if (this.mode == UTF_8) {
+				count = this.decodeUtf8(cbuf, off, len);
+			} else if (this.mode == ISO_8859_1) {
+				count = this.decodeLatin1(cbuf, off, len);
+			} else {
+				count = this.decodeCharset(cbuf, off, len, false);
+			}
+			if (count > 0) {
+				return count;
+			}
+			if (!this.fillData()) {
+				if (this.mode == CHARSET && !this.flushed) {
+					count = this.decodeCharset(cbuf, off, len, true);
+					if (count > 0) {
+						return count;
+					}
+				}
+				if (this.dataPos < this.dataLimit) {
+					throw this.malformed("Truncated byte sequence");
+				}
+				return -1;
+			}
+		}
+	}
+
+	private int decodeUtf8(char[] cbuf, int off, int len) throws IOException {
+		byte[] d = this.data;
+		int p = this.dataPos;
+		int l = this.dataLimit;
+		int out = off;
+		int outLimit = off + len;
+		while (out < outLimit && p < l) {
+			int b = d[p];
+			if (b >= 0) {
+				cbuf[out++] = (char) b;
+				p++;
+				continue;
+			}
+			int size;
+			int cp;
+			if ((b & 0xE0) == 0xC0) {
+				size = 2;
+				cp = b & 0x1F;
+			} else if ((b & 0xF0) == 0xE0) {
+				size = 3;
+				cp = b & 0x0F;
+			} else if ((b & 0xF8) == 0xF0) {
+				size = 4;
+				cp = b & 0x07;
+			} else {
+				this.dataPos = p;
+				throw this.malformed("Invalid UTF-8 byte sequence");
+			}
+			if (p + size > l || (size == 4 && out + 2 > outLimit)) {
+				// Wait for more bytes or more room in the output buffer.
+				break;
+			}
+			for (int i = 1; i < size; i++) {
+				int c = d[p + i];
+				if ((c & 0xC0) != 0x80) {
+					this.dataPos = p;
+					throw this.malformed("Invalid UTF-8 byte sequence");
+				}
+				cp = (cp << 6) | (c & 0x3F);
+			}
+			if ((size == 2 && cp < 0x80) || (size == 3 && cp < 0x800)
+					|| (size == 4 && cp < 0x10000)
+					|| cp > Character.MAX_CODE_POINT
+					|| (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+				this.dataPos = p;
+				throw this.malformed("Invalid UTF-8 byte sequence");
+			}
+			if (size == 4) {
+				cbuf[out++] = Character.highSurrogate(cp);
+				cbuf[out++] = Character.lowSurrogate(cp);
+			} else {
+				cbuf[out++] = (char) cp;
+			}
+			p += size;
+		}
+		this.dataPos = p;
+		return out - off;
+	}
+
+	/**
+	 * Tells if the next bytes can be decoded straight from a direct source
+	 * buffer, mapping the next window of the channel if needed.
+	 */
+	private boolean hasDirectData() throws IOException {
+		if (this.channel != null
+				&& (this.source == null || !this.source.hasRemaining())
+				&& this.channelPosition < this.channel.size()) {
+			this.mapNextWindow();
+		}
+		return this.source != null && !this.source.hasArray()
+				&& this.source.hasRemaining();
+	}
+
+	/**
+	 * Decodes UTF-8 bytes from the direct source buffer. A sequence split at
+	 * the end of the buffer is left to the heap path, which joins it with the
+	 * first bytes of the next window.
+	 */
+	private int decodeUtf8Direct(char[] cbuf, int off, int len)
+			throws IOException {
+		ByteBuffer s = this.source;
+		int start = s.position();
+		int p = start;
+		int l = s.limit();
+		int out = off;
+		int outLimit = off + len;
+		boolean bigEndian = s.order() == ByteOrder.BIG_ENDIAN;
+		while (out < outLimit && p < l) {
+			// ASCII runs are read eight bytes at a time.
+			while (out + 8 <= outLimit && p + 8 <= l) {
+				long word = s.getLong(p);
+				if ((word & 0x8080808080808080L) != 0) {
+					break;
+				}
+				if (!bigEndian) {
+					word = Long.reverseBytes(word);
+				}
+				cbuf[out] = (char) (word >>> 56);
+				cbuf[out + 1] = (char) ((word >>> 48) & 0x7F);
+				cbuf[out + 2] = (char) ((word >>> 40) & 0x7F);
+				cbuf[out + 3] = (char) ((word >>> 32) & 0x7F);
+				cbuf[out + 4] = (char) ((word >>> 24) & 0x7F);
+				cbuf[out + 5] = (char) ((word >>> 16) & 0x7F);
+				cbuf[out + 6] = (char) ((word >>> 8) & 0x7F);
+				cbuf[out + 7] = (char) (word & 0x7F);
+				out += 8;
+				p += 8;
+			}
+			if (out == outLimit || p == l) {
+				break;
+			}
+			int b = s.get(p);
+			if (b >= 0) {
+				cbuf[out++] = (char) b;
+				p++;
+				continue;
+			}
+			int size;
+			int cp;
+			if ((b & 0xE0) == 0xC0) {
+				size = 2;
+				cp = b & 0x1F;
+			} else if ((b & 0xF0) == 0xE0) {
+				size = 3;
+				cp = b & 0x0F;
+			} else if ((b & 0xF8) == 0xF0) {
+				size = 4;
+				cp = b & 0x07;
+			} else {
+				throw this.malformedDirect(start, p);
+			}
+			if (p + size > l || (size == 4 && out + 2 > outLimit)) {
+				break;
+			}
+			for (int i = 1; i < size; i++) {
+				int c = s.get(p + i);
+				if ((c & 0xC0) != 0x80) {
+					throw this.malformedDirect(start, p);
+				}
+				cp = (cp << 6) | (c & 0x3F);
+			}
+			if ((size == 2 && cp < 0x80) || (size == 3 && cp < 0x800)
+					|| (size == 4 && cp < 0x10000)
+					|| cp > Character.MAX_CODE_POINT
+					|| (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+				throw this.malformedDirect(start, p);
+			}
+			if (size == 4) {
+				cbuf[out++] = Character.highSurrogate(cp);
+				cbuf[out++] = Character.lowSurrogate(cp);
+			} else {
+				cbuf[out++] = (char) cp;
+			}
+			p += size;
+		}
+		s.position(p);
+		// Keeps the offset of the next byte right for the error messages.
+		this.dataOffset += p - start;
+		return out - off;
+	}
+
+	private IOException malformedDirect(int start, int position) {
+		this.source.position(position);
+		this.dataOffset += position - start;
+		return this.malformed("Invalid UTF-8 byte sequence");
+	}
+
+	private int decodeLatin1Direct(char[] cbuf, int off, int len) {
+		ByteBuffer s = this.source;
+		int p = s.position();
+		int count = Math.min(len, s.limit() - p);
+		for (int i = 0; i < count; i++) {
+			cbuf[off + i] = (char) (s.get(p + i) & 0xFF);
+		}
+		s.position(p + count);
+		this.dataOffset += count;
+		return count;
+	}
+
+	private int decodeLatin1(char[] cbuf, int off, int len) {
+		int count = Math.min(len, this.dataLimit - this.dataPos);
+		byte[] d = this.data;
+		int p = this.dataPos;
+		for (int i = 0; i < count; i++) {
+			cbuf[off + i] = (char) (d[p + i] & 0xFF);
+		}
+		this.dataPos += count;
+		return count;
+	}
+
+	private int decodeCharset(char[] cbuf, int off, int len, boolean endOfInput)
+			throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(this.data, this.dataPos, this.dataLimit
+				- this.dataPos);
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		CoderResult result = this.decoder.decode(in, out, endOfInput);
+		if (endOfInput && result.isUnderflow()) {
+			result = this.decoder.flush(out);
+			this.flushed = result.isUnderflow();
+		}
+		this.dataPos = in.position();
+		if (result.isError()) {
+			throw this.malformed("Invalid " + this.encoding + " byte sequence");
+		}
+		return out.position() - off;
+	}
+
+	private void detectEncoding() throws IOException {
+		this.ensureData(4);
+		int available = this.dataLimit - this.dataPos;
+		int b0 = available > 0 ? this.data[this.dataPos] & 0xFF : -1;
+		int b1 = available > 1 ? this.data[this.dataPos + 1] & 0xFF : -1;
+		int b2 = available > 2 ? this.data[this.dataPos + 2] & 0xFF : -1;
+		int b3 = available > 3 ? this.data[this.dataPos + 3] & 0xFF : -1;
+		if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+			this.dataPos += 3;
+			this.setEncoding("UTF-8");
+		} else if (b0 == 0xFE && b1 == 0xFF) {
+			this.dataPos += 2;
+			this.setEncoding("UTF-16BE");
+		} else if (b0 == 0xFF && b1 == 0xFE) {
+			this.dataPos += 2;
+			this.setEncoding("UTF-16LE");
+		} else if (b0 == 0x00 && b1 == 0x3C && b2 == 0x00 && b3 == 0x3F) {
+			this.setEncoding("UTF-16BE");
+		} else if (b0 == 0x3C && b1 == 0x00 && b2 == 0x3F && b3 == 0x00) {
+			this.setEncoding("UTF-16LE");
+		} else if (b0 == '<' && b1 == '?' && b2 == 'x' && b3 == 'm') {
+			String declared = this.readDeclaredEncoding();
+			this.setEncoding(declared == null ? "UTF-8" : declared);
+		} else {
+			this.setEncoding("UTF-8");
+		}
+	}
+
+	private String readDeclaredEncoding() throws IOException {
+		// The XML declaration is made of ASCII characters in every ASCII
+		// compatible encoding.
+		StringBuilder declaration = new StringBuilder();
+		for (int i = 0; i < MAX_DECLARATION_SIZE; i++) {
+			this.ensureData(i + 1);
+			if (this.dataPos + i >= this.dataLimit) {
+				break;
+			}
+			char c = (char) (this.data[this.dataPos + i] & 0xFF);
+			declaration.append(c);
+			if (c == '>') {
+				break;
+			}
+		}
+		Matcher matcher = ENCODING_PATTERN.matcher(declaration);
+		if (matcher.find()) {
+			return matcher.group(1);
+		}
+		return null;
+	}
+
+	private void setEncoding(String name) throws IOException {
+		Charset charset;
+		try {
+			charset = Charset.forName(name);
+		} catch (IllegalArgumentException e) {
+			throw new UnsupportedEncodingException(name);
+		}
+		this.encoding = charset.name();
+		if (this.encoding.equals("UTF-8") || this.encoding.equals("US-ASCII")) {
+			this.mode = UTF_8;
+		} else if (this.encoding.equals("ISO-8859-1")) {
+			this.mode = ISO_8859_1;
+		} else {
+			this.mode = CHARSET;
+			this.decoder = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+		}
+	}
+
+	private void ensureData(int count) throws IOException {
+		while (this.dataLimit - this.dataPos < count) {
+			if (!this.fillData()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads more bytes after the remaining undecoded ones.
+	 * 
+	 * @return false if the end of the input is reached.
+	 */
+	private boolean fillData() throws IOException {
+		if (this.push) {
+			if (this.endOfInput) {
+				return false;
+			}
+			throw XmlTokenizer.NeedInputException.INSTANCE;
+		}
+		if (this.in == null && this.channel == null
+				&& (this.source == null || this.source.hasArray())) {
+			return false;
+		}
+		int remaining = this.dataLimit - this.dataPos;
+		if (remaining == this.data.length) {
+			return true;
+		}
+		System.arraycopy(this.data, this.dataPos, this.data, 0, remaining);
+		this.dataOffset += this.dataPos;
+		this.dataPos = 0;
+		this.dataLimit = remaining;
+		int count;
+		if (this.in != null) {
+			count = this.in.read(this.data, remaining, this.data.length
+					- remaining);
+		} else {
+			if (this.channel != null
+					&& (this.source == null || !this.source.hasRemaining())) {
+				this.mapNextWindow();
+			}
+			count = Math.min(this.source.remaining(), this.data.length
+					- remaining);
+			if (count == 0) {
+				count = -1;
+			} else {
+				this.source.get(this.data, remaining, count);
+			}
+		}
+		if (count < 0) {
+			return false;
+		}
+		this.dataLimit += count;
+		return true;
+	}
+
+	private void mapNextWindow() throws IOException {
+		long size = Math.min(this.mappingSize, this.channel.size()
+				- this.channelPosition);
+		if (size <= 0) {
+			this.source = ByteBuffer.allocate(0);
+			return;
+		}
+		this.source = this.channel.map(FileChannel.MapMode.READ_ONLY,
+				this.channelPosition, size);
+		this.channelPosition += size;
+	}
+
+	private IOException malformed(String message) {
+		return new IOException(message + " at byte "
+				+ (this.dataOffset + this.dataPos));
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.in != null) {
+			this.in.close();
+		}
+		if (this.channel != null) {
+			this.channel.close();
+		}
+		this.clear();
+	}
+}
@@ -0,0 +1,127 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+/**
+ * <p>
+ * Returns canonical String instances for the element and attribute names read
+ * by the tokenizer. A document with a million &lt;row&gt; elements then
+ * references a single "row" String, and comparing names found in the same
+ * table succeeds on the reference check of {@code String.equals}.
+ * </p>
+ * 
+ * <p>
+ * The table is bounded: once it holds MAX_SIZE names, or for names longer than
+ * MAX_NAME_LENGTH, new String instances are returned without being added.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlSymbolTable {
+
+	private static final int MAX_SIZE = 4096;
+	private static final int MAX_NAME_LENGTH = 128;
+
+	private String[] symbols;
+	private int[] hashes;
+	private int size;
+
+	/**
+	 * Creates an empty symbol table.
+	 */
+	XmlSymbolTable() {
+		this.symbols = new String[256];
+		this.hashes = new int[256];
+		this.size = 0;
+	}
+
+	/**
+	 * Gets the canonical String made of the given characters.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the name.
+	 * 
+	 * @param offset
+	 *            The offset of the first character of the name.
+	 * 
+	 * @param length
+	 *            The length of the name.
+	 * 
+	 * @return the canonical String for the given name.
+	 */
+	String get(char[] buffer, int offset, int length) {
+		if (length > MAX_NAME_LENGTH) {
+			return new String(buffer, offset, length);
+		}
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + buffer[offset + i];
+		}
+		int mask = this.symbols.length - 1;
+		int index = hash & mask;
+		String symbol = this.symbols[index];
+		while (symbol != null) {
+			if (this.hashes[index] == hash
+					&& equals(symbol, buffer, offset, length)) {
+				return symbol;
+			}
+			index = (index + 1) & mask;
+			symbol = this.symbols[index];
+		}
+		symbol = new String(buffer, offset, length);
+		if (this.size < MAX_SIZE) {
+			this.symbols[index] = symbol;
+			this.hashes[index] = hash;
+			this.size++;
+			if (this.size * 2 > this.symbols.length) {
+				this.rehash();
+			}
+		}
+		return symbol;
+	}
+
+	private static boolean equals(String symbol, char[] buffer, int offset,
+			int length) {
+		if (symbol.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (symbol.charAt(i) != buffer[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash() {
+		String[] oldSymbols = this.symbols;
+		int[] oldHashes = this.hashes;
+		this.symbols = new String[oldSymbols.length * 2];
+		this.hashes = new int[oldSymbols.length * 2];
+		int mask = this.symbols.length - 1;
+		for (int i = 0; i < oldSymbols.length; i++) {
+			if (oldSymbols[i] != null) {
+				int index = oldHashes[i] & mask;
+				while (this.symbols[index] != null) {
+					index = (index + 1) & mask;
+				}
+				this.symbols[index] = oldSymbols[i];
+				this.hashes[index] = oldHashes[i];
+			}
+		}
+	}
+}
@@ -16,22 +16,28 @@
 package org.formix.dsx;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
 
 import org.apache.commons.lang.NullArgumentException;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.formix.dsx.utils.SUID;
 
 /**
  * Represents a text within the XML tree.
  * 
  * @author jpgravel
- *
+ * 
  */
 public class XmlText implements XmlContent {
 
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
 	private long id;
-	private StringBuilder text;
+
+	// The text is kept as a byte[] when all its characters are Latin-1 and as
+	// a String otherwise. It becomes a StringBuilder once appended to.
+	private Object text;
 
 	/**
 	 * Creates an empty XmlText instance.
@@ -50,10 +56,64 @@ public class XmlText implements XmlContent {
 		if (text == null) {
 			throw new NullArgumentException("text");
 		}
-		this.text = new StringBuilder(text);
+		this.text = compact(text);
+		this.id = -1;
+	}
+
+	/**
+	 * Creates an XmlText instance with the given characters.
+	 * 
+	 * @param chars
+	 *            The buffer containing the text.
+	 * 
+	 * @param offset
+	 *            The offset of the first character of the text.
+	 * 
+	 * @param length
+	 *            The number of characters of the text.
+	 */
+	XmlText(char[] chars, int offset, int length) {
+		this.text = compact(chars, offset, length);
+		this.id = -1;
+	}
+
+	/**
+	 * Creates an XmlText instance with the given Latin-1 characters, one per
+	 * byte. The array is kept by the XmlText and must not be modified.
+	 * 
+	 * @param latin1
+	 *            The characters of the text.
+	 */
+	XmlText(byte[] latin1) {
+		this.text = latin1;
 		this.id = -1;
 	}
 
+	private static Object compact(String text) {
+		int length = text.length();
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c > 0xFF) {
+				return text;
+			}
+			bytes[i] = (byte) c;
+		}
+		return bytes;
+	}
+
+	private static Object compact(char[] chars, int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			char c = chars[offset + i];
+			if (c > 0xFF) {
+				return new String(chars, offset, length);
+			}
+			bytes[i] = (byte) c;
+		}
+		return bytes;
+	}
+
 	@Override
 	public long getId() {
 		if (this.id == -1) {
@@ -68,9 +128,26 @@ public class XmlText implements XmlContent {
 	 * @return the text value;
 	 */
 	public String getText() {
+		if (this.text instanceof byte[]) {
+			return new String((byte[]) this.text, ISO_8859_1);
+		}
 		return this.text.toString();
 	}
 
+	/**
+	 * Gets the characters of the text when they are all Latin-1 and kept one
+	 * per byte. The returned array must not be modified.
+	 * 
+	 * @return the characters of the text or null if the text is not kept as
+	 *         Latin-1 bytes.
+	 */
+	byte[] getLatin1() {
+		if (this.text instanceof byte[]) {
+			return (byte[]) this.text;
+		}
+		return null;
+	}
+
 	/**
 	 * Sets the text value.
 	 * 
@@ -78,7 +155,10 @@ public class XmlText implements XmlContent {
 	 *            the text value.
 	 */
 	public void setText(String text) {
-		this.text = new StringBuilder(text);
+		if (text == null) {
+			throw new NullArgumentException("text");
+		}
+		this.text = compact(text);
 	}
 
 	/**
@@ -88,17 +168,105 @@ public class XmlText implements XmlContent {
 	 *            the string to append.
 	 */
 	public void append(String value) {
-		this.text.append(value);
+		if (!(this.text instanceof StringBuilder)) {
+			this.text = new StringBuilder(this.getText());
+		}
+		((StringBuilder) this.text).append(value);
+	}
+
+	/**
+	 * Tells if the text only contains white spaces, as defined by
+	 * {@link String#trim()}.
+	 * 
+	 * @return true if the text is empty or only contains white spaces.
+	 */
+	boolean isBlank() {
+		if (this.text instanceof byte[]) {
+			for (byte b : (byte[]) this.text) {
+				if ((b & 0xFF) > ' ') {
+					return false;
+				}
+			}
+			return true;
+		}
+		CharSequence chars = (CharSequence) this.text;
+		for (int i = 0; i < chars.length(); i++) {
+			if (chars.charAt(i) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the given text with the syntax of this content, in place of the
+	 * content's own text.
+	 * 
+	 * @param writer
+	 *            The writer to write to.
+	 * 
+	 * @param text
+	 *            The text to write.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer fails.
+	 */
+	void writeText(Writer writer, String text) throws IOException {
+		XmlEscaper.escape(text, writer);
+	}
+
+	/**
+	 * Writes the characters of the text, unescaped, without creating a
+	 * String.
+	 * 
+	 * @param writer
+	 *            The writer to write to.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the writer fails.
+	 */
+	void writeCharacters(Writer writer) throws IOException {
+		if (this.text instanceof String) {
+			writer.write((String) this.text);
+			return;
+		}
+		int length = this.text instanceof byte[] ? ((byte[]) this.text).length
+				: ((CharSequence) this.text).length();
+		char[] buffer = new char[Math.min(length, 1024)];
+		for (int pos = 0; pos < length; pos += buffer.length) {
+			int count = Math.min(buffer.length, length - pos);
+			if (this.text instanceof byte[]) {
+				byte[] bytes = (byte[]) this.text;
+				for (int i = 0; i < count; i++) {
+					buffer[i] = (char) (bytes[pos + i] & 0xFF);
+				}
+			} else {
+				XmlEscaper.getChars((CharSequence) this.text, pos,
+						pos + count, buffer);
+			}
+			writer.write(buffer, 0, count);
+		}
 	}
 
 	@Override
 	public String toXml() {
-		return StringEscapeUtils.escapeXml(this.getText());
+		StringWriter sw = new StringWriter();
+		try {
+			this.write(sw);
+		} catch (IOException e) {
+			// A StringWriter never fails.
+			throw new IllegalStateException(e);
+		}
+		return sw.toString();
 	}
 
 	@Override
 	public void write(Writer writer) throws IOException {
-		writer.append(this.toXml());
+		if (this.text instanceof byte[]) {
+			XmlEscaper.escapeLatin1((byte[]) this.text, writer);
+		} else {
+			XmlEscaper.escape((CharSequence) this.text, writer);
+		}
 	}
 
 	@Override
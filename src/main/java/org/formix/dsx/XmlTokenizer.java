@@ -0,0 +1,1087 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A non validating, namespace unaware XML tokenizer. The tokenizer scans a
+ * character buffer and returns one token at a time through the {@code next}
+ * method. The current token data is then available through the getters until
+ * {@code next} is called again.
+ * </p>
+ * 
+ * <p>
+ * The XML declaration, processing instructions and the document type
+ * declaration are skipped. The internal DTD subset is ignored: only the five
+ * predefined entities and character references are replaced. Other entity
+ * references are dropped if the document declares a document type and are
+ * considered an error otherwise. Line ends are normalized to '\n'.
+ * </p>
+ * 
+ * <p>
+ * Text and CDATA sections may be returned in many consecutive chunks when they
+ * are larger than the internal buffer.
+ * </p>
+ * 
+ * <p>
+ * Element and attribute names are taken from a symbol table kept for the
+ * lifetime of the tokenizer: identical names share the same String instance
+ * within a document and across the documents read by a reused tokenizer.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlTokenizer implements XmlStartTag {
+
+	static final int START_ELEMENT = 1;
+	static final int END_ELEMENT = 2;
+	static final int TEXT = 3;
+	static final int CDATA = 4;
+	static final int COMMENT = 5;
+	static final int END_DOCUMENT = 6;
+	static final int NEED_INPUT = 7;
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int TEXT_CHUNK_SIZE = 8192;
+	private static final int MAX_RETAINED_BUFFER_SIZE = 65536;
+
+	private Reader input;
+	private XmlSymbolTable symbols;
+	private char[] readerBuffer;
+	private char[] buf;
+	private int pos;
+	private int limit;
+	private int tokenStart;
+	private long bufferOffset;
+
+	private int depth;
+	private String[] openNames;
+	private boolean rootStarted;
+	private boolean docTypeDeclared;
+	private boolean fragment;
+	private boolean pendingEndElement;
+	private boolean inCDATA;
+
+	private boolean push;
+	private long mark;
+	private boolean markInCDATA;
+	private boolean markDocTypeDeclared;
+
+	private String name;
+	private int attributeCount;
+	private String[] attributes;
+	private char[] text;
+	private int textLength;
+
+	/**
+	 * Creates a tokenizer without any data. One of the reset methods must be
+	 * called before reading tokens.
+	 */
+	XmlTokenizer() {
+		this.readerBuffer = new char[BUFFER_SIZE];
+		this.symbols = new XmlSymbolTable();
+		this.openNames = new String[16];
+		this.attributes = new String[16];
+		this.text = new char[256];
+		this.reset(this.readerBuffer, 0, 0);
+	}
+
+	/**
+	 * Creates a tokenizer reading its data from the given reader.
+	 * 
+	 * @param input
+	 *            The reader containing the XML data.
+	 */
+	XmlTokenizer(Reader input) {
+		this();
+		this.reset(input);
+	}
+
+	/**
+	 * Creates a tokenizer scanning the given character buffer directly. The
+	 * buffer is never modified.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data.
+	 * 
+	 * @param offset
+	 *            The offset of the first character to scan.
+	 * 
+	 * @param length
+	 *            The number of characters to scan.
+	 */
+	XmlTokenizer(char[] buffer, int offset, int length) {
+		this();
+		this.reset(buffer, offset, length);
+	}
+
+	/**
+	 * Prepares the tokenizer to read a new document from the given reader.
+	 * The internal buffers are kept.
+	 * 
+	 * @param input
+	 *            The reader containing the XML data.
+	 */
+	void reset(Reader input) {
+		this.reset(this.readerBuffer, 0, 0);
+		this.input = input;
+	}
+
+	/**
+	 * Prepares the tokenizer to read a new document from the given reader in
+	 * push mode. The reader throws a {@link NeedInputException} when the data
+	 * received so far is exhausted. The token being read is then rolled back
+	 * and {@code next} returns NEED_INPUT. It can be called again once more
+	 * data is available to the reader.
+	 * 
+	 * @param input
+	 *            The reader containing the XML data received so far.
+	 */
+	void resetPush(Reader input) {
+		this.reset(input);
+		this.push = true;
+	}
+
+	/**
+	 * Prepares the tokenizer to scan a new document from the given buffer.
+	 * The internal buffers are kept.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data.
+	 * 
+	 * @param offset
+	 *            The offset of the first character to scan.
+	 * 
+	 * @param length
+	 *            The number of characters to scan.
+	 */
+	void reset(char[] buffer, int offset, int length) {
+		this.input = null;
+		this.buf = buffer;
+		this.pos = offset;
+		this.limit = offset + length;
+		this.tokenStart = offset;
+		this.bufferOffset = -offset;
+		this.depth = 0;
+		this.rootStarted = false;
+		this.docTypeDeclared = false;
+		this.fragment = false;
+		this.pendingEndElement = false;
+		this.inCDATA = false;
+		this.push = false;
+		this.mark = 0;
+		this.name = null;
+		this.attributeCount = 0;
+		this.textLength = 0;
+		Arrays.fill(this.openNames, null);
+		Arrays.fill(this.attributes, null);
+		if (this.text.length > MAX_RETAINED_BUFFER_SIZE) {
+			this.text = new char[256];
+		}
+	}
+
+	/**
+	 * Prepares the tokenizer to scan a fragment of a document: the content of
+	 * an element whose start tag has already been read, up to but excluding
+	 * its end tag. The fragment ends without error when the data is
+	 * exhausted while the parent element is still open. Positions are
+	 * reported from the start of the buffer rather than from the offset.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the XML data.
+	 * 
+	 * @param offset
+	 *            The offset of the first character of the fragment.
+	 * 
+	 * @param length
+	 *            The number of characters of the fragment.
+	 * 
+	 * @param parentName
+	 *            The name of the element containing the fragment.
+	 * 
+	 * @param docTypeDeclared
+	 *            true if the document declares a document type.
+	 */
+	void reset(char[] buffer, int offset, int length, String parentName,
+			boolean docTypeDeclared) {
+		this.reset(buffer, offset, length);
+		this.bufferOffset = 0;
+		this.openNames[0] = parentName;
+		this.depth = 1;
+		this.rootStarted = true;
+		this.docTypeDeclared = docTypeDeclared;
+		this.fragment = true;
+	}
+
+	/**
+	 * Releases the references held on the data of the last document.
+	 */
+	void clear() {
+		this.reset(this.readerBuffer, 0, 0);
+	}
+
+	/**
+	 * Gets the name of the current START_ELEMENT or END_ELEMENT token.
+	 * 
+	 * @return the name of the current element.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Gets the name of the open element at the given level. The root element
+	 * is at level 0.
+	 * 
+	 * @param level
+	 *            The level of the open element, smaller than the current
+	 *            depth.
+	 * 
+	 * @return the name of the open element at the given level.
+	 */
+	public String getName(int level) {
+		return this.openNames[level];
+	}
+
+	/**
+	 * Gets the number of elements currently open. The depth includes the
+	 * element of a START_ELEMENT token and excludes the element of an
+	 * END_ELEMENT token.
+	 * 
+	 * @return the number of elements currently open.
+	 */
+	public int getDepth() {
+		return this.depth;
+	}
+
+	public int getAttributeCount() {
+		return this.attributeCount;
+	}
+
+	/**
+	 * Gets the internal array holding the attributes of the current
+	 * START_ELEMENT token: the name of attribute i is at index 2i and its
+	 * value at index 2i + 1. The array is overwritten by the next call to
+	 * {@code next}.
+	 * 
+	 * @return the internal attribute array.
+	 */
+	String[] getAttributes() {
+		return this.attributes;
+	}
+
+	public String getAttributeName(int index) {
+		return this.attributes[index * 2];
+	}
+
+	public String getAttributeValue(int index) {
+		return this.attributes[index * 2 + 1];
+	}
+
+	/**
+	 * Gets the internal buffer holding the characters of the current TEXT,
+	 * CDATA or COMMENT token. The buffer content starts at index 0 and is
+	 * overwritten by the next call to {@code next}.
+	 * 
+	 * @return the internal text buffer.
+	 */
+	char[] getTextCharacters() {
+		return this.text;
+	}
+
+	int getTextLength() {
+		return this.textLength;
+	}
+
+	String getText() {
+		return new String(this.text, 0, this.textLength);
+	}
+
+	/**
+	 * Tells if a document type declaration has been read.
+	 * 
+	 * @return true if the document declares a document type.
+	 */
+	boolean isDocTypeDeclared() {
+		return this.docTypeDeclared;
+	}
+
+	/**
+	 * Gets the position of the tokenizer from the start of the data.
+	 * 
+	 * @return the number of characters consumed so far.
+	 */
+	long getPosition() {
+		return this.bufferOffset + this.pos;
+	}
+
+	/**
+	 * Reads the next token.
+	 * 
+	 * @return The type of the token read, or NEED_INPUT if a push tokenizer
+	 *         needs more data to complete the token.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the underlying reader fails.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the XML is not well formed.
+	 */
+	int next() throws IOException, XmlException {
+		if (!this.push) {
+			return this.nextToken();
+		}
+		this.mark = this.bufferOffset + this.pos;
+		this.markInCDATA = this.inCDATA;
+		this.markDocTypeDeclared = this.docTypeDeclared;
+		try {
+			return this.nextToken();
+		} catch (NeedInputException e) {
+			// Everything read since the mark is kept in the buffer.
+			this.pos = (int) (this.mark - this.bufferOffset);
+			this.tokenStart = this.pos;
+			this.inCDATA = this.markInCDATA;
+			this.docTypeDeclared = this.markDocTypeDeclared;
+			return NEED_INPUT;
+		}
+	}
+
+	private int nextToken() throws IOException, XmlException {
+		if (this.pendingEndElement) {
+			this.pendingEndElement = false;
+			return this.endElement();
+		}
+		if (this.inCDATA) {
+			return this.readCDATA();
+		}
+		while (true) {
+			this.tokenStart = this.pos;
+			if (this.pos >= this.limit && !this.fill()) {
+				return this.endOfInput();
+			}
+			char c = this.buf[this.pos];
+			if (c != '<') {
+				if (this.depth > 0) {
+					return this.readText();
+				}
+				if (!isWhiteSpace(c) && c != '\uFEFF') {
+					throw this.error("Content is not allowed outside of the root element");
+				}
+				this.pos++;
+				continue;
+			}
+			if (!this.ensure(2)) {
+				throw this.error("Unexpected end of document");
+			}
+			c = this.buf[this.pos + 1];
+			if (c == '/') {
+				return this.readEndElement();
+			} else if (c == '?') {
+				this.skipProcessingInstruction();
+			} else if (c == '!') {
+				if (this.startsWith("<!--")) {
+					this.readComment();
+					if (this.depth > 0) {
+						return COMMENT;
+					}
+				} else if (this.startsWith("<![CDATA[")) {
+					if (this.depth == 0) {
+						throw this.error("CDATA is not allowed outside of the root element");
+					}
+					this.pos += 9;
+					this.inCDATA = true;
+					return this.readCDATA();
+				} else if (this.startsWith("<!DOCTYPE")) {
+					this.skipDocType();
+				} else {
+					throw this.error("Invalid markup declaration");
+				}
+			} else {
+				return this.readStartElement();
+			}
+		}
+	}
+
+	/**
+	 * Skips the content and the end tag of the element of the current
+	 * START_ELEMENT token. No token is produced and no string is created for
+	 * the skipped content. Comments, CDATA sections, processing instructions
+	 * and quoted attribute values are skipped as a whole. The skipped markup
+	 * is only checked for balanced tags: the names of the skipped end tags
+	 * are not verified.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the underlying reader fails.
+	 * 
+	 * @throws XmlException
+	 *             Thrown if the end of the document is reached before the end
+	 *             of the element.
+	 */
+	void skipElement() throws IOException, XmlException {
+		if (this.pendingEndElement) {
+			this.pendingEndElement = false;
+			this.endElement();
+			return;
+		}
+		int level = 1;
+		while (true) {
+			this.tokenStart = this.pos;
+			if (this.pos >= this.limit && !this.fill()) {
+				throw this.error("The element type \""
+						+ this.openNames[this.depth - 1]
+						+ "\" is not terminated at the end of the document");
+			}
+			if (this.buf[this.pos] != '<') {
+				this.pos++;
+				while (this.pos < this.limit && this.buf[this.pos] != '<') {
+					this.pos++;
+				}
+				continue;
+			}
+			if (!this.ensure(2)) {
+				throw this.error("Unexpected end of document");
+			}
+			char c = this.buf[this.pos + 1];
+			if (c == '/') {
+				this.pos += 2;
+				this.skipTag();
+				level--;
+				if (level == 0) {
+					this.endElement();
+					return;
+				}
+			} else if (c == '?') {
+				this.skipProcessingInstruction();
+			} else if (c == '!') {
+				if (this.startsWith("<!--")) {
+					this.pos += 4;
+					this.skipUntil("-->", "The comment is not terminated");
+				} else if (this.startsWith("<![CDATA[")) {
+					this.pos += 9;
+					this.skipUntil("]]>", "The CDATA section is not terminated");
+				} else {
+					throw this.error("Invalid markup declaration");
+				}
+			} else {
+				this.pos++;
+				if (this.skipTag()) {
+					level++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Skips the remainder of a tag, up to and including the closing '>'.
+	 * 
+	 * @return true if the tag is a start tag of a non empty element.
+	 */
+	private boolean skipTag() throws IOException, XmlException {
+		char previous = 0;
+		while (true) {
+			this.tokenStart = this.pos;
+			if (!this.ensure(1)) {
+				throw this.error("Unexpected end of document");
+			}
+			char c = this.buf[this.pos];
+			if (c == '"' || c == '\'') {
+				this.skipQuoted(c);
+			} else {
+				this.pos++;
+				if (c == '>') {
+					return previous != '/';
+				}
+			}
+			previous = c;
+		}
+	}
+
+	private void skipUntil(String terminator, String message)
+			throws IOException, XmlException {
+		char first = terminator.charAt(0);
+		while (true) {
+			this.tokenStart = this.pos;
+			if (!this.ensure(terminator.length())) {
+				throw this.error(message);
+			}
+			if (this.buf[this.pos] == first
+					&& this.regionEquals(this.pos, terminator.length(),
+							terminator)) {
+				this.pos += terminator.length();
+				return;
+			}
+			this.pos++;
+		}
+	}
+
+	private int endOfInput() throws XmlException {
+		if (this.fragment && this.depth == 1) {
+			return END_DOCUMENT;
+		}
+		if (this.depth > 0) {
+			throw this.error("The element type \""
+					+ this.openNames[this.depth - 1]
+					+ "\" is not terminated at the end of the document");
+		}
+		if (!this.rootStarted) {
+			throw this.error("Premature end of file");
+		}
+		return END_DOCUMENT;
+	}
+
+	private int readStartElement() throws IOException, XmlException {
+		if (this.rootStarted && this.depth == 0) {
+			throw this.error("Only one root element is allowed");
+		}
+		this.pos++;
+		this.name = this.readName();
+		this.attributeCount = 0;
+		while (true) {
+			boolean spaced = this.skipWhiteSpaces();
+			if (!this.ensure(1)) {
+				throw this.error("Unexpected end of document");
+			}
+			char c = this.buf[this.pos];
+			if (c == '>') {
+				this.pos++;
+				break;
+			}
+			if (c == '/') {
+				if (!this.ensure(2) || this.buf[this.pos + 1] != '>') {
+					throw this.error("'>' expected");
+				}
+				this.pos += 2;
+				this.pendingEndElement = true;
+				break;
+			}
+			if (!spaced) {
+				throw this.error("White space expected before attribute");
+			}
+			String attributeName = this.readName();
+			this.skipWhiteSpaces();
+			this.expect('=');
+			this.skipWhiteSpaces();
+			String attributeValue = this.readAttributeValue();
+			this.addAttribute(attributeName, attributeValue);
+		}
+		if (this.depth == this.openNames.length) {
+			this.openNames = Arrays.copyOf(this.openNames, this.depth * 2);
+		}
+		this.openNames[this.depth++] = this.name;
+		this.rootStarted = true;
+		return START_ELEMENT;
+	}
+
+	private void addAttribute(String attributeName, String attributeValue)
+			throws XmlException {
+		int index = this.attributeCount * 2;
+		for (int i = 0; i < index; i += 2) {
+			if (this.attributes[i].equals(attributeName)) {
+				throw this.error("Attribute \"" + attributeName
+						+ "\" was already specified for element \""
+						+ this.name + "\"");
+			}
+		}
+		if (index == this.attributes.length) {
+			this.attributes = Arrays.copyOf(this.attributes, index * 2);
+		}
+		this.attributes[index] = attributeName;
+		this.attributes[index + 1] = attributeValue;
+		this.attributeCount++;
+	}
+
+	private int readEndElement() throws IOException, XmlException {
+		if (this.depth == 0) {
+			throw this.error("Unexpected end tag");
+		}
+		this.pos += 2;
+		String expected = this.openNames[this.depth - 1];
+		int start = this.scanName();
+		int offset = this.tokenStart + start;
+		int length = this.pos - offset;
+		boolean matches = length == expected.length();
+		for (int i = 0; matches && i < length; i++) {
+			matches = this.buf[offset + i] == expected.charAt(i);
+		}
+		if (!matches) {
+			throw this.error("The element type \"" + expected
+					+ "\" must be terminated by the matching end-tag \"</"
+					+ expected + ">\"");
+		}
+		this.skipWhiteSpaces();
+		this.expect('>');
+		return this.endElement();
+	}
+
+	private int endElement() {
+		this.depth--;
+		this.name = this.openNames[this.depth];
+		this.openNames[this.depth] = null;
+		return END_ELEMENT;
+	}
+
+	private int readText() throws IOException, XmlException {
+		this.textLength = 0;
+		while (true) {
+			this.tokenStart = this.pos;
+			if (this.pos >= this.limit) {
+				if (this.textLength >= TEXT_CHUNK_SIZE || !this.fillChunk()) {
+					return TEXT;
+				}
+			}
+			char c = this.buf[this.pos];
+			if (c == '<') {
+				return TEXT;
+			} else if (c == '&') {
+				this.readReference();
+			} else if (c == '\r') {
+				this.readCarriageReturn('\n');
+			} else {
+				int start = this.pos;
+				while (this.pos < this.limit) {
+					c = this.buf[this.pos];
+					if (c == '<' || c == '&' || c == '\r') {
+						break;
+					}
+					this.pos++;
+				}
+				this.append(this.buf, start, this.pos - start);
+			}
+		}
+	}
+
+	private int readCDATA() throws IOException, XmlException {
+		this.textLength = 0;
+		while (true) {
+			this.tokenStart = this.pos;
+			if (this.limit - this.pos < 3
+					&& (this.textLength >= TEXT_CHUNK_SIZE || this.push
+							&& this.textLength > 0 && !this.fillChunk())) {
+				return CDATA;
+			}
+			if (!this.ensure(3)) {
+				throw this.error("The CDATA section is not terminated");
+			}
+			char c = this.buf[this.pos];
+			if (c == ']' && this.buf[this.pos + 1] == ']'
+					&& this.buf[this.pos + 2] == '>') {
+				this.pos += 3;
+				this.inCDATA = false;
+				return CDATA;
+			} else if (c == '\r') {
+				this.readCarriageReturn('\n');
+			} else {
+				this.scanUntil(']');
+			}
+		}
+	}
+
+	private void readComment() throws IOException, XmlException {
+		this.pos += 4;
+		this.textLength = 0;
+		while (true) {
+			this.tokenStart = this.pos;
+			if (!this.ensure(3)) {
+				throw this.error("The comment is not terminated");
+			}
+			char c = this.buf[this.pos];
+			if (c == '-' && this.buf[this.pos + 1] == '-'
+					&& this.buf[this.pos + 2] == '>') {
+				this.pos += 3;
+				return;
+			} else if (c == '\r') {
+				this.readCarriageReturn('\n');
+			} else {
+				this.scanUntil('-');
+			}
+		}
+	}
+
+	/**
+	 * Appends the characters from the current position up to the given
+	 * terminator's first character, a carriage return or the last two
+	 * characters of the buffer. At least one character is always appended.
+	 */
+	private void scanUntil(char terminator) {
+		int start = this.pos;
+		int end = this.limit - 2;
+		this.pos++;
+		while (this.pos < end) {
+			char c = this.buf[this.pos];
+			if (c == terminator || c == '\r') {
+				break;
+			}
+			this.pos++;
+		}
+		this.append(this.buf, start, this.pos - start);
+	}
+
+	private void skipProcessingInstruction() throws IOException,
+			XmlException {
+		this.pos += 2;
+		while (true) {
+			this.tokenStart = this.pos;
+			if (!this.ensure(2)) {
+				throw this.error("The processing instruction is not terminated");
+			}
+			if (this.buf[this.pos] == '?' && this.buf[this.pos + 1] == '>') {
+				this.pos += 2;
+				return;
+			}
+			this.pos++;
+		}
+	}
+
+	private void skipDocType() throws IOException, XmlException {
+		this.pos += 9;
+		boolean inSubset = false;
+		while (true) {
+			this.tokenStart = this.pos;
+			if (!this.ensure(1)) {
+				throw this.error("The document type declaration is not terminated");
+			}
+			char c = this.buf[this.pos];
+			if (c == '"' || c == '\'') {
+				this.skipQuoted(c);
+			} else if (c == '<' && inSubset && this.startsWith("<!--")) {
+				this.readComment();
+			} else {
+				this.pos++;
+				if (c == '[') {
+					inSubset = true;
+				} else if (c == ']') {
+					inSubset = false;
+				} else if (c == '>' && !inSubset) {
+					this.docTypeDeclared = true;
+					return;
+				}
+			}
+		}
+	}
+
+	private void skipQuoted(char quote) throws IOException, XmlException {
+		this.pos++;
+		while (true) {
+			this.tokenStart = this.pos;
+			if (!this.ensure(1)) {
+				throw this.error("Unexpected end of document");
+			}
+			if (this.buf[this.pos++] == quote) {
+				return;
+			}
+		}
+	}
+
+	private String readName() throws IOException, XmlException {
+		int start = this.scanName();
+		int offset = this.tokenStart + start;
+		return this.symbols.get(this.buf, offset, this.pos - offset);
+	}
+
+	/**
+	 * Moves the position to the end of the name starting at the current
+	 * position.
+	 * 
+	 * @return the start of the name, relative to the token start.
+	 */
+	private int scanName() throws IOException, XmlException {
+		int start = this.pos - this.tokenStart;
+		while (true) {
+			if (this.pos >= this.limit && !this.fill()) {
+				throw this.error("Unexpected end of document");
+			}
+			char c = this.buf[this.pos];
+			if (c <= ' ' || c == '/' || c == '>' || c == '=' || c == '<') {
+				break;
+			}
+			this.pos++;
+		}
+		if (this.pos == this.tokenStart + start) {
+			throw this.error("A name is expected");
+		}
+		return start;
+	}
+
+	private String readAttributeValue() throws IOException, XmlException {
+		if (!this.ensure(1)) {
+			throw this.error("Unexpected end of document");
+		}
+		char quote = this.buf[this.pos];
+		if (quote != '"' && quote != '\'') {
+			throw this.error("A quoted attribute value is expected");
+		}
+		this.pos++;
+		this.textLength = 0;
+		while (true) {
+			if (this.pos >= this.limit && !this.fill()) {
+				throw this.error("Unexpected end of document");
+			}
+			char c = this.buf[this.pos];
+			if (c == quote) {
+				this.pos++;
+				return new String(this.text, 0, this.textLength);
+			} else if (c == '&') {
+				this.readReference();
+			} else if (c == '<') {
+				throw this.error("The value of an attribute must not contain '<'");
+			} else if (c == '\r') {
+				this.readCarriageReturn(' ');
+			} else {
+				if (c == '\n' || c == '\t') {
+					c = ' ';
+				}
+				this.append(c);
+				this.pos++;
+			}
+		}
+	}
+
+	private void readCarriageReturn(char replacement) throws IOException {
+		this.pos++;
+		if (this.ensure(1) && this.buf[this.pos] == '\n') {
+			this.pos++;
+		}
+		this.append(replacement);
+	}
+
+	private void readReference() throws IOException, XmlException {
+		int start = this.pos - this.tokenStart + 1;
+		this.pos++;
+		while (true) {
+			if (this.pos >= this.limit && !this.fill()) {
+				throw this.error("Unexpected end of document");
+			}
+			char c = this.buf[this.pos];
+			if (c == ';') {
+				break;
+			}
+			if (isWhiteSpace(c) || c == '<' || c == '&') {
+				throw this.error("The entity reference must end with ';'");
+			}
+			this.pos++;
+		}
+		int offset = this.tokenStart + start;
+		int length = this.pos - offset;
+		this.pos++;
+		if (length > 1 && this.buf[offset] == '#') {
+			this.appendCodePoint(this.parseCharacterReference(offset + 1,
+					length - 1));
+		} else if (this.regionEquals(offset, length, "lt")) {
+			this.append('<');
+		} else if (this.regionEquals(offset, length, "gt")) {
+			this.append('>');
+		} else if (this.regionEquals(offset, length, "amp")) {
+			this.append('&');
+		} else if (this.regionEquals(offset, length, "quot")) {
+			this.append('"');
+		} else if (this.regionEquals(offset, length, "apos")) {
+			this.append('\'');
+		} else if (!this.docTypeDeclared) {
+			throw this.error("The entity \""
+					+ new String(this.buf, offset, length)
+					+ "\" was referenced, but not declared");
+		}
+	}
+
+	private int parseCharacterReference(int offset, int length)
+			throws XmlException {
+		int radix = 10;
+		if (this.buf[offset] == 'x') {
+			radix = 16;
+			offset++;
+			length--;
+		}
+		int codePoint = 0;
+		for (int i = 0; i < length; i++) {
+			int digit = Character.digit(this.buf[offset + i], radix);
+			if (digit < 0 || codePoint > Character.MAX_CODE_POINT) {
+				throw this.error("Invalid character reference");
+			}
+			codePoint = codePoint * radix + digit;
+		}
+		if (length == 0 || !Character.isValidCodePoint(codePoint)) {
+			throw this.error("Invalid character reference");
+		}
+		return codePoint;
+	}
+
+	private boolean regionEquals(int offset, int length, String value) {
+		if (length != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (this.buf[offset + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean startsWith(String value) throws IOException {
+		if (!this.ensure(value.length())) {
+			return false;
+		}
+		return this.regionEquals(this.pos, value.length(), value);
+	}
+
+	private void expect(char c) throws IOException, XmlException {
+		if (!this.ensure(1) || this.buf[this.pos] != c) {
+			throw this.error("'" + c + "' expected");
+		}
+		this.pos++;
+	}
+
+	private boolean skipWhiteSpaces() throws IOException {
+		int start = this.pos - this.tokenStart;
+		while ((this.pos < this.limit || this.fill())
+				&& isWhiteSpace(this.buf[this.pos])) {
+			this.pos++;
+		}
+		return this.pos > this.tokenStart + start;
+	}
+
+	private static boolean isWhiteSpace(char c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+	}
+
+	private void append(char c) {
+		if (this.textLength == this.text.length) {
+			this.text = Arrays.copyOf(this.text, this.textLength * 2);
+		}
+		this.text[this.textLength++] = c;
+	}
+
+	private void append(char[] chars, int offset, int length) {
+		int required = this.textLength + length;
+		if (required > this.text.length) {
+			this.text = Arrays.copyOf(this.text,
+					Math.max(required, this.text.length * 2));
+		}
+		System.arraycopy(chars, offset, this.text, this.textLength, length);
+		this.textLength = required;
+	}
+
+	private void appendCodePoint(int codePoint) {
+		if (Character.isSupplementaryCodePoint(codePoint)) {
+			this.append(Character.highSurrogate(codePoint));
+			this.append(Character.lowSurrogate(codePoint));
+		} else {
+			this.append((char) codePoint);
+		}
+	}
+
+	/**
+	 * Makes sure that at least n characters are available from the current
+	 * position.
+	 * 
+	 * @return false if the end of the data is reached before.
+	 */
+	private boolean ensure(int n) throws IOException {
+		while (this.limit - this.pos < n) {
+			if (!this.fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads more data for the current text chunk. A push tokenizer returns the
+	 * characters gathered so far rather than waiting for more input.
+	 * 
+	 * @return false if the current chunk must be returned.
+	 */
+	private boolean fillChunk() throws IOException {
+		if (!this.push || this.textLength == 0) {
+			return this.fill();
+		}
+		try {
+			return this.fill();
+		} catch (NeedInputException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads more data from the input. The characters of the current token,
+	 * starting at tokenStart, are moved to the beginning of the buffer and the
+	 * buffer is grown if the current token fills it. A push tokenizer also
+	 * keeps the characters following the mark.
+	 * 
+	 * @return false if the end of the data is reached.
+	 */
+	private boolean fill() throws IOException {
+		if (this.input == null) {
+			return false;
+		}
+		int keep = this.tokenStart;
+		if (this.push) {
+			keep = Math.min(keep, (int) (this.mark - this.bufferOffset));
+		}
+		if (keep > 0) {
+			System.arraycopy(this.buf, keep, this.buf, 0, this.limit - keep);
+			this.bufferOffset += keep;
+			this.pos -= keep;
+			this.limit -= keep;
+			this.tokenStart -= keep;
+		}
+		if (this.limit == this.buf.length) {
+			this.buf = Arrays.copyOf(this.buf, this.buf.length * 2);
+			if (this.buf.length <= MAX_RETAINED_BUFFER_SIZE) {
+				this.readerBuffer = this.buf;
+			}
+		}
+		int count = this.input.read(this.buf, this.limit, this.buf.length
+				- this.limit);
+		if (count <= 0) {
+			return false;
+		}
+		this.limit += count;
+		return true;
+	}
+
+	private XmlException error(String message) {
+		return new XmlException(message + " (position " + this.getPosition()
+				+ ")");
+	}
+
+	/**
+	 * Thrown by the reader of a push tokenizer when all the data received so
+	 * far has been read while the input is still open. A single instance
+	 * without stack trace is shared since the exception only signals the
+	 * condition.
+	 */
+	static final class NeedInputException extends IOException {
+
+		private static final long serialVersionUID = -3528717457802345191L;
+
+		static final NeedInputException INSTANCE = new NeedInputException();
+
+		private NeedInputException() {
+			super("More input is needed");
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+}
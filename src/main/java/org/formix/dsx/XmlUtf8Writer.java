@@ -0,0 +1,281 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ * A Writer encoding characters in UTF-8 straight into its own byte buffer.
+ * The buffer is written to the target OutputStream, WritableByteChannel or
+ * ByteBuffer only when it is full or flushed, so a large document is saved
+ * with a few large writes. Element and attribute names are encoded once and
+ * cached.
+ * </p>
+ * 
+ * <p>
+ * Like an OutputStreamWriter, unpaired surrogates are encoded as '?'.
+ * </p>
+ * 
+ * @author jpgravel
+ * 
+ */
+final class XmlUtf8Writer extends Writer {
+
+	private static final int BUFFER_SIZE = 65536;
+	private static final int NAME_CACHE_SIZE = 256;
+
+	private OutputStream out;
+	private WritableByteChannel channel;
+	private ByteBuffer target;
+	private byte[] bytes;
+	private int count;
+	private char highSurrogate;
+	private String[] cachedNames;
+	private byte[][] encodedNames;
+
+	/**
+	 * Creates a writer targeting the given output stream.
+	 * 
+	 * @param out
+	 *            The stream receiving the encoded bytes.
+	 */
+	XmlUtf8Writer(OutputStream out) {
+		this();
+		this.out = out;
+	}
+
+	/**
+	 * Creates a writer targeting the given channel.
+	 * 
+	 * @param channel
+	 *            The channel receiving the encoded bytes.
+	 */
+	XmlUtf8Writer(WritableByteChannel channel) {
+		this();
+		this.channel = channel;
+	}
+
+	/**
+	 * Creates a writer targeting the given buffer. Writing more bytes than
+	 * the buffer remaining space throws a BufferOverflowException.
+	 * 
+	 * @param target
+	 *            The buffer receiving the encoded bytes.
+	 */
+	XmlUtf8Writer(ByteBuffer target) {
+		this();
+		this.target = target;
+	}
+
+	private XmlUtf8Writer() {
+		this.bytes = new byte[BUFFER_SIZE];
+		this.count = 0;
+		this.cachedNames = new String[NAME_CACHE_SIZE];
+		this.encodedNames = new byte[NAME_CACHE_SIZE][];
+	}
+
+	/**
+	 * Writes an element or attribute name. The encoded name is cached.
+	 * 
+	 * @param name
+	 *            The name to write.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the target fails.
+	 */
+	void writeName(String name) throws IOException {
+		int slot = name.hashCode() & (NAME_CACHE_SIZE - 1);
+		byte[] encoded = this.encodedNames[slot];
+		String cached = this.cachedNames[slot];
+		if (cached != name && (cached == null || !cached.equals(name))) {
+			encoded = name.getBytes("UTF-8");
+			this.cachedNames[slot] = name;
+			this.encodedNames[slot] = encoded;
+		}
+		this.flushHighSurrogate();
+		if (encoded.length > this.bytes.length - this.count) {
+			this.flushBuffer();
+			if (encoded.length > this.bytes.length) {
+				this.write(name);
+				return;
+			}
+		}
+		System.arraycopy(encoded, 0, this.bytes, this.count, encoded.length);
+		this.count += encoded.length;
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (this.count + 4 > this.bytes.length) {
+			this.flushBuffer();
+		}
+		if (c < 0x80 && this.highSurrogate == 0) {
+			this.bytes[this.count++] = (byte) c;
+		} else {
+			this.encode((char) c);
+		}
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		byte[] bytes = this.bytes;
+		int count = this.count;
+		for (int i = off; i < end; i++) {
+			if (count + 4 > bytes.length) {
+				this.count = count;
+				this.flushBuffer();
+				count = 0;
+			}
+			char c = cbuf[i];
+			if (c < 0x80 && this.highSurrogate == 0) {
+				bytes[count++] = (byte) c;
+			} else {
+				this.count = count;
+				this.encode(c);
+				count = this.count;
+			}
+		}
+		this.count = count;
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		int end = off + len;
+		byte[] bytes = this.bytes;
+		int count = this.count;
+		for (int i = off; i < end; i++) {
+			if (count + 4 > bytes.length) {
+				this.count = count;
+				this.flushBuffer();
+				count = 0;
+			}
+			char c = str.charAt(i);
+			if (c < 0x80 && this.highSurrogate == 0) {
+				bytes[count++] = (byte) c;
+			} else {
+				this.count = count;
+				this.encode(c);
+				count = this.count;
+			}
+		}
+		this.count = count;
+	}
+
+	@Override
+	public Writer append(CharSequence csq) throws IOException {
+		String str = String.valueOf(csq);
+		this.write(str, 0, str.length());
+		return this;
+	}
+
+	/**
+	 * Encodes a non ASCII character or a character following a high
+	 * surrogate. At least 4 bytes must be available in the buffer.
+	 */
+	private void encode(char c) {
+		byte[] bytes = this.bytes;
+		if (this.highSurrogate != 0) {
+			char high = this.highSurrogate;
+			this.highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				bytes[this.count++] = (byte) (0xF0 | codePoint >> 18);
+				bytes[this.count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				bytes[this.count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				bytes[this.count++] = (byte) (0x80 | codePoint & 0x3F);
+				return;
+			}
+			// The unpaired surrogate and c take at most 4 bytes.
+			bytes[this.count++] = '?';
+		}
+		if (c < 0x80) {
+			bytes[this.count++] = (byte) c;
+		} else if (c < 0x800) {
+			bytes[this.count++] = (byte) (0xC0 | c >> 6);
+			bytes[this.count++] = (byte) (0x80 | c & 0x3F);
+		} else if (Character.isHighSurrogate(c)) {
+			this.highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			bytes[this.count++] = '?';
+		} else {
+			bytes[this.count++] = (byte) (0xE0 | c >> 12);
+			bytes[this.count++] = (byte) (0x80 | c >> 6 & 0x3F);
+			bytes[this.count++] = (byte) (0x80 | c & 0x3F);
+		}
+	}
+
+	private void flushHighSurrogate() throws IOException {
+		if (this.highSurrogate != 0) {
+			if (this.count == this.bytes.length) {
+				this.flushBuffer();
+			}
+			this.highSurrogate = 0;
+			this.bytes[this.count++] = '?';
+		}
+	}
+
+	/**
+	 * Writes the encoded bytes to the target.
+	 */
+	private void flushBuffer() throws IOException {
+		if (this.count == 0) {
+			return;
+		}
+		if (this.out != null) {
+			this.out.write(this.bytes, 0, this.count);
+		} else if (this.channel != null) {
+			ByteBuffer buffer = ByteBuffer.wrap(this.bytes, 0, this.count);
+			while (buffer.hasRemaining()) {
+				this.channel.write(buffer);
+			}
+		} else {
+			this.target.put(this.bytes, 0, this.count);
+		}
+		this.count = 0;
+	}
+
+	/**
+	 * Writes the encoded bytes to the target and flushes the target stream.
+	 * A pending high surrogate is kept until the next character.
+	 */
+	@Override
+	public void flush() throws IOException {
+		this.flushBuffer();
+		if (this.out != null) {
+			this.out.flush();
+		}
+	}
+
+	/**
+	 * Flushes the writer and closes the target stream or channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.flushHighSurrogate();
+		this.flush();
+		if (this.out != null) {
+			this.out.close();
+		} else if (this.channel != null) {
+			this.channel.close();
+		}
+	}
+}
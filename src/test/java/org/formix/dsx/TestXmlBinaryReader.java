@@ -0,0 +1,183 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlBinaryReader {
+
+	private static XmlDocument roundTrip(XmlDocument doc) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		doc.saveBinary(out);
+		XmlDocument loaded = new XmlDocument();
+		loaded.loadBinary(new ByteArrayInputStream(out.toByteArray()));
+		return loaded;
+	}
+
+	private static void assertSameTree(XmlElement expected, XmlElement actual) {
+		Assert.assertEquals(expected.getName(), actual.getName());
+		Assert.assertEquals(expected.getAttributes(), actual.getAttributes());
+		Assert.assertEquals(
+				Arrays.asList(expected.getAttributes().keySet().toArray()),
+				Arrays.asList(actual.getAttributes().keySet().toArray()));
+		Assert.assertEquals(expected.getChildCount(), actual.getChildCount());
+		for (int i = 0; i < expected.getChildCount(); i++) {
+			XmlContent e = expected.getChild(i);
+			XmlContent a = actual.getChild(i);
+			if (e instanceof XmlElement) {
+				assertSameTree((XmlElement) e, (XmlElement) a);
+			} else {
+				Assert.assertEquals(e.getClass(), a.getClass());
+				Assert.assertEquals(((XmlText) e).getText(),
+						((XmlText) a).getText());
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		XmlElement root = new XmlElement("r\u00e9sum\u00e9");
+		root.setAttribute("z", "last").setAttribute("a", "\u20ac & <")
+				.setAttribute("empty", "");
+		for (int i = 0; i < 1000; i++) {
+			XmlElement item = root.addElement("item");
+			item.setAttribute("id", String.valueOf(i));
+			item.addText("caf\u00e9 " + i);
+			item.addElement("empty");
+			item.addCDATA("]] \ud83d\ude00 " + i);
+			item.addComment(" comment " + i + " ");
+			item.addText("");
+			item.addText("unpaired \uD800 " + i);
+		}
+		XmlDocument doc = new XmlDocument(root, XmlDocumentType.XHTML);
+		XmlDocument loaded = roundTrip(doc);
+		Assert.assertEquals(XmlDocumentType.XHTML, loaded.getDocumentType());
+		assertSameTree(root, loaded.getRoot());
+		Assert.assertEquals(doc.toString(), loaded.toString());
+	}
+
+	@Test
+	public void testNullAttributeValue() throws Exception {
+		XmlElement root = new XmlElement("a");
+		root.setAttribute("v", "1").setAttribute("w", null)
+				.setAttribute("x", "");
+		root.addElement("b").setAttribute("w", null);
+		XmlElement loaded = roundTrip(new XmlDocument(root)).getRoot();
+		assertSameTree(root, loaded);
+		Assert.assertTrue(loaded.getAttributes().containsKey("w"));
+		Assert.assertNull(loaded.getAttribute("w"));
+		Assert.assertEquals("", loaded.getAttribute("x"));
+		Assert.assertEquals(root.toString(), loaded.toString());
+	}
+
+	@Test
+	public void testLargeTexts() throws Exception {
+		StringBuilder latin1 = new StringBuilder();
+		StringBuilder utf16 = new StringBuilder();
+		for (int i = 0; i < 50000; i++) {
+			latin1.append("abc\u00e9");
+			utf16.append("ab\u20ac\ud83d\ude00");
+		}
+		XmlElement root = new XmlElement("root");
+		root.setAttribute("latin1", latin1.toString());
+		root.setAttribute("utf16", utf16.toString());
+		root.addText(latin1.toString());
+		root.addComment(utf16.toString());
+		XmlDocument doc = new XmlDocument(root, null);
+		XmlDocument loaded = roundTrip(doc);
+		Assert.assertNull(loaded.getDocumentType());
+		assertSameTree(root, loaded.getRoot());
+	}
+
+	@Test
+	public void testSpooledText() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			sb.append("QUJD\u00e9\u20ac<");
+		}
+		XmlParser parser = new XmlParser();
+		parser.setTextSpoolThreshold(1000);
+		XmlElement root = parser.parse(new StringReader("<a><big>"
+				+ sb.toString().replace("<", "&lt;") + "</big></a>"));
+		XmlSpooledText spooled = (XmlSpooledText) root.getElement("big")
+				.getChild(0);
+		try {
+			XmlElement loaded = roundTrip(new XmlDocument(root)).getRoot();
+			XmlContent text = loaded.getElement("big").getChild(0);
+			Assert.assertFalse(text instanceof XmlSpooledText);
+			Assert.assertEquals(sb.toString(), ((XmlText) text).getText());
+		} finally {
+			spooled.delete();
+		}
+	}
+
+	@Test
+	public void testNoRoot() throws Exception {
+		XmlDocument loaded = roundTrip(new XmlDocument());
+		Assert.assertNull(loaded.getRoot());
+		Assert.assertEquals(XmlDocumentType.XML_1_0, loaded.getDocumentType());
+	}
+
+	@Test
+	public void testInvalidData() throws Exception {
+		XmlElement root = XmlElement.readXML("<a b=\"c\"><d>e</d></a>");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new XmlDocument(root).saveBinary(out);
+		byte[] bytes = out.toByteArray();
+		for (int length = 0; length < bytes.length; length++) {
+			try {
+				new XmlDocument().loadBinary(new ByteArrayInputStream(bytes,
+						0, length));
+				Assert.fail("Truncated data loaded: " + length);
+			} catch (XmlException e) {
+				// expected
+			}
+		}
+		try {
+			new XmlDocument().loadBinary(new ByteArrayInputStream("<a/>"
+					.getBytes("UTF-8")));
+			Assert.fail("XML loaded as binary");
+		} catch (XmlException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCompressedFile() throws Exception {
+		XmlElement root = new XmlElement("rows");
+		for (int i = 0; i < 10000; i++) {
+			root.addElement("row").setAttribute("id", String.valueOf(i))
+					.addText("text " + i);
+		}
+		XmlDocument doc = new XmlDocument(root);
+		File file = File.createTempFile("dsx", ".bin.gz");
+		try {
+			doc.saveBinary(file);
+			XmlDocument loaded = new XmlDocument();
+			loaded.loadBinary(file);
+			assertSameTree(root, loaded.getRoot());
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -15,10 +15,12 @@
  ***************************************************************************/
 package org.formix.dsx;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
 
 import org.formix.dsx.XmlDocumentType;
@@ -86,4 +88,107 @@ public class TestXmlDocument {
 		
 		System.out.println(sw.toString());
 	}
+
+	@Test
+	public void testSaveFormatted() throws Exception {
+		String[] resources = { "statistics.html", "idoc_test1.xml",
+				"FileData.xml" };
+		for (String resource : resources) {
+			InputStream is = this.getClass().getResourceAsStream(resource);
+			XmlElement root = XmlElement.readXML(is);
+			is.close();
+			assertSameFormat(root, new XmlFormatOptions());
+		}
+		assertSameFormat(XmlElement.readXML(new File("hugedoc.xhtml")),
+				new XmlFormatOptions("\r\n", "\t"));
+		assertSameFormat(XmlElement.readXML("<a x='1'>\n <b> short </b>"
+				+ "<c><!-- note --> <![CDATA[ data ]]></c><d>  </d><!-- -->"
+				+ "<e>two\nlines</e><f>" + EOL + "</f><g>text<h/></g>"
+				+ "<i>a text long enough to be written on its own line, "
+				+ "below the element</i>caf\u00e9</a>"),
+				new XmlFormatOptions("\n", "\u00e9 "));
+	}
+
+	@Test
+	public void testSaveFormattedSpooledText() throws Exception {
+		StringBuilder big = new StringBuilder("\n   ");
+		for (int i = 0; i < 3000; i++) {
+			big.append("QUJD <&> ");
+		}
+		for (int i = 0; i < 9000; i++) {
+			big.append(i % 100 == 0 ? '\n' : ' ');
+		}
+		big.append("end");
+		for (int i = 0; i < 20000; i++) {
+			big.append(' ');
+		}
+		StringBuilder spaced = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			spaced.append(' ');
+		}
+		String xml = "<a><big>" + big.toString().replace("&", "&amp;")
+				.replace("<", "&lt;") + "</big><short>   a short text   "
+				+ "</short><spaced>" + spaced + "x" + spaced + "</spaced>"
+				+ "<blank>" + spaced + "</blank><mixed>" + spaced
+				+ "<b/>two" + spaced + "</mixed></a>";
+
+		XmlParser parser = new XmlParser();
+		parser.setTextSpoolThreshold(10);
+		XmlElement root = parser.parse(new StringReader(xml));
+		Assert.assertTrue(root.getElement("big").getChild(0) instanceof XmlSpooledText);
+		Assert.assertTrue(root.getElement("spaced").getChild(0) instanceof XmlSpooledText);
+		XmlFormatOptions options = new XmlFormatOptions("\n", "  ");
+		StringWriter actual = new StringWriter();
+		new XmlDocument(root).save(actual, options);
+
+		XmlDocument expected = new XmlDocument(XmlElement.readXML(xml));
+		expected.format(options.getEol(), options.getIndent());
+		Assert.assertEquals(expected.toString(), actual.toString());
+	}
+
+	private static void assertSameFormat(XmlElement root,
+			XmlFormatOptions options) throws Exception {
+		XmlDocument doc = new XmlDocument(root);
+		String before = doc.toString();
+		StringWriter actual = new StringWriter();
+		doc.save(actual, options);
+		Assert.assertEquals(before, doc.toString());
+
+		doc.format(options.getEol(), options.getIndent());
+		Assert.assertEquals(doc.toString(), actual.toString());
+	}
+
+	@Test
+	public void testStripWhiteSpaces() throws Exception {
+		StringBuilder sb = new StringBuilder("<rows>" + EOL);
+		for (int i = 0; i < 20000; i++) {
+			sb.append("  <row id=\"").append(i).append("\">").append(EOL)
+					.append("    <v> ").append(i).append(" </v>  <!--  c -->")
+					.append("<w><![CDATA[  ]]></w><x>  <![CDATA[ y ]]> </x>")
+					.append(EOL).append("  </row>").append(EOL);
+		}
+		sb.append("</rows>");
+		String xml = sb.toString();
+
+		XmlDocument expected = new XmlDocument();
+		expected.load(new StringReader(xml));
+		expected.cleanUp();
+
+		XmlDocument doc = new XmlDocument();
+		doc.setStripWhiteSpaces(true);
+		doc.load(new StringReader(xml));
+		Assert.assertEquals(expected.toString(), doc.toString());
+		Assert.assertEquals(4, doc.getRoot().getElement("row")
+				.getChildCount());
+
+		doc = new XmlDocument();
+		doc.setStripWhiteSpaces(true);
+		doc.loadParallel(new StringReader(xml));
+		Assert.assertEquals(expected.toString(), doc.toString());
+
+		doc = new XmlDocument();
+		doc.setStripWhiteSpaces(true);
+		doc.load(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		Assert.assertEquals(expected.toString(), doc.toString());
+	}
 }
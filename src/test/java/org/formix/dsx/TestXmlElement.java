@@ -18,6 +18,8 @@ package org.formix.dsx;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.formix.dsx.XmlContent;
 import org.formix.dsx.XmlElement;
@@ -130,4 +132,58 @@ public class TestXmlElement {
 		in.close();
 		return str;
 	}
+
+	@Test
+	public void testAttributes() throws Exception {
+		XmlElement elem = XmlElement.readXML("<a z='1' y='2' x='3'/>");
+		Assert.assertEquals("<a z=\"1\" y=\"2\" x=\"3\"/>", elem.toString());
+		elem.setAttribute("y", "4").setAttribute("w", null);
+		Assert.assertEquals(4, elem.getAttributeCount());
+		Assert.assertTrue(elem.hasAttribute("w"));
+		Assert.assertNull(elem.getAttribute("w"));
+		Assert.assertEquals("<a z=\"1\" y=\"4\" x=\"3\" w/>", elem.toString());
+
+		Map<String, String> attributes = elem.getAttributes();
+		Assert.assertEquals("3", attributes.remove("x"));
+		attributes.put("v", "5");
+		Iterator<Map.Entry<String, String>> iter = attributes.entrySet()
+				.iterator();
+		Assert.assertEquals("z", iter.next().getKey());
+		iter.remove();
+		iter.next().setValue("6");
+		Assert.assertEquals("<a y=\"6\" w v=\"5\"/>", elem.toString());
+		Assert.assertEquals("{y=6, w=null, v=5}", attributes.toString());
+		Assert.assertEquals("6", elem.removeAttribute("y"));
+		Assert.assertFalse(elem.hasAttribute("y"));
+	}
+
+	@Test
+	public void testChildList() throws Exception {
+		XmlElement elem = new XmlElement("a");
+		Assert.assertEquals(0, elem.getChildCount());
+		elem.getChilds().add(new XmlText("x"));
+		elem.addElement("b");
+		elem.getChilds().add(0, new XmlComment("c"));
+		Assert.assertEquals(3, elem.getChildCount());
+		Assert.assertEquals("<a><!--c-->x<b/></a>", elem.toString());
+		Iterator<XmlContent> iter = elem.getChilds().iterator();
+		iter.next();
+		iter.next();
+		iter.remove();
+		Assert.assertEquals("<a><!--c--><b/></a>", elem.toString());
+		elem.getChilds().clear();
+		Assert.assertEquals("<a/>", elem.toString());
+	}
+
+	@Test
+	public void testTextStorage() throws Exception {
+		XmlText latin1 = new XmlText("caf\u00e9");
+		latin1.append(" \u20ac");
+		Assert.assertEquals("caf\u00e9 \u20ac", latin1.getText());
+		latin1.setText("\u00ff");
+		Assert.assertEquals("\u00ff", latin1.toString());
+		XmlElement elem = XmlElement.readXML("<a>\u0100<![CDATA[\u00e9]]></a>");
+		Assert.assertEquals("\u0100", elem.getChild(0).toString());
+		Assert.assertEquals("\u00e9", elem.getChild(1).toString());
+	}
 }
@@ -0,0 +1,55 @@
+package org.formix.dsx;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlElementReader {
+
+	@Test
+	public void testReadRecords() throws Exception {
+		String xml = "<root><header>h</header><items>"
+				+ "<item id=\"1\"><name>first</name></item>"
+				+ "<other/>"
+				+ "<item id=\"2\"><name>second &amp; last</name></item>"
+				+ "</items></root>";
+		XmlElementReader xreader = XmlElement.readElements(new StringReader(
+				xml), "/items/item");
+
+		XmlElement item = xreader.next();
+		Assert.assertEquals("<item id=\"1\"><name>first</name></item>",
+				item.toString());
+
+		item = xreader.next();
+		Assert.assertEquals("2", item.getAttribute("id"));
+		Assert.assertEquals("second & last", item.getValue("name"));
+
+		Assert.assertNull(xreader.next());
+		xreader.close();
+	}
+
+	@Test
+	public void testReadRoot() throws Exception {
+		String xml = "<root><child>text</child></root>";
+		XmlElementReader xreader = new XmlElementReader(new StringReader(xml),
+				"/");
+		Assert.assertEquals(xml, xreader.next().toString());
+		Assert.assertNull(xreader.next());
+		xreader.close();
+	}
+
+	@Test
+	public void testReadIdoc() throws Exception {
+		InputStream is = this.getClass().getResourceAsStream("idoc_test1.xml");
+		XmlElementReader xreader = new XmlElementReader(new InputStreamReader(
+				is), "/IDOC/E1KNA1M");
+		XmlElement record = xreader.next();
+		XmlNavigator xnav = new XmlNavigator(record);
+		Assert.assertEquals("Patrick's company1234", xnav.getText("/NAME1"));
+		Assert.assertNull(xreader.next());
+		xreader.close();
+	}
+}
@@ -0,0 +1,68 @@
+package org.formix.dsx;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlEscaper {
+
+	private static String escape(String text) throws Exception {
+		StringWriter sw = new StringWriter();
+		XmlEscaper.escape(text, sw);
+		return sw.toString();
+	}
+
+	@Test
+	public void testEveryCharacter() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int c = 0; c <= 0xFFFF; c++) {
+			sb.append((char) c);
+		}
+		String text = sb.toString();
+		Assert.assertEquals(StringEscapeUtils.escapeXml(text), escape(text));
+	}
+
+	@Test
+	public void testRandomTexts() throws Exception {
+		Random random = new Random(7);
+		String alphabet = "ab <>&\"'\u00e9\u20ac\uD83D\uDE00\n";
+		for (int i = 0; i < 200; i++) {
+			StringBuilder sb = new StringBuilder();
+			int length = random.nextInt(3000);
+			for (int j = 0; j < length; j++) {
+				sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			String text = sb.toString();
+			String expected = StringEscapeUtils.escapeXml(text);
+			Assert.assertEquals(expected, escape(text));
+			Assert.assertEquals(expected, new XmlText(text).toXml());
+
+			StringWriter sw = new StringWriter();
+			char[] chars = ("xx" + text + "yy").toCharArray();
+			XmlEscaper.escape(chars, 2, text.length(), sw);
+			Assert.assertEquals(expected, sw.toString());
+
+			XmlText appended = new XmlText();
+			appended.append(text);
+			Assert.assertEquals(expected, appended.toXml());
+			XmlCDATA cdata = new XmlCDATA("");
+			cdata.append(text);
+			Assert.assertEquals("<![CDATA[" + text + "]]>", cdata.toXml());
+			sw = new StringWriter();
+			cdata.write(sw);
+			Assert.assertEquals(cdata.toXml(), sw.toString());
+		}
+	}
+
+	@Test
+	public void testElement() throws Exception {
+		XmlElement elem = new XmlElement("a");
+		elem.setAttribute("b", "\"caf\u00e9\" & <co>");
+		elem.addText("l'\u00e9t\u00e9 \u20ac");
+		Assert.assertEquals("<a b=\"&quot;caf&#233;&quot; &amp; &lt;co&gt;\">"
+				+ "l&apos;&#233;t&#233; &#8364;</a>", elem.toString());
+	}
+}
@@ -0,0 +1,177 @@
+/****************************************************************************
+ * Copyright 2009-2015 Jean-Philippe Gravel, P. Eng. CSDP
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+package org.formix.dsx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlGzipOutputStream {
+
+	private static byte[] gunzip(byte[] compressed) throws Exception {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+				compressed));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int count = in.read(buffer);
+		while (count >= 0) {
+			out.write(buffer, 0, count);
+			count = in.read(buffer);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testReadableByGZIPInputStream() throws Exception {
+		Random random = new Random(7);
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			for (int i = 0; i < 20; i++) {
+				// Mostly redundant data, with some noise.
+				ByteArrayOutputStream data = new ByteArrayOutputStream();
+				int length = random.nextInt(1000000);
+				while (data.size() < length) {
+					if (random.nextInt(10) == 0) {
+						data.write(random.nextInt(256));
+					} else {
+						data.write(("<row id=\"" + random.nextInt(100) + "\"/>")
+								.getBytes("UTF-8"));
+					}
+				}
+				byte[] expected = data.toByteArray();
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				XmlGzipOutputStream out = new XmlGzipOutputStream(compressed,
+						pool, random.nextInt(10));
+				int pos = 0;
+				while (pos < expected.length) {
+					int count = Math.min(expected.length - pos,
+							random.nextInt(70000));
+					if (count == 1) {
+						out.write(expected[pos]);
+					} else {
+						out.write(expected, pos, count);
+					}
+					if (random.nextInt(20) == 0) {
+						out.flush();
+					}
+					pos += count;
+				}
+				out.close();
+				Assert.assertArrayEquals(expected,
+						gunzip(compressed.toByteArray()));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		new XmlGzipOutputStream(compressed).close();
+		Assert.assertEquals(0, gunzip(compressed.toByteArray()).length);
+	}
+
+	@Test
+	public void testWriteAfterFinish() throws Exception {
+		XmlGzipOutputStream out = new XmlGzipOutputStream(
+				new ByteArrayOutputStream());
+		out.write('a');
+		out.finish();
+		try {
+			out.write('b');
+			Assert.fail();
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			out.write(new byte[] { 'c' }, 0, 1);
+			Assert.fail();
+		} catch (IOException e) {
+			// expected
+		}
+		out.close();
+	}
+
+	@Test
+	public void testFlushedDataIsReadable() throws Exception {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		XmlGzipOutputStream out = new XmlGzipOutputStream(compressed);
+		out.write("<root>".getBytes("UTF-8"));
+		out.flush();
+		byte[] partial = compressed.toByteArray();
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(partial));
+		byte[] buffer = new byte[6];
+		int count = 0;
+		while (count < buffer.length) {
+			count += in.read(buffer, count, buffer.length - count);
+		}
+		Assert.assertEquals("<root>", new String(buffer, "UTF-8"));
+		out.close();
+	}
+
+	@Test
+	public void testSaveAndLoadCompressed() throws Exception {
+		XmlElement root = new XmlElement("rows");
+		for (int i = 0; i < 20000; i++) {
+			root.addElement("row").setAttribute("id", String.valueOf(i))
+					.addText("caf\u00e9 " + i);
+		}
+		XmlDocument doc = new XmlDocument(root);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		doc.saveCompressed(out);
+		byte[] compressed = out.toByteArray();
+		Assert.assertEquals(doc.toString(),
+				new String(gunzip(compressed), "UTF-8"));
+
+		XmlDocument loaded = new XmlDocument();
+		loaded.load(new ByteArrayInputStream(compressed));
+		Assert.assertEquals(doc.toString(), loaded.toString());
+
+		loaded = new XmlDocument();
+		loaded.load(ByteBuffer.wrap(compressed));
+		Assert.assertEquals(doc.toString(), loaded.toString());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(compressed.length + 2);
+		direct.put((byte) 0).put(compressed).put((byte) 0);
+		direct.position(1).limit(compressed.length + 1);
+		loaded = new XmlDocument();
+		loaded.load(direct);
+		Assert.assertEquals(doc.toString(), loaded.toString());
+
+		File file = File.createTempFile("dsx", ".xml.gz");
+		try {
+			doc.save(file);
+			loaded = new XmlDocument();
+			loaded.load(file);
+			Assert.assertEquals(doc.toString(), loaded.toString());
+			loaded = new XmlDocument();
+			loaded.loadParallel(file);
+			Assert.assertEquals(doc.toString(), loaded.toString());
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package org.formix.dsx;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlIndexedDocument {
+
+	private static final String XML = "<?xml version=\"1.0\"?>\n"
+			+ "<!-- prolog --><root>\n"
+			+ "  <header id=\"7\" label=\"a &amp; b\"><name>first</name></header>\n"
+			+ "  <list><item>a</item><item>b &lt;c&gt;</item><item><![CDATA[<d>]]></item></list>\n"
+			+ "  <mixed>one<!-- skipped --><b x='1'/>two<?pi data?>three\r\n</mixed>\n"
+			+ "  <empty/>\n" + "</root>";
+
+	@Test
+	public void testSameResultsAsNavigator() throws Exception {
+		XmlIndexedDocument idoc = new XmlIndexedDocument();
+		idoc.load(XML);
+		assertSameResults(idoc);
+	}
+
+	@Test
+	public void testOffHeap() throws Exception {
+		XmlIndexedDocument idoc = new XmlIndexedDocument(true);
+		idoc.load(new StringReader(XML));
+		Assert.assertTrue(idoc.isOffHeap());
+		assertSameResults(idoc);
+		idoc.close();
+		Assert.assertEquals(0, idoc.getNodeCount());
+		Assert.assertNull(idoc.getElement("/header"));
+	}
+
+	@Test
+	public void testLargeOffHeap() throws Exception {
+		// Spans many character blocks and node blocks.
+		StringBuilder sb = new StringBuilder("<rows>");
+		for (int i = 0; i < 40000; i++) {
+			sb.append("<row id=\"").append(i).append("\">value ").append(i)
+					.append(" &amp; some padding text</row>\n");
+		}
+		sb.append("</rows>");
+		XmlIndexedDocument idoc = new XmlIndexedDocument(true);
+		idoc.load(new StringReader(sb.toString()));
+		Assert.assertEquals(1 + 40000 * 3, idoc.getNodeCount());
+		Assert.assertEquals("value 39999 & some padding text",
+				idoc.getText("/row[39999]"));
+		Assert.assertEquals("25000", idoc.getText("/row[25000]@id"));
+		Assert.assertEquals(XmlElement.readXML(sb.toString()).toString(),
+				idoc.getRoot().toString());
+	}
+
+	private static void assertSameResults(XmlIndexedDocument idoc)
+			throws Exception {
+		XmlNavigator xnav = new XmlNavigator(XmlElement.readXML(XML));
+		String[] paths = { "/header/name", "/header@id", "/header@label",
+				"/header@missing", "/list/item", "/list/item[1]",
+				"/list/item[2]", "/[3]", "/list/[2]",
+				"/mixed", "/mixed/b@x", "/empty", "/missing/name", "/",
+				"/list/item[5]", "" };
+		for (String path : paths) {
+			Assert.assertEquals(path, xnav.getText(path), idoc.getText(path));
+			Assert.assertEquals(path, xnav.exists(path), idoc.exists(path));
+			XmlElement expected = xnav.getElement(path);
+			XmlElement actual = idoc.getElement(path);
+			Assert.assertEquals(path, expected == null ? null
+					: expected.toString(), actual == null ? null
+					: actual.toString());
+		}
+		Assert.assertEquals(xnav.getRoot().toString(), idoc.getRoot()
+				.toString());
+	}
+
+	@Test
+	public void testGetElements() throws Exception {
+		XmlIndexedDocument idoc = new XmlIndexedDocument();
+		idoc.load(XML);
+		List<XmlElement> items = idoc.getElements("/list/item");
+		Assert.assertEquals(3, items.size());
+		Assert.assertEquals("<item>b &lt;c&gt;</item>", items.get(1).toString());
+		Assert.assertTrue(idoc.getElements("/header/missing").isEmpty());
+		Assert.assertTrue(idoc.getElements("/missing/item").isEmpty());
+		Assert.assertTrue(idoc.getElements("/list/missing").isEmpty());
+	}
+
+	@Test
+	public void testIdoc() throws Exception {
+		InputStream in = this.getClass().getResourceAsStream("idoc_test1.xml");
+		XmlIndexedDocument idoc = new XmlIndexedDocument();
+		try {
+			idoc.load(in);
+		} finally {
+			in.close();
+		}
+		in = this.getClass().getResourceAsStream("idoc_test1.xml");
+		XmlDocument doc = new XmlDocument();
+		try {
+			doc.load(in);
+		} finally {
+			in.close();
+		}
+		Assert.assertEquals("Patrick's company1234",
+				idoc.getText("/IDOC/E1KNA1M/NAME1"));
+		Assert.assertTrue(idoc.exists("/IDOC/E1KNA1M/E1KNVVM/SPART"));
+		Assert.assertFalse(idoc.exists("/IDOC/BOB/CASHFLOW"));
+		Assert.assertEquals(doc.getRoot(), idoc.getRoot());
+	}
+
+	@Test(expected = XmlException.class)
+	public void testMalformed() throws Exception {
+		new XmlIndexedDocument().load("<a><b></a>");
+	}
+
+	@Test
+	public void testBytes() throws Exception {
+		for (String encoding : new String[] { "UTF-8", "ISO-8859-1", "UTF-16" }) {
+			XmlIndexedDocument idoc = new XmlIndexedDocument();
+			idoc.load(new ByteArrayInputStream(XML.getBytes(encoding)));
+			assertSameResults(idoc);
+		}
+	}
+
+	@Test
+	public void testUtf8Bytes() throws Exception {
+		String xml = "\uFEFF<r\u00E9sum\u00E9 nom=\"\u00C9lise\">"
+				+ "<ligne>caf\u00E9 \uD83D\uDE00 &amp; th\u00E9</ligne>"
+				+ "<r\u00E9sum\u00E9/></r\u00E9sum\u00E9>";
+		XmlIndexedDocument idoc = new XmlIndexedDocument();
+		idoc.load(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		Assert.assertEquals("\u00C9lise", idoc.getText("/@nom"));
+		Assert.assertEquals("caf\u00E9 \uD83D\uDE00 & th\u00E9",
+				idoc.getText("/ligne"));
+		Assert.assertTrue(idoc.exists("/r\u00E9sum\u00E9"));
+		Assert.assertEquals(XmlElement.readXML(xml.substring(1)).toString(),
+				idoc.getRoot().toString());
+	}
+
+	@Test
+	public void testLatin1Bytes() throws Exception {
+		String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>"
+				+ "<a b=\"\u00E9t\u00E9\">\u00E0 \u00FF</a>";
+		XmlIndexedDocument idoc = new XmlIndexedDocument();
+		idoc.load(new ByteArrayInputStream(xml.getBytes("ISO-8859-1")));
+		Assert.assertEquals("\u00E9t\u00E9", idoc.getText("/@b"));
+		Assert.assertEquals("\u00E0 \u00FF", idoc.getText("/"));
+	}
+
+	@Test(expected = XmlException.class)
+	public void testMalformedUtf8() throws Exception {
+		byte[] data = { '<', 'a', '>', (byte) 0xC3, '<', '/', 'a', '>' };
+		new XmlIndexedDocument().load(new ByteArrayInputStream(data));
+	}
+
+	@Test
+	public void testValuesCheckedWhenDecoded() throws Exception {
+		XmlIndexedDocument idoc = new XmlIndexedDocument();
+		idoc.load("<a x='&bad;'><b>&bad;</b><c>ok</c></a>");
+		Assert.assertEquals("ok", idoc.getText("/c"));
+		try {
+			idoc.getText("/b");
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getCause() instanceof XmlException);
+		}
+		try {
+			idoc.getText("/@x");
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getCause() instanceof XmlException);
+		}
+	}
+
+	@Test
+	public void testMalformedStructure() throws Exception {
+		String[] documents = { "", "<a>", "<a></a><b/>", "text<a/>",
+				"<a x=1/>", "<a x='<'/>", "<a><!-- </a>", "<a></a >x",
+				"<a><![CDATA[</a>", "<a/><![CDATA[x]]>", "</a>" };
+		for (String xml : documents) {
+			try {
+				new XmlIndexedDocument().load(xml);
+				Assert.fail(xml);
+			} catch (XmlException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.formix.dsx;
+
+import java.io.StringReader;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlParallelLoader {
+
+	private static String createDocument(int records, String badRecord) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\"?>\n<!-- <fake> -->\n");
+		sb.append("<records count=\"").append(records).append("\">\n");
+		for (int i = 0; i < records; i++) {
+			if (i == records / 2 && badRecord != null) {
+				sb.append(badRecord);
+			}
+			sb.append("  <record id=\"").append(i).append("\" op=\"a>b\">");
+			sb.append("<name>Record &amp; ").append(i).append("</name>");
+			sb.append("<![CDATA[</record><x>]]><!-- </records> -->");
+			sb.append("<empty/>text ").append(i).append("</record>\n");
+		}
+		sb.append("</records>\n<!-- end -->\n");
+		return sb.toString();
+	}
+
+	@Test
+	public void testSameAsSequential() throws Exception {
+		String xml = createDocument(5000, null);
+		XmlDocument expected = new XmlDocument();
+		expected.load(new StringReader(xml));
+		XmlDocument actual = new XmlDocument();
+		actual.loadParallel(new StringReader(xml), new ForkJoinPool(4));
+		Assert.assertEquals(10001, actual.getRoot().getChilds().size());
+		Assert.assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test(expected = XmlException.class)
+	public void testMalformedRecord() throws Exception {
+		String xml = createDocument(5000, "<record><name></record>");
+		new XmlDocument().loadParallel(new StringReader(xml),
+				new ForkJoinPool(4));
+	}
+
+	@Test(expected = XmlException.class)
+	public void testMalformedEpilog() throws Exception {
+		String xml = createDocument(5000, null) + "<other/>";
+		new XmlDocument().loadParallel(new StringReader(xml),
+				new ForkJoinPool(4));
+	}
+}
@@ -0,0 +1,135 @@
+package org.formix.dsx;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlParser {
+
+	@Test
+	public void testReuse() throws Exception {
+		XmlParser parser = new XmlParser();
+		Assert.assertEquals("<a>1</a>", parser.parse("<a>1</a>").toString());
+		try {
+			parser.parse("<a><b></a>");
+			Assert.fail("XmlException expected");
+		} catch (XmlException e) {
+			// the parser must recover from the error.
+		}
+		Assert.assertEquals("<b x=\"2\"/>",
+				parser.parse(new StringReader("<b x='2'/>")).toString());
+	}
+
+	@Test
+	public void testPool() throws Exception {
+		final XmlParserPool pool = new XmlParserPool(2);
+		final AtomicInteger errors = new AtomicInteger(0);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			final int n = i;
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < 200; j++) {
+						String xml = "<doc id=\"" + n + "\"><v>" + j
+								+ "</v></doc>";
+						XmlParser parser = pool.acquire();
+						try {
+							if (!xml.equals(parser.parse(xml).toString())) {
+								errors.incrementAndGet();
+							}
+						} catch (XmlException e) {
+							errors.incrementAndGet();
+						} finally {
+							pool.release(parser);
+						}
+					}
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assert.assertEquals(0, errors.get());
+	}
+
+	@Test
+	public void testLargeText() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			sb.append("QUJDRA==");
+		}
+		String payload = sb.toString();
+		final AtomicInteger texts = new AtomicInteger(0);
+		XmlElement elem = new XmlParser().parse(new StringReader("<a>"
+				+ payload + "<![CDATA[" + payload + "]]></a>"),
+				new XmlContentAdapter() {
+					@Override
+					public void textCreated(XmlText text) {
+						texts.incrementAndGet();
+					}
+				});
+		Assert.assertEquals(2, elem.getChilds().size());
+		Assert.assertEquals(payload, elem.getChild(0).toString());
+		Assert.assertTrue(elem.getChild(1) instanceof XmlCDATA);
+		Assert.assertEquals(payload, elem.getChild(1).toString());
+		Assert.assertEquals(1, texts.get());
+	}
+
+	@Test
+	public void testElementCompleted() throws Exception {
+		StringBuilder sb = new StringBuilder("<root><rows>");
+		for (int i = 0; i < 1000; i++) {
+			sb.append("<row id=\"").append(i).append("\"><v>").append(i)
+					.append("</v></row>");
+		}
+		sb.append("</rows><footer/></root>");
+		final List<String> completed = new ArrayList<String>();
+		final AtomicInteger sum = new AtomicInteger(0);
+		XmlDocument doc = new XmlDocument();
+		doc.load(new StringReader(sb.toString()), new XmlContentAdapter() {
+			@Override
+			public boolean elementCompleted(XmlElement element, int depth) {
+				if (depth == 2) {
+					// The row is complete: its children are already there.
+					sum.addAndGet(Integer.parseInt(element.getValue("v")));
+					return true;
+				}
+				completed.add(element.getName() + " " + depth);
+				return false;
+			}
+		});
+		Assert.assertEquals(999 * 1000 / 2, sum.get());
+		Assert.assertEquals(1000 + 3, completed.size());
+		Assert.assertEquals("v 3", completed.get(0));
+		Assert.assertEquals("[rows 1, footer 1, root 0]", completed.subList(
+				1000, 1003).toString());
+		Assert.assertEquals("<root><rows/><footer/></root>", doc.getRoot()
+				.toString());
+	}
+
+	@Test
+	public void testStripWhiteSpacesSpooled() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append("word ").append(i).append("    \n");
+		}
+		String text = sb.toString();
+		String xml = "<a>   \n" + text + "<b/>\n\n  " + text + "   </a>";
+		XmlParser parser = new XmlParser();
+		parser.setTextSpoolThreshold(1000);
+		parser.setStripWhiteSpaces(true);
+		XmlElement elem = parser.parse(new StringReader(xml));
+		Assert.assertEquals(3, elem.getChildCount());
+		Assert.assertTrue(elem.getChild(0) instanceof XmlSpooledText);
+		Assert.assertEquals(text.trim(), elem.getChild(0).toString());
+		Assert.assertEquals(text.trim(), elem.getChild(2).toString());
+		((XmlSpooledText) elem.getChild(0)).delete();
+		((XmlSpooledText) elem.getChild(2)).delete();
+	}
+}
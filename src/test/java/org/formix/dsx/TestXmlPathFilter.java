@@ -0,0 +1,58 @@
+package org.formix.dsx;
+
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlPathFilter {
+
+	private static final String XML = "<root><keep a='1'>x<sub/></keep>"
+			+ "<skip b='a>b'><![CDATA[</skip><keep>]]><!-- </skip> -->"
+			+ "<?pi </skip>?><skip><e/></skip>&undefined;</skip>"
+			+ "<keep a='2'><drop/><sub/></keep></root>";
+
+	@Test
+	public void testIncludeExclude() throws Exception {
+		XmlDocument doc = new XmlDocument();
+		doc.loadFiltered(new StringReader(XML),
+				new XmlPathFilter().include("/keep").exclude("/*/drop"));
+		Assert.assertEquals(
+				"<root><keep a=\"1\">x<sub/></keep><keep a=\"2\"><sub/></keep></root>",
+				doc.getRoot().toString());
+	}
+
+	@Test
+	public void testAttributeFilter() throws Exception {
+		XmlDocument doc = new XmlDocument();
+		doc.loadFiltered(new StringReader(XML), new XmlFilter() {
+			public boolean accept(XmlStartTag tag) {
+				return tag.getAttributeCount() == 0
+						|| "2".equals(tag.getAttributeValue(0));
+			}
+		});
+		Assert.assertEquals("<root><keep a=\"2\"><drop/><sub/></keep></root>",
+				doc.getRoot().toString());
+	}
+
+	@Test
+	public void testIdoc() throws Exception {
+		InputStream in = this.getClass().getResourceAsStream("idoc_test1.xml");
+		XmlDocument doc = new XmlDocument();
+		doc.loadFiltered(in,
+				new XmlPathFilter().include("/IDOC/E1KNA1M/NAME1"));
+		in.close();
+		Assert.assertEquals("Patrick's company1234",
+				doc.getElement("/IDOC/E1KNA1M/NAME1").getChild(0).toString());
+		Assert.assertNull(doc.getElement("/IDOC/EDI_DC40"));
+		Assert.assertNull(doc.getElement("/IDOC/E1KNA1M/KUNNR"));
+	}
+
+	@Test(expected = XmlException.class)
+	public void testUnterminatedSkippedElement() throws Exception {
+		new XmlDocument().loadFiltered(
+				new StringReader("<root><skip><a></root>"),
+				new XmlPathFilter().exclude("/skip"));
+	}
+}
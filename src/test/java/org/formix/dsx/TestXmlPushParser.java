@@ -0,0 +1,133 @@
+package org.formix.dsx;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlPushParser {
+
+	private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+			+ "<!DOCTYPE root [<!ENTITY e \"entity\">]>\r\n"
+			+ "<!-- prolog --><root a=\"1 &amp; 2\" b='caf\u00e9'>\r\n"
+			+ "  <text>caf\u00e9 \u20ac \uD83D\uDE00 &lt;&#233;&#x20AC;&gt;</text>\r\n"
+			+ "  <cdata><![CDATA[<not> ]] markup]]></cdata>\r\n"
+			+ "  <mixed>one<!-- comment --><b x='1'/>two<?pi data?>three</mixed>\r\n"
+			+ "  <empty/>\r\n" + "</root>\r\n";
+
+	@Test
+	public void testByteByByte() throws Exception {
+		byte[] data = XML.getBytes("UTF-8");
+		XmlPushParser parser = new XmlPushParser();
+		for (int i = 0; i < data.length; i++) {
+			parser.feed(data, i, 1);
+		}
+		Assert.assertEquals(XmlElement.readXML(XML).toString(), parser
+				.endOfInput().toString());
+	}
+
+	@Test
+	public void testRandomChunks() throws Exception {
+		StringBuilder sb = new StringBuilder(XML.substring(0,
+				XML.length() - 9));
+		for (int i = 0; i < 2000; i++) {
+			sb.append("<row id='").append(i).append("'>value \u00e9 ")
+					.append(i).append(" &amp; <![CDATA[cdata ").append(i)
+					.append("]]></row>\n");
+		}
+		for (int i = 0; i < 20000; i++) {
+			sb.append("long text ");
+		}
+		sb.append("</root>");
+		String xml = sb.toString();
+		byte[] data = xml.getBytes("UTF-8");
+		Recorder expected = new Recorder();
+		XmlElement root = XmlElement.readXML(new java.io.StringReader(xml),
+				expected);
+		Random random = new Random(42);
+		XmlPushParser parser = new XmlPushParser(new Recorder());
+		for (int run = 0; run < 5; run++) {
+			Recorder actual = new Recorder();
+			parser = new XmlPushParser(actual);
+			int pos = 0;
+			while (pos < data.length) {
+				int length = Math.min(data.length - pos,
+						random.nextInt(run * 3000 + 10) + 1);
+				parser.feed(ByteBuffer.wrap(data, pos, length));
+				pos += length;
+			}
+			Assert.assertEquals(root.toString(), parser.endOfInput()
+					.toString());
+			Assert.assertEquals(expected.events, actual.events);
+		}
+	}
+
+	@Test
+	public void testUtf16() throws Exception {
+		byte[] data = "<a>caf\u00e9 \u20ac</a>".getBytes("UTF-16");
+		XmlPushParser parser = new XmlPushParser();
+		for (int i = 0; i < data.length; i++) {
+			parser.feed(data, i, 1);
+		}
+		Assert.assertEquals("caf\u00e9 \u20ac", parser.endOfInput()
+				.getChild(0).toString());
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		XmlPushParser parser = new XmlPushParser();
+		parser.feed("<a>1</".getBytes("UTF-8"), 0, 6);
+		parser.reset();
+		byte[] data = "<b>2</b>".getBytes("UTF-8");
+		parser.feed(data, 0, data.length);
+		Assert.assertEquals("<b>2</b>", parser.endOfInput().toString());
+		parser.feed(data, 0, data.length);
+		Assert.assertEquals("<b>2</b>", parser.endOfInput().toString());
+	}
+
+	@Test(expected = XmlException.class)
+	public void testMalformed() throws Exception {
+		byte[] data = "<a><b></a>".getBytes("UTF-8");
+		new XmlPushParser().feed(data, 0, data.length);
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		byte[] data = "<a><b>text".getBytes("UTF-8");
+		XmlPushParser parser = new XmlPushParser();
+		parser.feed(data, 0, data.length);
+		try {
+			parser.endOfInput();
+			Assert.fail("Truncated document accepted");
+		} catch (XmlException e) {
+			// expected
+		}
+		data = "<c/>".getBytes("UTF-8");
+		parser.feed(data, 0, data.length);
+		Assert.assertEquals("<c/>", parser.endOfInput().toString());
+	}
+
+	private static class Recorder implements XmlContentListener {
+
+		private List<String> events = new ArrayList<String>();
+
+		public void cdataCreated(XmlCDATA cdata) {
+			this.events.add("cdata " + cdata);
+		}
+
+		public void elementCreated(XmlElement element) {
+			this.events.add("element " + element.getName());
+		}
+
+		public void textCreated(XmlText text) {
+			this.events.add("text " + text);
+		}
+
+		public void commentCreated(XmlComment comment) {
+			this.events.add("comment " + comment);
+		}
+	}
+}
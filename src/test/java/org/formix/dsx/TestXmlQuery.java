@@ -0,0 +1,66 @@
+package org.formix.dsx;
+
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlQuery {
+
+	// Everything after the header is malformed: the query must stop before.
+	private static final String XML = "<doc><header id='7'><name>first</name>"
+			+ "<item>a</item><item>b</item><item>c</item></header>"
+			+ "<body><<< malformed";
+
+	@Test
+	public void testEarlyTermination() throws Exception {
+		XmlQuery query = new XmlQuery("/header/name", "/header@id",
+				"/header/item[1]");
+		XmlDocument doc = query.execute(new StringReader(XML));
+		Assert.assertEquals("first", doc.getText("/header/name"));
+		Assert.assertEquals("7", doc.getText("/header@id"));
+		Assert.assertEquals("b", doc.getText("/header/item[1]"));
+	}
+
+	@Test
+	public void testAttributeStopsAtStartTag() throws Exception {
+		// Everything after the start tag of the targeted element is
+		// malformed.
+		String xml = "<doc v='1'><header id='7' x='y'><name>first</name>"
+				+ "<<< malformed";
+		XmlDocument doc = new XmlQuery("/header@id").execute(
+				new StringReader(xml));
+		Assert.assertEquals("7", doc.getText("/header@id"));
+		Assert.assertEquals(0, doc.getRoot().getElement("header")
+				.getChildCount());
+
+		doc = new XmlQuery("/@v").execute(new StringReader(xml));
+		Assert.assertEquals("1", doc.getText("/@v"));
+		Assert.assertEquals(0, doc.getRoot().getChildCount());
+	}
+
+	@Test
+	public void testUnresolvablePath() throws Exception {
+		// The first header closes without any "missing" child.
+		XmlQuery query = new XmlQuery("/header/missing", "/header/[2]");
+		XmlDocument doc = query.execute(new StringReader(XML));
+		Assert.assertFalse(doc.exists("/header/missing"));
+		Assert.assertEquals("b", doc.getText("/header/[2]"));
+	}
+
+	@Test(expected = XmlException.class)
+	public void testUnresolvedPathReadsEverything() throws Exception {
+		new XmlQuery("/body/missing").execute(new StringReader(XML));
+	}
+
+	@Test
+	public void testIdoc() throws Exception {
+		InputStream in = this.getClass().getResourceAsStream("idoc_test1.xml");
+		XmlDocument doc = new XmlQuery("/IDOC/EDI_DC40").execute(in);
+		in.close();
+		Assert.assertEquals("0000000001068761",
+				doc.getText("/IDOC/EDI_DC40/DOCNUM"));
+		Assert.assertFalse(doc.exists("/IDOC/E1KNA1M"));
+	}
+}
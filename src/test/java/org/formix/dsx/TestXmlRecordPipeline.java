@@ -0,0 +1,179 @@
+package org.formix.dsx;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlRecordPipeline {
+
+	private static String createXml(int count) {
+		StringBuilder sb = new StringBuilder("<root><header/><rows>");
+		for (int i = 0; i < count; i++) {
+			sb.append("<row id=\"").append(i).append("\">value ").append(i)
+					.append("</row>");
+		}
+		sb.append("</rows></root>");
+		return sb.toString();
+	}
+
+	private static XmlElementReader createReader(String xml) {
+		return new XmlElementReader(new StringReader(xml), "/rows/row");
+	}
+
+	@Test
+	public void testOrdered() throws Exception {
+		XmlRecordPipeline pipeline = new XmlRecordPipeline(
+				createReader(createXml(2000)));
+		pipeline.setWorkers(8);
+		pipeline.setOrdered(true);
+		final List<Integer> ids = new ArrayList<Integer>();
+		long count = pipeline.process(new XmlRecordProcessor<Integer>() {
+			public Integer process(XmlElement record) throws Exception {
+				int id = Integer.parseInt(record.getAttribute("id"));
+				if (id % 7 == 0) {
+					Thread.sleep(1);
+				}
+				return id;
+			}
+
+			public void collect(Integer result) {
+				ids.add(result);
+			}
+		});
+		Assert.assertEquals(2000, count);
+		for (int i = 0; i < 2000; i++) {
+			Assert.assertEquals(i, ids.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void testBoundedInFlight() throws Exception {
+		XmlRecordPipeline pipeline = new XmlRecordPipeline(
+				createReader(createXml(500)));
+		pipeline.setWorkers(4);
+		pipeline.setCapacity(6);
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		pipeline.setExecutor(executor);
+		final long[] sum = new long[1];
+		try {
+			long count = pipeline.process(new XmlRecordProcessor<Integer>() {
+				public Integer process(XmlElement record) throws Exception {
+					return Integer.parseInt(record.getAttribute("id"));
+				}
+
+				public void collect(Integer result) {
+					sum[0] += result;
+				}
+			});
+			Assert.assertEquals(500, count);
+			Assert.assertEquals(499 * 500 / 2, sum[0]);
+		} finally {
+			executor.shutdown();
+		}
+
+		// Counts the records created but not yet collected.
+		XmlElementReader reader = new XmlElementReader(new StringReader(
+				createXml(500)), "/rows/row", new XmlContentAdapter() {
+			@Override
+			public void elementCreated(XmlElement element) {
+				if (element.getName().equals("row")) {
+					int count = inFlight.incrementAndGet();
+					if (count > maxInFlight.get()) {
+						maxInFlight.set(count);
+					}
+				}
+			}
+		});
+		pipeline = new XmlRecordPipeline(reader);
+		pipeline.setWorkers(4);
+		pipeline.setCapacity(6);
+		pipeline.process(new XmlRecordProcessor<Object>() {
+			public Object process(XmlElement record) throws Exception {
+				Thread.sleep(1);
+				return null;
+			}
+
+			public void collect(Object result) {
+				inFlight.decrementAndGet();
+			}
+		});
+		// The parser may hold one more record while waiting for a permit.
+		Assert.assertTrue(maxInFlight.get() <= 7);
+	}
+
+	@Test
+	public void testProcessorFailure() throws Exception {
+		XmlRecordPipeline pipeline = new XmlRecordPipeline(
+				createReader(createXml(1000)));
+		pipeline.setCapacity(2);
+		try {
+			pipeline.process(new XmlRecordProcessor<Object>() {
+				public Object process(XmlElement record) throws Exception {
+					if (record.getAttribute("id").equals("10")) {
+						throw new IllegalArgumentException("bad record");
+					}
+					return null;
+				}
+
+				public void collect(Object result) {
+				}
+			});
+			Assert.fail("The failure was not reported");
+		} catch (XmlException e) {
+			Assert.assertEquals("bad record", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void testRejectedWorker() throws Exception {
+		XmlRecordPipeline pipeline = new XmlRecordPipeline(
+				createReader(createXml(10)));
+		pipeline.setWorkers(3);
+		// Runs the first worker and rejects the next ones.
+		ExecutorService executor = new ThreadPoolExecutor(1, 1, 0,
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+		pipeline.setExecutor(executor);
+		try {
+			pipeline.process(new XmlRecordProcessor<Integer>() {
+				public Integer process(XmlElement record) throws Exception {
+					return 0;
+				}
+
+				public void collect(Integer result) {
+				}
+			});
+			Assert.fail();
+		} catch (XmlException e) {
+			Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = XmlException.class)
+	public void testMalformed() throws Exception {
+		XmlRecordPipeline pipeline = new XmlRecordPipeline(
+				createReader("<root><rows><row>a</row><row></rows></root>"));
+		pipeline.process(new XmlRecordProcessor<Object>() {
+			public Object process(XmlElement record) throws Exception {
+				return null;
+			}
+
+			public void collect(Object result) {
+			}
+		});
+	}
+}
@@ -0,0 +1,114 @@
+package org.formix.dsx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlReformatter {
+
+	private static final String XML = "<?xml version=\"1.0\"?>\r\n"
+			+ "<!DOCTYPE a [<!ENTITY e \"entity\">]>\r\n<!-- prolog -->\r\n"
+			+ "<a x='1 &amp; 2'>\r\n <b> short &lt;text&gt; </b>"
+			+ "<c><!-- note --> <![CDATA[ data ]]> <![CDATA[  ]]></c>"
+			+ "<d>  </d><!-- -->\r\n<e>two\r\nlines</e><f>\n</f>"
+			+ "<g>one<?pi data?>two<h/>  three  </g>"
+			+ "<i>a text long enough to be written on its own line, "
+			+ "below the element</i>caf\u00e9<j><!--only--></j>"
+			+ "<k>  <![CDATA[x]]>  </k><l><![CDATA[ a ]]><![CDATA[ b ]]></l>"
+			+ "</a>\r\n";
+
+	private static void assertSameResult(String xml, XmlFormatOptions options)
+			throws Exception {
+		XmlDocument doc = new XmlDocument(XmlElement.readXML(xml));
+		if (options == null) {
+			doc.cleanUp();
+		} else {
+			doc.format(options.getEol(), options.getIndent());
+		}
+		StringWriter actual = new StringWriter();
+		new XmlReformatter(options).reformat(new StringReader(xml), actual);
+		Assert.assertEquals(doc.toString(), actual.toString());
+	}
+
+	@Test
+	public void testSameResultAsDocument() throws Exception {
+		assertSameResult(XML, null);
+		assertSameResult(XML, new XmlFormatOptions());
+		assertSameResult(XML, new XmlFormatOptions("\n", "\t"));
+		assertSameResult(XML, new XmlFormatOptions("\r\n", "\u00e9 "));
+		assertSameResult("<a/>", new XmlFormatOptions());
+		assertSameResult("<a> </a>", new XmlFormatOptions());
+	}
+
+	@Test
+	public void testResources() throws Exception {
+		String[] resources = { "statistics.html", "idoc_test1.xml",
+				"FileData.xml" };
+		for (String resource : resources) {
+			InputStream in = this.getClass().getResourceAsStream(resource);
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count = in.read(buffer);
+			while (count >= 0) {
+				data.write(buffer, 0, count);
+				count = in.read(buffer);
+			}
+			in.close();
+			String xml = new String(data.toByteArray(), "UTF-8");
+			assertSameResult(xml, null);
+			assertSameResult(xml, new XmlFormatOptions());
+		}
+		XmlDocument doc = new XmlDocument();
+		doc.load(new File("hugedoc.xhtml"));
+		StringWriter sw = new StringWriter();
+		doc.getRoot().write(sw);
+		assertSameResult(sw.toString(), new XmlFormatOptions("\n", "  "));
+	}
+
+	@Test
+	public void testLargeTexts() throws Exception {
+		StringBuilder sb = new StringBuilder("<a><b>   ");
+		char[] spaces = new char[20000];
+		Arrays.fill(spaces, ' ');
+		for (int i = 0; i < 2000; i++) {
+			sb.append("text &amp; ").append(i).append(spaces, 0, i * 10);
+		}
+		sb.append(spaces).append("</b><c><![CDATA[").append(spaces)
+				.append("x").append(spaces).append("]]></c></a>");
+		assertSameResult(sb.toString(), null);
+		assertSameResult(sb.toString(), new XmlFormatOptions());
+	}
+
+	@Test
+	public void testFiles() throws Exception {
+		File source = File.createTempFile("source", ".xml");
+		File target = File.createTempFile("target", ".xml");
+		try {
+			XmlDocument doc = new XmlDocument();
+			doc.load(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+			doc.save(source);
+			new XmlReformatter(new XmlFormatOptions()).reformat(source,
+					target);
+			doc.format();
+			XmlDocument result = new XmlDocument();
+			result.load(target);
+			Assert.assertEquals(doc.toString(), result.toString());
+		} finally {
+			source.delete();
+			target.delete();
+		}
+	}
+
+	@Test(expected = XmlException.class)
+	public void testMalformed() throws Exception {
+		new XmlReformatter().reformat(new StringReader("<a><b></a>"),
+				new StringWriter());
+	}
+}
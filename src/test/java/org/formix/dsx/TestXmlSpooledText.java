@@ -0,0 +1,113 @@
+package org.formix.dsx;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlSpooledText {
+
+	@Test
+	public void testSpooledLoad() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			sb.append("QUJD\u00e9&<");
+		}
+		String text = sb.toString();
+		String xml = "<a><small>x</small><big>"
+				+ text.replace("&", "&amp;").replace("<", "&lt;")
+				+ "</big></a>";
+
+		XmlParser parser = new XmlParser();
+		parser.setTextSpoolThreshold(1000);
+		XmlElement root = parser.parse(new StringReader(xml));
+
+		XmlContent small = root.getElement("small").getChild(0);
+		Assert.assertFalse(small instanceof XmlSpooledText);
+		XmlSpooledText big = (XmlSpooledText) root.getElement("big")
+				.getChild(0);
+		Assert.assertEquals(text.length(), big.length());
+		Assert.assertEquals(text, big.getText());
+
+		Reader reader = big.getReader();
+		char[] buffer = new char[7];
+		Assert.assertEquals(7, reader.read(buffer));
+		Assert.assertEquals("QUJD\u00e9&<", new String(buffer));
+		reader.close();
+
+		StringWriter writer = new StringWriter();
+		root.write(writer);
+		Assert.assertEquals(XmlElement.readXML(xml).toString(),
+				writer.toString());
+
+		big.delete();
+		Assert.assertFalse(big.getFile().exists());
+	}
+
+	@Test
+	public void testResetRestoresInMemoryTexts() throws Exception {
+		XmlParser parser = new XmlParser();
+		parser.setTextSpoolThreshold(2);
+		Assert.assertTrue(parser.parse("<a>xyz</a>").getChild(0) instanceof XmlSpooledText);
+		parser.reset();
+		Assert.assertFalse(parser.parse("<a>xyz</a>").getChild(0) instanceof XmlSpooledText);
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		XmlSpooledText text = new XmlSpooledText(null);
+		text.append("abc");
+		Assert.assertTrue(text.getFile().exists());
+		text.close();
+		Assert.assertFalse(text.getFile().exists());
+		Assert.assertEquals(0, text.length());
+		text.delete();
+		try {
+			text.getText();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			text.append("def");
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertFalse(text.getFile().exists());
+	}
+
+	@Test
+	public void testIsBlank() throws Exception {
+		XmlSpooledText text = new XmlSpooledText(null);
+		try {
+			Assert.assertTrue(text.isBlank());
+			char[] spaces = new char[20000];
+			Arrays.fill(spaces, ' ');
+			text.append(spaces, 0, spaces.length);
+			Assert.assertTrue(text.isBlank());
+			text.append("x");
+			Assert.assertFalse(text.isBlank());
+		} finally {
+			text.close();
+		}
+	}
+
+	@Test
+	public void testDeletedWhenUnreachable() throws Exception {
+		XmlSpooledText text = new XmlSpooledText(null);
+		text.append("abc");
+		File file = text.getFile();
+		Assert.assertTrue(file.exists());
+		text = null;
+		for (int i = 0; i < 100 && file.exists(); i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		Assert.assertFalse(file.exists());
+	}
+}
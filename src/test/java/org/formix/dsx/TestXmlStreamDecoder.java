@@ -0,0 +1,177 @@
+package org.formix.dsx;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlStreamDecoder {
+
+	private static final String TEXT = "caf\u00e9 \u20ac \uD83D\uDE00";
+
+	@Test
+	public void testUtf8() throws Exception {
+		byte[] data = ("<a>" + TEXT + "</a>").getBytes("UTF-8");
+		Assert.assertEquals(TEXT, XmlElement.readXML(data).getChild(0)
+				.toString());
+	}
+
+	@Test
+	public void testUtf8ByteOrderMark() throws Exception {
+		byte[] xml = ("<a>" + TEXT + "</a>").getBytes("UTF-8");
+		byte[] data = new byte[xml.length + 3];
+		data[0] = (byte) 0xEF;
+		data[1] = (byte) 0xBB;
+		data[2] = (byte) 0xBF;
+		System.arraycopy(xml, 0, data, 3, xml.length);
+		XmlElement elem = XmlElement.readXML(new ByteArrayInputStream(data));
+		Assert.assertEquals(TEXT, elem.getChild(0).toString());
+	}
+
+	@Test
+	public void testUtf16ByteOrderMark() throws Exception {
+		byte[] data = ("<a>" + TEXT + "</a>").getBytes("UTF-16");
+		Assert.assertEquals(TEXT, XmlElement.readXML(data).getChild(0)
+				.toString());
+	}
+
+	@Test
+	public void testDeclaredLatin1() throws Exception {
+		String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a>été</a>";
+		byte[] data = xml.getBytes("ISO-8859-1");
+		Assert.assertEquals("\u00e9t\u00e9", XmlElement.readXML(data)
+				.getChild(0).toString());
+	}
+
+	@Test
+	public void testDeclaredCharset() throws Exception {
+		String xml = "<?xml version='1.0' encoding='windows-1252'?><a>\u20ac</a>";
+		byte[] data = xml.getBytes("windows-1252");
+		Assert.assertEquals("\u20ac", XmlElement.readXML(data).getChild(0)
+				.toString());
+	}
+
+	@Test
+	public void testDirectBuffer() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append(TEXT);
+		}
+		byte[] data = ("<a>" + sb + "</a>").getBytes("UTF-8");
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		buffer.flip();
+		Assert.assertEquals(sb.toString(), XmlElement.readXML(buffer)
+				.getChild(0).toString());
+	}
+
+	@Test(expected = XmlException.class)
+	public void testInvalidUtf8() throws Exception {
+		XmlElement.readXML(new byte[] { '<', 'a', '>', (byte) 0xC3, '<', '/',
+				'a', '>' });
+	}
+
+	@Test
+	public void testLoadFile() throws Exception {
+		XmlDocument doc = new XmlDocument();
+		doc.load(new File("hugedoc.xhtml"));
+		InputStream in = this.getClass().getResourceAsStream("idoc_test1.xml");
+		doc.load(in);
+		in.close();
+		Assert.assertEquals("DEBMAS07", doc.getRoot().getName());
+	}
+
+	@Test
+	public void testMappedFile() throws Exception {
+		File file = File.createTempFile("dsx", ".xml");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("<doc>".getBytes("UTF-8"));
+		for (int i = 0; i < 100; i++) {
+			out.write(("<r>" + TEXT + i + "</r>").getBytes("UTF-8"));
+		}
+		out.write("</doc>".getBytes("UTF-8"));
+		out.close();
+
+		// Tiny windows make characters and tags span several mappings.
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		XmlElementReader reader = new XmlElementReader(new XmlStreamDecoder(
+				channel, 7), "/r");
+		int count = 0;
+		XmlElement record = reader.next();
+		while (record != null) {
+			Assert.assertEquals(TEXT + count, record.getChild(0).toString());
+			count++;
+			record = reader.next();
+		}
+		reader.close();
+		Assert.assertEquals(100, count);
+		Assert.assertFalse(channel.isOpen());
+
+		XmlDocument expected = new XmlDocument();
+		InputStream in = new FileInputStream(file);
+		try {
+			expected.load(in);
+		} finally {
+			in.close();
+		}
+		XmlDocument actual = new XmlDocument();
+		channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			actual.load(channel);
+		} finally {
+			channel.close();
+		}
+		Assert.assertEquals(expected, actual);
+		actual = new XmlDocument();
+		actual.load(file);
+		Assert.assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testDirectBufferLatin1() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append("\u00e9t\u00e9 ");
+		}
+		byte[] data = ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a>"
+				+ sb + "</a>").getBytes("ISO-8859-1");
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		buffer.flip();
+		Assert.assertEquals(sb.toString(), XmlElement.readXML(buffer)
+				.getChild(0).toString());
+	}
+
+	@Test
+	public void testDirectBufferInvalidUtf8() throws Exception {
+		StringBuilder sb = new StringBuilder("<a>");
+		for (int i = 0; i < 10000; i++) {
+			sb.append('x');
+		}
+		byte[] xml = (sb + "\u00e9</a>").getBytes("UTF-8");
+		// Cuts the two bytes of the last character.
+		xml[xml.length - 5] = 'y';
+		ByteBuffer buffer = ByteBuffer.allocateDirect(xml.length);
+		buffer.put(xml);
+		buffer.flip();
+		try {
+			XmlElement.readXML(buffer);
+			Assert.fail("Invalid UTF-8 decoded");
+		} catch (XmlException e) {
+			Throwable cause = e;
+			while (cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			Assert.assertTrue(cause.getMessage(), cause.getMessage()
+					.endsWith("at byte " + (xml.length - 6)));
+		}
+	}
+}
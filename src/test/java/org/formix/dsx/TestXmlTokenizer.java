@@ -0,0 +1,76 @@
+package org.formix.dsx;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlTokenizer {
+
+	@Test
+	public void testTokens() throws Exception {
+		String xml = "<?xml version=\"1.0\"?><!DOCTYPE root [<!ENTITY e \"]>\">]>"
+				+ "<root a='1 &amp; 2'>x&lt;y<![CDATA[<z>]]><!--c--><e/></root>";
+		XmlTokenizer tokenizer = new XmlTokenizer(new StringReader(xml));
+
+		Assert.assertEquals(XmlTokenizer.START_ELEMENT, tokenizer.next());
+		Assert.assertEquals("root", tokenizer.getName());
+		Assert.assertEquals(1, tokenizer.getAttributeCount());
+		Assert.assertEquals("a", tokenizer.getAttributeName(0));
+		Assert.assertEquals("1 & 2", tokenizer.getAttributeValue(0));
+
+		Assert.assertEquals(XmlTokenizer.TEXT, tokenizer.next());
+		Assert.assertEquals("x<y", tokenizer.getText());
+
+		Assert.assertEquals(XmlTokenizer.CDATA, tokenizer.next());
+		Assert.assertEquals("<z>", tokenizer.getText());
+
+		Assert.assertEquals(XmlTokenizer.COMMENT, tokenizer.next());
+		Assert.assertEquals("c", tokenizer.getText());
+
+		Assert.assertEquals(XmlTokenizer.START_ELEMENT, tokenizer.next());
+		Assert.assertEquals(2, tokenizer.getDepth());
+		Assert.assertEquals(XmlTokenizer.END_ELEMENT, tokenizer.next());
+		Assert.assertEquals("e", tokenizer.getName());
+		Assert.assertEquals(XmlTokenizer.END_ELEMENT, tokenizer.next());
+		Assert.assertEquals("root", tokenizer.getName());
+		Assert.assertEquals(XmlTokenizer.END_DOCUMENT, tokenizer.next());
+	}
+
+	@Test
+	public void testLineEndNormalization() throws Exception {
+		XmlElement elem = XmlElement.readXML("<a b=\"1\r\n2\">x\r\ny\rz</a>");
+		Assert.assertEquals("1 2", elem.getAttribute("b"));
+		Assert.assertEquals("x\ny\nz", elem.getChild(0).toString());
+	}
+
+	@Test
+	public void testCharacterReferences() throws Exception {
+		XmlElement elem = XmlElement.readXML("<a>&#65;&#x42;&#x1F600;</a>");
+		Assert.assertEquals("AB\uD83D\uDE00", elem.getChild(0).toString());
+	}
+
+	@Test(expected = XmlException.class)
+	public void testMismatchedEndTag() throws Exception {
+		XmlElement.readXML("<a><b></a></b>");
+	}
+
+	@Test(expected = XmlException.class)
+	public void testUndeclaredEntity() throws Exception {
+		XmlElement.readXML("<a>&nbsp;</a>");
+	}
+
+	@Test
+	public void testCanonicalNames() throws Exception {
+		XmlParser parser = new XmlParser();
+		XmlElement first = parser.parse("<r><row a='1'/><row a='2'/></r>");
+		XmlElement second = parser.parse("<r><row a='3'/></r>");
+		XmlElement row1 = first.getElements().get(0);
+		XmlElement row2 = first.getElements().get(1);
+		XmlElement row3 = second.getElements().get(0);
+		Assert.assertSame(row1.getName(), row2.getName());
+		Assert.assertSame(row1.getName(), row3.getName());
+		Assert.assertSame(row1.getAttributes().keySet().iterator().next(),
+				row3.getAttributes().keySet().iterator().next());
+	}
+}
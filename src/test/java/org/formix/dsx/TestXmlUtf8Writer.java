@@ -0,0 +1,85 @@
+package org.formix.dsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestXmlUtf8Writer {
+
+	private static byte[] encode(String text) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(out, "UTF-8");
+		writer.write(text);
+		writer.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testSameBytesAsOutputStreamWriter() throws Exception {
+		Random random = new Random(3);
+		String alphabet = "ab<\u00e9\u20ac\uD83D\uDE00\uD800\uDC00\uDBFF";
+		for (int i = 0; i < 100; i++) {
+			StringBuilder sb = new StringBuilder();
+			int length = random.nextInt(100000);
+			for (int j = 0; j < length; j++) {
+				sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			String text = sb.toString();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			XmlUtf8Writer writer = new XmlUtf8Writer(out);
+			// Surrogate pairs are split between writes.
+			int pos = 0;
+			while (pos < text.length()) {
+				int count = Math.min(text.length() - pos, random.nextInt(50));
+				if (count % 3 == 0) {
+					writer.write(text.toCharArray(), pos, count);
+				} else if (count == 1) {
+					writer.write(text.charAt(pos));
+				} else {
+					writer.write(text, pos, count);
+				}
+				pos += count;
+			}
+			writer.close();
+			Assert.assertArrayEquals(encode(text), out.toByteArray());
+		}
+	}
+
+	@Test
+	public void testSave() throws Exception {
+		XmlElement root = new XmlElement("r\u00e9sum\u00e9");
+		for (int i = 0; i < 5000; i++) {
+			root.addElement("item").setAttribute("caf\u00e9", "\u20ac" + i)
+					.addText("text \uD83D\uDE00 " + i);
+			root.addComment("comment \u00e9 " + i);
+			root.addCDATA("cdata \uD83D\uDE00 " + i);
+		}
+		XmlDocument doc = new XmlDocument();
+		doc.setRoot(root);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(expected, "UTF-8");
+		doc.save(writer);
+		writer.close();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		doc.save(out);
+		Assert.assertArrayEquals(expected.toByteArray(), out.toByteArray());
+
+		out = new ByteArrayOutputStream();
+		doc.save(Channels.newChannel(out));
+		Assert.assertArrayEquals(expected.toByteArray(), out.toByteArray());
+
+		ByteBuffer buffer = ByteBuffer.allocate(expected.size() + 10);
+		doc.save(buffer);
+		Assert.assertEquals(expected.size(), buffer.position());
+		Assert.assertArrayEquals(expected.toByteArray(),
+				Arrays.copyOf(buffer.array(), buffer.position()));
+	}
+}